@@ -4,11 +4,9 @@ import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.regex.Pattern;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.net.InetSocketAddress;
-import java.nio.channels.SocketChannel;
 import com.sun.management.OperatingSystemMXBean;
 import java.lang.management.ManagementFactory;
 
@@ -21,34 +19,106 @@ public class PgDumpProcessMonitor {
     private static final int POSTGRESQL_DEFAULT_PORT = 5432;
     private static final long SUSPICIOUS_DATA_THRESHOLD = 50 * 1024 * 1024; // 50MB
     private static final long MONITORING_INTERVAL = 5000; // 5 секунд
-    private static final int NETWORK_TIMEOUT = 3000; // 3 секунды
+    private static final long RECONCILIATION_INTERVAL = 30000; // 30 секунд, когда процессы приходят событиями
+    private static final long ANALYSIS_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(MonitorConfiguration.ANALYSIS_BUDGET);
+    private static final int EVENT_BATCH_SIZE = 256; // событий между анализами ожидающих кандидатов
+    private static final Comparator<ProcessInfo> REFRESH_ORDER =
+        Comparator.<ProcessInfo>comparingInt(process -> CandidateQueue.rank(process.getCandidateSignal()))
+                  .thenComparingInt(ProcessInfo::getScanCount);
     
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(3);
-    private final Map<String, ProcessInfo> monitoredProcesses = new ConcurrentHashMap<>();
+    // Все известные процессы по (pid, starttime); ProcessInfo хранится только у кандидатов
+    private final ProcessTable processTable = new ProcessTable();
     private final Set<String> postgresqlHosts = new HashSet<>();
+    // Сети из NETWORK_CLASSES и адреса postgresqlHosts, добавляемые в конструкторе
+    private final NetworkClassifier networks = NetworkClassifier.parse(MonitorConfiguration.NETWORK_CLASSES);
+    // Адреса имен из postgresqlHosts и обратные имена для алертов; разрешение только в фоне
+    private final HostResolverCache hostResolver = new HostResolverCache();
     private final SecurityLogger logger = new SecurityLogger();
-    
-    // Паттерны для обнаружения pg_dump
-    private final List<Pattern> pgDumpArgumentPatterns = Arrays.asList(
-        Pattern.compile("--host\\s+[\\d\\.]+", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("--port\\s+\\d+", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("--username\\s+\\w+", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("--dbname\\s+\\w+", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("--format\\s+(custom|tar|plain)", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("-h\\s+[\\d\\.]+", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("-p\\s+\\d+", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("-U\\s+\\w+", Pattern.CASE_INSENSITIVE),
-        Pattern.compile("-d\\s+\\w+", Pattern.CASE_INSENSITIVE)
-    );
+    private final UserNameCache userNames = new UserNameCache();
+    private final ProcfsProcessScanner procfsScanner =
+        new ProcfsProcessScanner(ProcfsProcessScanner.DEFAULT_PROC_ROOT, userNames);
+    private final MonitorMetrics metrics = new MonitorMetrics();
+    private final ExecutableFingerprintCache fingerprints = new ExecutableFingerprintCache();
+    private final ProcessEnvironmentInspector environmentInspector = new ProcessEnvironmentInspector();
+    private final ProcessIoSampler ioSampler = new ProcessIoSampler();
+    private final ProcessResourceSampler resourceSampler = new ProcessResourceSampler();
+    private final ContainerResolver containerResolver = new ContainerResolver();
+    private final ContainerActivity containerActivity = new ContainerActivity();
+    private final ProcNetTcpTable tcpTable = new ProcNetTcpTable(metrics);
+    private final ConnectionSource connectionSource = SockDiagConnectionSource.create(tcpTable, metrics);
+    // Разбор процессов-владельцев новых подключений, в своем потоке
+    private final ProcfsProcessScanner connectionScanner =
+        new ProcfsProcessScanner(ProcfsProcessScanner.DEFAULT_PROC_ROOT, userNames);
+    private final ConnectionThroughputTracker throughputTracker = new ConnectionThroughputTracker();
+    private final ReachabilityProber reachability = new ReachabilityProber(metrics, this::onReachabilityChanged);
+    private final LibpqMappingDetector libpqDetector = new LibpqMappingDetector(fingerprints, metrics);
+    private final ProcessPreFilter preFilter = new ProcessPreFilter(metrics, fingerprints, libpqDetector);
+    private String hostname = "unknown";
+    
+    // Событийное обнаружение процессов (exec/exit), периодический скан - сверка
+    private final ProcessEventSource eventSource;
+    private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor();
+    private final ParallelProcfsWalker procfsWalker = new ParallelProcfsWalker(
+        ProcfsProcessScanner.DEFAULT_PROC_ROOT, userNames, MonitorConfiguration.SCAN_WORKERS);
+    private final ProcfsProcessScanner eventScanner =
+        new ProcfsProcessScanner(ProcfsProcessScanner.DEFAULT_PROC_ROOT, userNames);
+    private final Map<Integer, ProcessInfo> candidatesByPid = new ConcurrentHashMap<>();
+    private final int selfPid = (int) ProcessHandle.current().pid();
+    private volatile long lastFullScanMillis = 0;
+    
+    // Защита от шторма процессов: события копятся в ограниченной очереди, кандидаты
+    // анализируются по приоритету сигнала в пределах бюджета времени
+    private final ProcessEventQueue processEvents = new ProcessEventQueue(MonitorConfiguration.EVENT_QUEUE_CAPACITY);
+    private final CandidateQueue pendingCandidates = new CandidateQueue(MonitorConfiguration.MAX_PENDING_CANDIDATES);
+    private final java.util.concurrent.atomic.AtomicBoolean drainScheduled = new java.util.concurrent.atomic.AtomicBoolean();
+    private volatile boolean reconcileRequested = false;
+    
+    // Дерево процессов: обновляется только для новых и завершившихся pid
+    private final ProcessTree processTree = new ProcessTree();
     
     public PgDumpProcessMonitor() {
+        this(new NetlinkProcessEventSource());
+    }
+    
+    PgDumpProcessMonitor(ProcessEventSource eventSource) {
+        this.eventSource = eventSource;
+        
         // Добавляем известные хосты PostgreSQL
-        postgresqlHosts.add("10.0.1.10"); // patroni-01
-        postgresqlHosts.add("10.0.1.11"); // patroni-02  
-        postgresqlHosts.add("10.0.1.12"); // patroni-03
-        postgresqlHosts.add("10.0.1.5");  // HAProxy
-        postgresqlHosts.add("localhost");
-        postgresqlHosts.add("127.0.0.1");
+        addPostgreSQLHost("10.0.1.10", NetworkClassifier.NetworkClass.PATRONI); // patroni-01
+        addPostgreSQLHost("10.0.1.11", NetworkClassifier.NetworkClass.PATRONI); // patroni-02
+        addPostgreSQLHost("10.0.1.12", NetworkClassifier.NetworkClass.PATRONI); // patroni-03
+        addPostgreSQLHost("10.0.1.5", NetworkClassifier.NetworkClass.HAPROXY);  // HAProxy
+        addPostgreSQLHost("localhost", NetworkClassifier.NetworkClass.LOOPBACK);
+        addPostgreSQLHost("127.0.0.1", NetworkClassifier.NetworkClass.LOOPBACK);
+        // Дополнительные узлы из -Dpgdump.monitor.postgresqlHosts: адреса - как узлы кластера
+        for (String host : MonitorConfiguration.POSTGRESQL_HOSTS.split(",")) {
+            if (!host.trim().isEmpty()) {
+                addPostgreSQLHost(host.trim(), NetworkClassifier.NetworkClass.PATRONI);
+            }
+        }
+    }
+    
+    /**
+     * Хост PostgreSQL - цель проверок доступности. Числовой адрес попадает в классификатор
+     * сетей отдельным адресом (/32 или /128), имя сравнивается с адресами сокетов через кэш DNS
+     */
+    private void addPostgreSQLHost(String host, NetworkClassifier.NetworkClass networkClass) {
+        if (!postgresqlHosts.add(host)) {
+            return;
+        }
+        if (NetworkClassifier.parseAddress(host, new byte[16]) != 0) {
+            networks.add(host, networkClass);
+        } else {
+            hostResolver.addHost(host);
+        }
+    }
+    
+    /**
+     * Детектор, различающий узлы кластера и прочие внутренние хосты по классификатору монитора
+     */
+    AdvancedPgDumpDetector createDetector() {
+        return new AdvancedPgDumpDetector(networks);
     }
     
     /**
@@ -57,45 +127,288 @@ public class PgDumpProcessMonitor {
     public void startMonitoring() {
         logger.info("Starting PostgreSQL pg_dump behavior monitoring...");
         
-        // Запуск основного цикла мониторинга процессов
-        scheduler.scheduleAtFixedRate(this::scanProcesses, 0, MONITORING_INTERVAL, TimeUnit.MILLISECONDS);
+        try {
+            hostname = java.net.InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            hostname = "unknown";
+        }
+        
+        // Фоновое обновление имен пользователей, чтобы сканирование не ждало SSSD/LDAP
+        userNames.start(scheduler);
+        hostResolver.start(scheduler);
+        
+        // Таблица отпечатков установленных клиентов PostgreSQL для поиска переименованных копий
+        fingerprints.loadInstalledClients();
+        
+        // Подписка на события exec/exit; без нее работаем периодическим сканированием
+        if (eventSource.start(new MonitorEventListener())) {
+            logger.info("Process events enabled via " + eventSource.getName());
+        } else {
+            logger.info("Process events unavailable, using periodic scanning");
+        }
+        
+        // Запуск основного цикла мониторинга процессов. Пауза отсчитывается от конца цикла:
+        // затянувшийся при шторме цикл не запускает следующие подряд
+        scheduler.scheduleWithFixedDelay(this::runScanCycle, 0, MONITORING_INTERVAL, TimeUnit.MILLISECONDS);
         
         // Запуск анализа сетевых подключений
         scheduler.scheduleAtFixedRate(this::analyzeNetworkConnections, 2000, MONITORING_INTERVAL, TimeUnit.MILLISECONDS);
         
+        // Новые подключения к PostgreSQL - по разнице таблиц сокетов, чаще основного цикла
+        if (tcpTable.isAvailable()) {
+            scheduler.scheduleWithFixedDelay(this::detectConnectionChanges, MonitorConfiguration.SOCKET_TABLE_MAX_AGE,
+                MonitorConfiguration.SOCKET_TABLE_MAX_AGE, TimeUnit.MILLISECONDS);
+        }
+        
         // Запуск анализа файловых операций
         scheduler.scheduleAtFixedRate(this::analyzeIOActivity, 3000, MONITORING_INTERVAL, TimeUnit.MILLISECONDS);
         
+        // Экспорт счетчиков воронки отбора
+        if (MonitorConfiguration.ENABLE_METRICS_EXPORT) {
+            scheduler.scheduleAtFixedRate(() -> metrics.push(MonitorConfiguration.VICTORIA_METRICS_URL, hostname),
+                MonitorConfiguration.METRICS_PUSH_INTERVAL, MonitorConfiguration.METRICS_PUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        
         logger.info("Process behavior monitoring started successfully");
     }
     
+    /**
+     * Цикл мониторинга: при активных событиях полный обход /proc становится редкой сверкой,
+     * а между сверками обновляются только кандидаты
+     */
+    private void runScanCycle() {
+        long now = System.currentTimeMillis();
+        if (!eventSource.isActive() || reconcileRequested || now - lastFullScanMillis >= RECONCILIATION_INTERVAL) {
+            // Сброшенные события и вытесненные кандидаты находятся внеочередной сверкой
+            reconcileRequested = false;
+            lastFullScanMillis = now;
+            scanProcesses();
+        } else {
+            refreshCandidates();
+            analyzePendingCandidates();
+        }
+        
+        long elapsed = System.currentTimeMillis() - now;
+        if (elapsed > MONITORING_INTERVAL) {
+            metrics.increment(MonitorMetrics.SCAN_OVERRUNS);
+            logger.debug("Scan cycle took " + elapsed + " ms, longer than the " + MONITORING_INTERVAL + " ms interval");
+        }
+    }
+    
+    /**
+     * Слушатель событий: событие кладется в ограниченную очередь, разбор - в отдельном потоке,
+     * чтобы не задерживать чтение событий. При переполнении событие сбрасывается
+     * и запрашивается сверка полным обходом /proc
+     */
+    private class MonitorEventListener implements ProcessEventListener {
+        @Override
+        public void onExec(int pid) {
+            if (!processEvents.offerExec(pid)) {
+                shedEvent();
+            }
+            scheduleEventDrain();
+        }
+        
+        @Override
+        public void onExit(int pid) {
+            if (!processEvents.offerExit(pid)) {
+                shedEvent();
+            }
+            scheduleEventDrain();
+        }
+    }
+    
+    private void shedEvent() {
+        metrics.increment(MonitorMetrics.SHED_EVENTS);
+        reconcileRequested = true;
+    }
+    
+    /**
+     * Одна задача разбора очереди на все накопившиеся события
+     */
+    private void scheduleEventDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            eventExecutor.execute(this::drainProcessEvents);
+        }
+    }
+    
+    /**
+     * Разбор накопившихся событий и анализ ожидающих кандидатов
+     */
+    void drainProcessEvents() {
+        do {
+            int event;
+            int handled = 0;
+            while ((event = processEvents.poll()) != 0) {
+                if (event > 0) {
+                    handleProcessExec(event);
+                } else {
+                    handleProcessExit(-event);
+                }
+                // Кандидаты не ждут разбора всей очереди
+                if (++handled % EVENT_BATCH_SIZE == 0) {
+                    analyzePendingCandidates();
+                }
+            }
+            analyzePendingCandidates();
+            drainScheduled.set(false);
+            // Событие могло прийти между опустошением очереди и снятием флага
+        } while (processEvents.size() > 0 && drainScheduled.compareAndSet(false, true));
+    }
+    
+    /**
+     * Новый образ процесса: первый этап сразу по сырым данным procfs, кандидат
+     * ставится в очередь анализа, не дожидаясь следующего скана
+     */
+    void handleProcessExec(int pid) {
+        try {
+            if (!eventScanner.readProcess(pid)) {
+                return; // Процесс уже завершился
+            }
+            
+            // exec сохраняет pid и starttime, поэтому заменяем ранее известный образ
+            ProcEntry entry = eventScanner.currentEntry();
+            ProcessPreFilter.Signal signal = preFilter.evaluate(entry, null);
+            long key = ProcessTable.key(entry.pid, entry.startTicks);
+            processTable.put(key, signal, null);
+            if (signal == ProcessPreFilter.Signal.NONE) {
+                // ProcessInfo для процессов без сигнала не строится
+                processTree.add(entry.pid, entry.ppid, entry.startTicks, entry.commString());
+                dropCandidate(pid);
+                return;
+            }
+            ProcessInfo process = eventScanner.toProcessInfo(entry);
+            process.setCandidateSignal(signal);
+            processTree.add(process);
+            enqueueCandidate(process);
+        } catch (Exception e) {
+            logger.debug("Error handling exec event for PID " + pid + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Постановка кандидата в очередь анализа. Вытесненный при переполнении кандидат
+     * удаляется из таблицы, чтобы следующий обход /proc нашел его заново
+     */
+    private void enqueueCandidate(ProcessInfo process) {
+        // Процессы из ProcessHandle/ps проходят первый этап здесь
+        if (process.getCandidateSignal() == null) {
+            process.setCandidateSignal(preFilter.evaluate(process));
+        }
+        if (!process.isCandidate()) {
+            analyzeProcessBehavior(process);
+            return;
+        }
+        ProcessInfo evicted = pendingCandidates.add(process);
+        if (evicted != null) {
+            metrics.increment(MonitorMetrics.SHED_CANDIDATES);
+            processTable.remove(evicted.getPackedKey());
+            reconcileRequested = true;
+        }
+    }
+    
+    /**
+     * Анализ ожидающих кандидатов по приоритету в пределах бюджета; остаток - в следующем вызове
+     */
+    private void analyzePendingCandidates() {
+        pendingCandidates.drain(ANALYSIS_BUDGET_NANOS, process -> {
+            // Процесс завершился, пока ждал в очереди
+            if (!processTable.contains(process.getPackedKey())) {
+                return;
+            }
+            // Обход, прочитавший /proc/[pid] до события exit, мог снова вставить удаленную запись
+            if (hasExited(process)) {
+                processTable.remove(process.getPackedKey(), this::onProcessExit);
+                return;
+            }
+            analyzeProcessBehavior(process);
+            if (process.isCandidate()) {
+                evaluateCandidate(process);
+            }
+        });
+        int deferred = pendingCandidates.size();
+        if (deferred > 0) {
+            metrics.add(MonitorMetrics.DEFERRED_ANALYSIS, deferred);
+        }
+    }
+    
+    /**
+     * Образ процесса уже завершился. Без starttime из procfs проверить нельзя - считаем живым
+     */
+    private boolean hasExited(ProcessInfo process) {
+        return process.getStartTicks() > 0 && procfsScanner.isAvailable()
+            && !procfsScanner.isRunning(process.getPidNumber(), process.getStartTicks());
+    }
+    
+    /**
+     * Прежний образ с тем же pid перестал быть кандидатом
+     */
+    private void dropCandidate(int pid) {
+        ProcessInfo previous = candidatesByPid.remove(pid);
+        if (previous != null) {
+            resourceSampler.release(previous);
+        }
+    }
+    
+    /**
+     * Завершение процесса: запись удаляется сразу, кандидат проходит оценку по последнему состоянию
+     */
+    void handleProcessExit(int pid) {
+        // starttime завершившегося образа известен по дереву процессов: удаление за O(1), без сверки
+        ProcessTree.Node node = processTree.get(pid);
+        if (node != null && processTable.remove(ProcessTable.key(pid, node.startTicks), this::onProcessExit)) {
+            return;
+        }
+        processTree.remove(pid);
+        libpqDetector.forget(pid);
+        ioSampler.forget(pid);
+        containerResolver.forget(pid);
+        ProcessInfo candidate = candidatesByPid.remove(pid);
+        if (candidate != null) {
+            resourceSampler.release(candidate);
+        }
+    }
+    
+    /**
+     * Отслеживается ли процесс как кандидат
+     */
+    boolean isCandidate(int pid) {
+        return candidatesByPid.containsKey(pid);
+    }
+    
     /**
      * Сканирование всех процессов в системе
+     * Неизменяемые признаки (аргументы, exe, пользователь) вычисляются один раз на пару (pid, starttime),
+     * динамические сигналы обновляются только для кандидатов первого этапа
      */
     private void scanProcesses() {
         try {
-            List<ProcessInfo> currentProcesses = getCurrentProcesses();
+            List<ProcessInfo> newProcesses = new ArrayList<>();
+            List<ProcessInfo> promoted = new ArrayList<>();
+            processTable.startGeneration();
+            boolean complete = getNewProcesses(newProcesses, promoted);
             
-            for (ProcessInfo process : currentProcesses) {
-                String processKey = process.getPid() + ":" + process.getStartTime();
-                
-                if (!monitoredProcesses.containsKey(processKey)) {
-                    // Новый процесс - начинаем мониторинг
-                    monitoredProcesses.put(processKey, process);
-                    analyzeProcessBehavior(process);
-                } else {
-                    // Обновляем информацию о существующем процессе
-                    ProcessInfo existing = monitoredProcesses.get(processKey);
-                    updateProcessInfo(existing, process);
-                    
-                    if (isSuspiciousProcess(existing)) {
-                        handleSuspiciousProcess(existing);
-                    }
-                }
+            // Удаляем завершившиеся процессы (прерванный обход видел не все живые процессы)
+            if (complete) {
+                cleanupFinishedProcesses();
+            }
+            
+            // Обновляем информацию о существующих кандидатах
+            refreshCandidates();
+            
+            // Новые процессы уже внесены в таблицу при обходе - в очередь анализа
+            for (ProcessInfo process : newProcesses) {
+                enqueueCandidate(process);
+            }
+            
+            // Известные процессы, загрузившие libpq после запуска (dlopen)
+            for (ProcessInfo process : promoted) {
+                metrics.increment(MonitorMetrics.LIBPQ_PROMOTED);
+                enqueueCandidate(process);
             }
             
-            // Удаляем завершившиеся процессы
-            cleanupFinishedProcesses(currentProcesses);
+            // Сначала кандидаты с сильным сигналом: шторм процессов не задерживает pg_dump
+            analyzePendingCandidates();
             
         } catch (Exception e) {
             logger.error("Error during process scanning: " + e.getMessage(), e);
@@ -103,36 +416,179 @@ public class PgDumpProcessMonitor {
     }
     
     /**
-     * Получение списка текущих процессов
+     * Обновление динамических сигналов кандидатов и проверка на подозрительность
      */
-    private List<ProcessInfo> getCurrentProcesses() {
-        List<ProcessInfo> processes = new ArrayList<>();
-        
+    private void refreshCandidates() {
         try {
-            // Используем ProcessHandle API (Java 9+)
-            ProcessHandle.allProcesses().forEach(ph -> {
-                try {
-                    ProcessHandle.Info info = ph.info();
-                    if (info.command().isPresent()) {
-                        ProcessInfo procInfo = new ProcessInfo();
-                        procInfo.setPid(String.valueOf(ph.pid()));
-                        procInfo.setCommand(info.command().get());
-                        procInfo.setArguments(String.join(" ", info.arguments().orElse(new String[0])));
-                        procInfo.setStartTime(info.startInstant().orElse(null));
-                        procInfo.setUser(info.user().orElse("unknown"));
-                        
-                        processes.add(procInfo);
+            // Сильные сигналы первыми, среди равных - реже обновлявшиеся
+            List<ProcessInfo> candidates = new ArrayList<>(candidatesByPid.values());
+            candidates.sort(REFRESH_ORDER);
+            
+            // CPU и память всех кандидатов - одним проходом
+            resourceSampler.sampleAll(candidates);
+            
+            // netstat/lsof - в пределах бюджета, остальные кандидаты ждут следующего цикла
+            long deadline = System.nanoTime() + ANALYSIS_BUDGET_NANOS;
+            int refreshed = 0;
+            while (refreshed < candidates.size() && (refreshed == 0 || System.nanoTime() - deadline < 0)) {
+                updateProcessInfo(candidates.get(refreshed++));
+            }
+            if (refreshed < candidates.size()) {
+                metrics.add(MonitorMetrics.DEFERRED_REFRESH, candidates.size() - refreshed);
+            }
+            
+            // Сигналы сводятся по контейнерам до оценки отдельных процессов
+            containerActivity.update(candidates);
+            for (ProcessInfo existing : candidates.subList(0, refreshed)) {
+                evaluateCandidate(existing);
+                expireConnectionCandidate(existing);
+            }
+        } catch (Exception e) {
+            logger.error("Error refreshing candidate processes: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Кандидат по сигналу CONNECTION держится, пока у него есть подключения к PostgreSQL:
+     * через CONNECTION_CANDIDATE_TTL после закрытия последнего он снова обычный процесс.
+     * Новое подключение вернет его в кандидаты через detectConnectionChanges
+     */
+    private void expireConnectionCandidate(ProcessInfo process) {
+        if (process.getCandidateSignal() != ProcessPreFilter.Signal.CONNECTION || process.isReported()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (process.getPostgreSQLConnections() > 0) {
+            process.setLastPostgreSQLConnectionMillis(now);
+            return;
+        }
+        if (now - process.getLastPostgreSQLConnectionMillis() >= MonitorConfiguration.CONNECTION_CANDIDATE_TTL
+            && candidatesByPid.remove(process.getPidNumber(), process)) {
+            resourceSampler.release(process);
+            processTable.put(process.getPackedKey(), ProcessPreFilter.Signal.NONE, null);
+            metrics.increment(MonitorMetrics.CONNECTION_EXPIRED);
+        }
+    }
+    
+    /**
+     * Второй этап: оценка кандидата по собранным сигналам
+     */
+    private void evaluateCandidate(ProcessInfo process) {
+        if (isSuspiciousProcess(process)) {
+            metrics.increment(MonitorMetrics.ANALYSIS_SUSPICIOUS);
+            handleSuspiciousProcess(process);
+        } else {
+            metrics.increment(MonitorMetrics.ANALYSIS_DROPPED_BELOW_THRESHOLD);
+        }
+    }
+    
+    /**
+     * Обход процессов: живые процессы отмечаются в текущем поколении processTable, новые пары
+     * (pid, starttime) вносятся в таблицу, кандидаты среди них попадают в newProcesses,
+     * известные процессы, у которых после изменения карты памяти появилась libpq, - в promoted.
+     * Возвращает false, если обход прерван
+     */
+    private boolean getNewProcesses(List<ProcessInfo> newProcesses, List<ProcessInfo> promoted) {
+        if (procfsScanner.isAvailable()) {
+            // Диапазоны pid обходятся параллельно, результаты объединяются здесь в порядке pid
+            try {
+                for (ScanPartition partition : procfsWalker.walk(ScanPartition::new)) {
+                    newProcesses.addAll(partition.newProcesses);
+                    promoted.addAll(partition.promoted);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        
+        for (ProcessInfo process : getCurrentProcesses()) {
+            long key = process.getPackedKey();
+            // Первый этап для ProcessHandle/ps выполняется в analyzeProcessBehavior
+            if (!processTable.mark(key) && processTable.putIfAbsent(key, null, null)) {
+                processTree.add(process);
+                newProcesses.add(process);
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Результаты обхода одного диапазона pid. Запись таблицы создается по сырым данным procfs,
+     * ProcessInfo строится только для новых кандидатов первого этапа
+     */
+    private final class ScanPartition implements ParallelProcfsWalker.PartitionVisitor {
+        final List<ProcessInfo> newProcesses = new ArrayList<>();
+        final List<ProcessInfo> promoted = new ArrayList<>();
+        
+        @Override
+        public void visit(ProcfsProcessScanner scanner, ProcEntry entry) {
+            // Зомби не отмечается: запись удалит очистка, как при событии exit
+            if (entry.isExited()) {
+                return;
+            }
+            long key = ProcessTable.key(entry.pid, entry.startTicks);
+            if (!processTable.mark(key)) {
+                ProcessPreFilter.Signal signal = preFilter.evaluate(entry, null);
+                // Запись могло создать событие exec, пока шел обход
+                if (processTable.putIfAbsent(key, signal, null)) {
+                    processTree.add(entry.pid, entry.ppid, entry.startTicks, entry.commString());
+                    if (signal != ProcessPreFilter.Signal.NONE) {
+                        ProcessInfo process = scanner.toProcessInfo(entry);
+                        process.setCandidateSignal(signal);
+                        newProcesses.add(process);
                     }
-                } catch (Exception e) {
-                    // Игнорируем ошибки доступа к отдельным процессам
                 }
-            });
+            } else if (processTable.getSignal(key) == ProcessPreFilter.Signal.NONE
+                       && libpqDetector.needsRecheck(entry) && libpqDetector.isLibpqMapped(entry)) {
+                ProcessInfo process = scanner.toProcessInfo(entry);
+                process.setCandidateSignal(ProcessPreFilter.Signal.LIBPQ);
+                promoted.add(process);
+            }
+        }
+    }
+    
+    /**
+     * Получение списка текущих процессов на системах без procfs: при доступном procfs
+     * процессы обходит procfsWalker в getNewProcesses
+     */
+    private List<ProcessInfo> getCurrentProcesses() {
+        try {
+            return getProcessesFromProcessHandle();
             
         } catch (Exception e) {
             logger.error("Error getting process list: " + e.getMessage(), e);
             // Fallback к использованию системных команд
-            processes = getProcessesFromSystem();
+            return getProcessesFromSystem();
         }
+    }
+    
+    /**
+     * Получение процессов через ProcessHandle API (Java 9+) для систем без procfs
+     */
+    private List<ProcessInfo> getProcessesFromProcessHandle() {
+        List<ProcessInfo> processes = new ArrayList<>();
+        
+        ProcessHandle.allProcesses().forEach(ph -> {
+            try {
+                ProcessHandle.Info info = ph.info();
+                if (info.command().isPresent()) {
+                    ProcessInfo procInfo = new ProcessInfo();
+                    procInfo.setPid(String.valueOf(ph.pid()));
+                    procInfo.setPpid(ph.parent().map(parent -> (int) parent.pid()).orElse(0));
+                    procInfo.setCommand(info.command().get());
+                    procInfo.setArgv(info.arguments().orElse(new String[0]));
+                    procInfo.setArguments(String.join(" ", procInfo.getArgv()));
+                    procInfo.setStartTime(info.startInstant().orElse(null));
+                    procInfo.setUser(info.user().orElse("unknown"));
+                    
+                    processes.add(procInfo);
+                }
+            } catch (Exception e) {
+                // Игнорируем ошибки доступа к отдельным процессам
+            }
+        });
         
         return processes;
     }
@@ -187,6 +643,9 @@ public class PgDumpProcessMonitor {
                     info.setUser(parts[1]);
                     info.setCommand(parts[3]);
                     info.setArguments(parts[3]);
+                    // ps склеивает argv через пробел: границы токенов уже потеряны
+                    String[] tokens = parts[3].split("\\s+");
+                    info.setArgv(Arrays.copyOfRange(tokens, 1, tokens.length));
                 }
             } else if (os.contains("windows")) {
                 // Обработка CSV формата от wmic
@@ -206,37 +665,75 @@ public class PgDumpProcessMonitor {
     }
     
     /**
-     * Анализ поведения процесса
+     * Анализ поведения нового процесса
      */
     private void analyzeProcessBehavior(ProcessInfo process) {
-        // Проверка аргументов командной строки на соответствие pg_dump паттернам
-        int patternMatches = countPgDumpPatterns(process.getArguments());
-        process.setPgDumpPatternScore(patternMatches);
+        // Первый этап уже выполнен при обходе procfs; для ProcessHandle/ps - здесь
+        if (process.getCandidateSignal() == null) {
+            process.setCandidateSignal(preFilter.evaluate(process));
+        }
         
-        // Анализ сетевых подключений
-        analyzeProcessNetworkConnections(process);
+        // Разбор аргументов по грамматике клиентов PostgreSQL за один проход.
+        // argv процесса не меняется, поэтому разбираем один раз на (pid, starttime);
+        // переименованный клиент разбираем по грамматике исходного бинарника
+        if (process.isCandidate()) {
+            process.setKnownClientName(fingerprints.knownClientName(process.getPidNumber()));
+        }
+        PgArgvMatcher.Match argv = process.isCandidate()
+            ? PgArgvMatcher.match(process.getKnownClientName() != null ? process.getKnownClientName()
+                                                                       : process.getCommand(),
+                                  process.getArgv())
+            : null;
+        if (argv != null) {
+            // Параметры подключения могут прийти через PGHOST/PGDATABASE и т.д.
+            process.setPgEnvironment(environmentInspector.inspect(process.getPidNumber()));
+            argv.applyEnvironment(process.getPgEnvironment());
+        }
+        process.setArgvMatch(argv);
+        int patternMatches = argv != null ? argv.score() : 0;
+        process.setPgDumpPatternScore(patternMatches);
         
-        // Анализ файловых операций
-        analyzeProcessFileOperations(process);
+        // Сетевые и файловые сигналы собираем только для кандидатов
+        if (process.isCandidate()) {
+            process.setContainer(containerResolver.resolve(process.getPidNumber(), process.getStartTicks()));
+            ProcessInfo previous = candidatesByPid.put(process.getPidNumber(), process);
+            if (previous != null && previous != process) {
+                // Прежний образ с тем же pid (exec или повторный анализ нового объекта)
+                resourceSampler.release(previous);
+            }
+            refreshDynamicSignals(process);
+        } else {
+            // После exec прежний образ с тем же pid мог быть кандидатом
+            dropCandidate(process.getPidNumber());
+        }
+        if (process.getPidNumber() > 0) {
+            processTable.put(process.getPackedKey(), process.getCandidateSignal(),
+                             process.isCandidate() ? process : null);
+        }
         
         logger.debug("Analyzed process: PID=" + process.getPid() + 
                     ", Pattern Score=" + patternMatches + 
+                    ", Candidate=" + process.isCandidate() +
                     ", Command=" + process.getCommand());
     }
     
     /**
-     * Подсчет соответствий паттернам pg_dump в аргументах
+     * Обновление изменяющихся во времени сигналов: сетевые подключения и файлы
      */
-    private int countPgDumpPatterns(String arguments) {
-        if (arguments == null) return 0;
-        
-        int matches = 0;
-        for (Pattern pattern : pgDumpArgumentPatterns) {
-            if (pattern.matcher(arguments).find()) {
-                matches++;
-            }
+    private void refreshDynamicSignals(ProcessInfo process) {
+        // Кандидат может обновляться одновременно сканом и обработчиком событий
+        synchronized (process) {
+            process.clearDynamicSignals();
+            
+            // Анализ сетевых подключений
+            analyzeProcessNetworkConnections(process);
+            
+            // Анализ файловых операций
+            analyzeProcessFileOperations(process);
+            
+            // Фактический объем и скорость ввода-вывода
+            process.setIoRates(ioSampler.sample(process.getPidNumber(), process.getStartTicks()));
         }
-        return matches;
     }
     
     /**
@@ -244,14 +741,22 @@ public class PgDumpProcessMonitor {
      */
     private void analyzeProcessNetworkConnections(ProcessInfo process) {
         try {
-            // Получаем сетевые подключения процесса
-            List<NetworkConnection> connections = getProcessNetworkConnections(process.getPid());
+            // Получаем сетевые подключения процесса: на Linux - по inode сокетов (sock_diag или /proc/net/tcp{,6})
+            List<NetworkConnection> connections = connectionSource.isAvailable()
+                ? connectionSource.connections(process.getPidNumber())
+                : getProcessNetworkConnections(process.getPid());
             
             for (NetworkConnection conn : connections) {
                 // Проверяем подключения к PostgreSQL портам
                 if (isPostgreSQLConnection(conn)) {
                     process.incrementPostgreSQLConnections();
                     process.addNetworkConnection(conn);
+                    // Обратное имя запрашивается заранее, к алерту оно уже будет в кэше
+                    conn.setRemoteHost(hostResolver.reverse(conn.getRemoteAddress()));
+                    // Скорость - только при байтовых счетчиках sock_diag
+                    if (conn.getBytesReceived() > 0 || conn.getBytesSent() > 0) {
+                        throughputTracker.record(conn);
+                    }
                     
                     logger.debug("Found PostgreSQL connection for PID " + process.getPid() + 
                                ": " + conn.getRemoteAddress() + ":" + conn.getRemotePort());
@@ -264,7 +769,7 @@ public class PgDumpProcessMonitor {
     }
     
     /**
-     * Получение сетевых подключений процесса
+     * Получение сетевых подключений процесса через netstat (системы без /proc/net/tcp)
      */
     private List<NetworkConnection> getProcessNetworkConnections(String pid) {
         List<NetworkConnection> connections = new ArrayList<>();
@@ -274,8 +779,8 @@ public class PgDumpProcessMonitor {
             Process proc;
             
             if (os.contains("linux")) {
-                // Используем netstat или ss для получения подключений
-                proc = Runtime.getRuntime().exec("netstat -anp | grep " + pid);
+                // exec не запускает shell: фильтрация по pid - в parseNetstatLine
+                proc = Runtime.getRuntime().exec("netstat -anp");
             } else if (os.contains("windows")) {
                 proc = Runtime.getRuntime().exec("netstat -ano | findstr " + pid);
             } else {
@@ -346,6 +851,11 @@ public class PgDumpProcessMonitor {
      * Проверка, является ли подключение PostgreSQL
      */
     private boolean isPostgreSQLConnection(NetworkConnection conn) {
+        // Локальное подключение через unix-сокет (/var/run/postgresql/.s.PGSQL.5432)
+        if (conn.getSocketPath() != null) {
+            return ProcNetUnixTable.isPostgreSQLSocket(conn.getSocketPath());
+        }
+        
         // Проверяем стандартные порты PostgreSQL
         if (conn.getRemotePort() == POSTGRESQL_DEFAULT_PORT || 
             conn.getRemotePort() == 5000 || // HAProxy write
@@ -353,8 +863,13 @@ public class PgDumpProcessMonitor {
             return true;
         }
         
-        // Проверяем известные хосты PostgreSQL
-        return postgresqlHosts.contains(conn.getRemoteAddress());
+        // Проверяем адреса из списка хостов PostgreSQL: узлы Patroni, HAProxy, loopback
+        if (networks.classify(conn.getRemoteAddress()).isPostgreSQL()) {
+            return true;
+        }
+        
+        // Адреса настроенных имен хостов (srv1.company.com) из кэша DNS
+        return hostResolver.hostFor(conn.getRemoteAddress()) != null;
     }
     
     /**
@@ -371,7 +886,8 @@ public class PgDumpProcessMonitor {
             for (String file : openFiles) {
                 // Проверяем размер файла
                 try {
-                    Path path = Paths.get(file);
+                    // Путь внутри контейнера открываем через /proc/[pid]/root
+                    Path path = containerResolver.hostPath(process, file);
                     if (Files.exists(path) && Files.isRegularFile(path)) {
                         long size = Files.size(path);
                         totalFileSize += size;
@@ -445,12 +961,12 @@ public class PgDumpProcessMonitor {
     /**
      * Обновление информации о процессе
      */
-    private void updateProcessInfo(ProcessInfo existing, ProcessInfo current) {
+    private void updateProcessInfo(ProcessInfo existing) {
         // Обновляем метрики активности
         existing.incrementScanCount();
         
-        // Перезапускаем анализ для обновления метрик
-        analyzeProcessBehavior(existing);
+        // Аргументы уже проанализированы, обновляем только динамические сигналы
+        refreshDynamicSignals(existing);
     }
     
     /**
@@ -460,20 +976,54 @@ public class PgDumpProcessMonitor {
         int suspicionScore = 0;
         List<String> reasons = new ArrayList<>();
         
+        // Штатные процессы сервера (walreceiver подключается к мастеру через libpq)
+        if (isTrustedServerProcess(process)) {
+            process.setSuspicionReasons(reasons);
+            process.setSuspicionScore(0);
+            return false;
+        }
+        
         // 1. Проверка паттернов аргументов pg_dump (вес: 40%)
         if (process.getPgDumpPatternScore() >= 3) {
             suspicionScore += 40;
-            reasons.add("High pg_dump argument pattern match (" + process.getPgDumpPatternScore() + " patterns)");
+            PgArgvMatcher.Match argv = process.getArgvMatch();
+            int fromEnvironment = argv != null ? Integer.bitCount(argv.getEnvironmentOptions()) : 0;
+            reasons.add("High pg_dump argument pattern match (" + process.getPgDumpPatternScore() + " patterns" +
+                       (fromEnvironment > 0 ? ", " + fromEnvironment + " from PG* environment" : "") + ")");
+        } else if (process.isRenamedPgClient()) {
+            suspicionScore += 40;
+            reasons.add("Renamed PostgreSQL client binary (" + process.getKnownClientName() + " as " + process.getCommand() + ")");
         }
         
         // 2. Подключения к PostgreSQL (вес: 30%)
+        long postgreSQLBytes = process.getPostgreSQLBytesReceived();
         if (process.getPostgreSQLConnections() > 0) {
             suspicionScore += 30;
-            reasons.add("PostgreSQL database connections (" + process.getPostgreSQLConnections() + " connections)");
+            reasons.add("PostgreSQL database connections (" + process.getPostgreSQLConnections() + " connections" +
+                       (postgreSQLBytes > 0 ? ", " + formatBytes(postgreSQLBytes) + " received" : "") + ")");
         }
         
-        // 3. Большие файловые операции (вес: 20%)
-        if (process.getTotalIOBytes() > SUSPICIOUS_DATA_THRESHOLD) {
+        // 3. Большой объем ввода-вывода (вес: 20%). Точнее всего - скорость по сокетам PostgreSQL
+        // (tcp_info через sock_diag) за окно: объем за всю жизнь долгого подключения пула приложения
+        // дампа не означает; затем /proc/[pid]/io, а не размер открытых файлов (файлы данных у Patroni);
+        // без счетчиков - прежняя оценка по файлам
+        IoRates ioRates = process.getIoRates();
+        long sustainedRate = process.getPostgreSQLSustainedRate();
+        if (sustainedRate >= MonitorConfiguration.SUSTAINED_THROUGHPUT_THRESHOLD) {
+            // Дамп выкачивает базу на постоянной высокой скорости, пул приложения - нет
+            suspicionScore += 20;
+            reasons.add("Sustained PostgreSQL transfer (" + formatBytes(sustainedRate) + "/s over " +
+                       MonitorConfiguration.SUSTAINED_THROUGHPUT_WINDOW / 1000 + "s, peak " +
+                       formatBytes(process.getPostgreSQLPeakRate()) + "/s)");
+        } else if (ioRates != null) {
+            // rchar включает чтение из сокетов: накопленный объем долгоживущего процесса не сигнал
+            if (hasHighIoRate(ioRates)) {
+                suspicionScore += 20;
+                reasons.add("High data transfer rate (" + formatBytes(ioRates.getPeakRate()) + "/s peak, " +
+                           formatBytes(ioRates.getBytesRead()) + " read, " +
+                           formatBytes(ioRates.getBytesWritten()) + " written)");
+            }
+        } else if (process.getTotalIOBytes() > SUSPICIOUS_DATA_THRESHOLD) {
             suspicionScore += 20;
             reasons.add("Large file I/O operations (" + formatBytes(process.getTotalIOBytes()) + ")");
         }
@@ -484,6 +1034,33 @@ public class PgDumpProcessMonitor {
             reasons.add("Creating dump-like files (" + process.getDumpFileCount() + " files)");
         }
         
+        // 5. Запуск из интерактивной SSH-сессии, а не из cron/systemd (вес: 10%)
+        ProcessTree.Node session = processTree.findAncestor(process.getPidNumber(),
+            node -> node.getComm() != null && node.getComm().startsWith("sshd"));
+        if (session != null) {
+            suspicionScore += 10;
+            reasons.add("Launched from SSH session (" +
+                ProcessTree.format(processTree.lineage(process.getPidNumber())) + ")");
+        }
+        
+        // 6. Высокая нагрузка на CPU или рост памяти (вес: 5%)
+        ResourceUsage usage = process.getResourceUsage();
+        if (usage.isHigh()) {
+            suspicionScore += MonitorConfiguration.RESOURCE_WEIGHT;
+            reasons.add(String.format("High resource usage (CPU %.0f%%, RSS +%s)",
+                usage.getCpuPercent(), formatBytes(usage.getRssGrowthBytes())));
+        }
+        
+        // 7. Несколько клиентов в одном контейнере вместе передают данные с высокой скоростью (вес: 10%)
+        ContainerActivity.Aggregate container = containerActivity.get(process.getContainer());
+        if (container != null && container.getCandidates() > 1
+            && container.getTransferRate() > MonitorConfiguration.HIGH_IO_RATE
+            && (ioRates == null || !hasHighIoRate(ioRates))) {
+            suspicionScore += 10;
+            reasons.add("Container " + process.getContainer() + " activity (" + container.getCandidates() +
+                       " PostgreSQL clients, " + formatBytes(container.getTransferRate()) + "/s)");
+        }
+        
         // Записываем причины подозрений
         process.setSuspicionReasons(reasons);
         process.setSuspicionScore(suspicionScore);
@@ -492,15 +1069,63 @@ public class PgDumpProcessMonitor {
         return suspicionScore >= 50;
     }
     
+    /**
+     * Пиковая скорость /proc/[pid]/io за окна IO_RATE_WINDOWS; до второго замера скорости нет
+     */
+    private static boolean hasHighIoRate(IoRates rates) {
+        return rates.hasWindowRates() && rates.getPeakRate() > MonitorConfiguration.HIGH_IO_RATE;
+    }
+    
+    /**
+     * Процесс сервера PostgreSQL от пользователя postgres. Имя пользователя берется из кэша uid,
+     * переименованный в "postgres" клиент доверенным не считается
+     */
+    private boolean isTrustedServerProcess(ProcessInfo process) {
+        if (!MonitorConfiguration.POSTGRES_USER.equals(process.getUser()) || process.isRenamedPgClient()
+            || process.getCommand() == null) {
+            return false;
+        }
+        String name = process.getCommand().substring(process.getCommand().lastIndexOf('/') + 1);
+        return Arrays.asList(MonitorConfiguration.TRUSTED_SERVER_COMMANDS).contains(name);
+    }
+    
     /**
      * Обработка подозрительного процесса
      */
     private void handleSuspiciousProcess(ProcessInfo process) {
+        SecurityAlert alert = createAlert(process, "SUSPICIOUS_PGDUMP_PROCESS");
+        process.setReported(true);
+        
+        // Логируем алерт
+        logger.alert("SECURITY ALERT: Suspicious pg_dump-like process detected", alert);
+        
+        // Отправляем уведомление
+        sendSecurityAlert(alert);
+        
+        // Опционально: блокируем процесс (требует привилегий)
+        if (shouldBlockProcess(process)) {
+            blockSuspiciousProcess(process);
+        }
+    }
+    
+    /**
+     * Алерт по процессу, который завершился до оценки: блокировать уже нечего
+     */
+    private void reportExitedProcess(ProcessInfo process) {
+        SecurityAlert alert = createAlert(process, "SUSPICIOUS_PGDUMP_PROCESS_EXITED");
+        process.setReported(true);
+        logger.alert("SECURITY ALERT: Suspicious pg_dump-like process exited before evaluation", alert);
+        sendSecurityAlert(alert);
+    }
+    
+    private SecurityAlert createAlert(ProcessInfo process, String alertType) {
         SecurityAlert alert = new SecurityAlert();
         alert.setTimestamp(LocalDateTime.now());
-        alert.setAlertType("SUSPICIOUS_PGDUMP_PROCESS");
+        alert.setAlertType(alertType);
         alert.setSeverity("HIGH");
         alert.setProcessId(process.getPid());
+        alert.setUser(process.getUser());
+        alert.setContainer(process.getContainer() != null ? process.getContainer().toString() : null);
         alert.setCommand(process.getCommand());
         alert.setArguments(process.getArguments());
         alert.setSuspicionScore(process.getSuspicionScore());
@@ -508,16 +1133,13 @@ public class PgDumpProcessMonitor {
         alert.setNetworkConnections(process.getNetworkConnections());
         alert.setOutputFiles(process.getOutputFiles());
         
-        // Логируем алерт
-        logger.alert("SECURITY ALERT: Suspicious pg_dump-like process detected", alert);
-        
-        // Отправляем уведомление
-        sendSecurityAlert(alert);
-        
-        // Опционально: блокируем процесс (требует привилегий)
-        if (shouldBlockProcess(process)) {
-            blockSuspiciousProcess(process);
+        // Имена удаленных хостов - только из кэша: алерт не ждет DNS
+        for (NetworkConnection conn : process.getNetworkConnections()) {
+            if (conn.getRemoteHost() == null) {
+                conn.setRemoteHost(hostResolver.reverse(conn.getRemoteAddress()));
+            }
         }
+        return alert;
     }
     
     /**
@@ -551,7 +1173,12 @@ public class PgDumpProcessMonitor {
             Process proc;
             
             if (os.contains("linux")) {
-                proc = Runtime.getRuntime().exec("kill -STOP " + process.getPid());
+                // Останавливаем все дерево: pg_dump и запущенные им процессы (сжатие, передача)
+                StringBuilder pids = new StringBuilder(process.getPid());
+                for (ProcessTree.Node child : processTree.descendants(process.getPidNumber())) {
+                    pids.append(' ').append(child.getPid());
+                }
+                proc = Runtime.getRuntime().exec("kill -STOP " + pids);
             } else if (os.contains("windows")) {
                 proc = Runtime.getRuntime().exec("taskkill /PID " + process.getPid() + " /F");
             } else {
@@ -571,6 +1198,89 @@ public class PgDumpProcessMonitor {
         }
     }
     
+    /**
+     * Открытые и закрытые сокеты с прошлого чтения таблицы. Владелец нового подключения к порту
+     * PostgreSQL анализируется сразу: кандидат обновляется и оценивается, остальные процессы
+     * становятся кандидатами с сигналом CONNECTION. Закрытые подключения освобождают слоты скорости
+     */
+    void detectConnectionChanges() {
+        try {
+            List<NetworkConnection> opened = new ArrayList<>();
+            tcpTable.diff(new SocketChangeListener() {
+                @Override
+                public void opened(NetworkConnection conn) {
+                    if (isMonitoredPort(conn.getRemotePort())) {
+                        opened.add(conn);
+                    }
+                }
+                
+                @Override
+                public void closed(NetworkConnection conn) {
+                    throughputTracker.forget(conn);
+                }
+            });
+            if (opened.isEmpty()) {
+                return;
+            }
+            
+            // Проверки доступности узлов открывают подключения из самого монитора:
+            // его сокеты отсеиваются по /proc/self/fd до поиска владельцев
+            long[] own = tcpTable.socketInodes(selfPid);
+            Arrays.sort(own);
+            opened.removeIf(conn -> Arrays.binarySearch(own, conn.getInode()) >= 0);
+            if (opened.isEmpty()) {
+                return;
+            }
+            metrics.add(MonitorMetrics.CONNECTIONS_OPENED, opened.size());
+            
+            long[] inodes = new long[opened.size()];
+            for (int i = 0; i < inodes.length; i++) {
+                inodes[i] = opened.get(i).getInode();
+            }
+            // Кандидаты проверяются первыми и при обходе /proc пропускаются вместе с самим монитором
+            int[] owners = tcpTable.findOwners(inodes, candidatesByPid.keySet(), Collections.singleton(selfPid),
+                                               MonitorConfiguration.MAX_OWNER_SCAN_PROCESSES);
+            Set<Integer> handled = new HashSet<>();
+            for (int pid : owners) {
+                if (pid > 0 && handled.add(pid)) {
+                    analyzeConnectionOwner(pid);
+                }
+            }
+            analyzePendingCandidates();
+        } catch (Exception e) {
+            logger.error("Error detecting connection changes: " + e.getMessage(), e);
+        }
+    }
+    
+    private void analyzeConnectionOwner(int pid) {
+        ProcessInfo candidate = candidatesByPid.get(pid);
+        if (candidate != null) {
+            updateProcessInfo(candidate);
+            evaluateCandidate(candidate);
+            return;
+        }
+        if (!connectionScanner.readProcess(pid)) {
+            return;
+        }
+        ProcEntry entry = connectionScanner.currentEntry();
+        if (entry.isKernelThread()) {
+            return;
+        }
+        ProcessInfo process = connectionScanner.toProcessInfo(entry);
+        process.setCandidateSignal(ProcessPreFilter.Signal.CONNECTION);
+        process.setLastPostgreSQLConnectionMillis(System.currentTimeMillis());
+        processTable.put(process.getPackedKey(), ProcessPreFilter.Signal.CONNECTION, null);
+        metrics.increment(MonitorMetrics.CONNECTION_PROMOTED);
+        enqueueCandidate(process);
+    }
+    
+    private static boolean isMonitoredPort(int port) {
+        for (int monitored : MonitorConfiguration.MONITORED_PORTS) {
+            if (port == monitored) return true;
+        }
+        return false;
+    }
+    
     /**
      * Анализ сетевых подключений (общий)
      */
@@ -584,34 +1294,39 @@ public class PgDumpProcessMonitor {
     }
     
     /**
-     * Проверка подключений к PostgreSQL
+     * Проверка доступности узлов PostgreSQL: все host:port одним Selector, не дольше одного таймаута
      */
     private void checkPostgreSQLConnections() {
+        Map<String, InetSocketAddress> targets = new LinkedHashMap<>();
         for (String host : postgresqlHosts) {
-            if (isPortOpen(host, POSTGRESQL_DEFAULT_PORT)) {
-                logger.debug("PostgreSQL service is active on " + host + ":" + POSTGRESQL_DEFAULT_PORT);
+            // Имена - только по уже разрешенным в фоне адресам: проверка не ждет DNS
+            String[] addresses = NetworkClassifier.parseAddress(host, new byte[16]) != 0
+                ? new String[] {host} : hostResolver.addresses(host);
+            for (String address : addresses) {
+                java.net.InetAddress inet;
+                try {
+                    inet = java.net.InetAddress.getByName(address); // числовой адрес, без запроса к DNS
+                } catch (java.net.UnknownHostException e) {
+                    continue;
+                }
+                String name = address.equals(host) ? address : host + "/" + address;
+                for (int port : MonitorConfiguration.MONITORED_PORTS) {
+                    targets.put(name + ":" + port, new InetSocketAddress(inet, port));
+                }
             }
         }
+        reachability.probe(targets);
     }
     
     /**
-     * Проверка доступности порта
+     * Смена доступности узла PostgreSQL
      */
-    private boolean isPortOpen(String host, int port) {
-        try (SocketChannel socketChannel = SocketChannel.open()) {
-            socketChannel.configureBlocking(false);
-            socketChannel.connect(new InetSocketAddress(host, port));
-            
-            long startTime = System.currentTimeMillis();
-            while (!socketChannel.finishConnect()) {
-                if (System.currentTimeMillis() - startTime >= NETWORK_TIMEOUT) {
-                    return false;
-                }
-                Thread.sleep(10);
-            }
-            return true;
-        } catch (Exception e) {
-            return false;
+    private void onReachabilityChanged(ReachabilityProber.Target target, boolean up) {
+        if (up) {
+            logger.info("PostgreSQL endpoint " + target.getLabel() + " is reachable, connect " +
+                       target.getLastLatencyMicros() / 1000 + " ms");
+        } else {
+            logger.warn("PostgreSQL endpoint " + target.getLabel() + " is unreachable: " + target.getLastFailure());
         }
     }
     
@@ -638,16 +1353,34 @@ public class PgDumpProcessMonitor {
     }
     
     /**
-     * Очистка завершившихся процессов
+     * Очистка завершившихся процессов: удаляются записи, не отмеченные текущим сканом
+     */
+    private void cleanupFinishedProcesses() {
+        processTable.sweep(this::onProcessExit);
+    }
+    
+    /**
+     * Процесс завершился (событие exit или сверка). Кандидат оценивается по последнему
+     * собранному состоянию до удаления из дерева: короткоживущий pg_dump мог завершиться
+     * раньше, чем его оценил очередной цикл. Вызывается после снятия блокировки сегмента таблицы
      */
-    private void cleanupFinishedProcesses(List<ProcessInfo> currentProcesses) {
-        Set<String> currentPids = new HashSet<>();
-        for (ProcessInfo process : currentProcesses) {
-            currentPids.add(process.getPid() + ":" + process.getStartTime());
+    private void onProcessExit(long key, ProcessInfo candidate) {
+        int pid = ProcessTable.pid(key);
+        if (candidate != null) {
+            candidatesByPid.remove(pid, candidate);
+            resourceSampler.release(candidate);
+            if (!candidate.isReported()) {
+                metrics.increment(MonitorMetrics.EXIT_CANDIDATES_SCORED);
+                if (isSuspiciousProcess(candidate)) {
+                    metrics.increment(MonitorMetrics.ANALYSIS_SUSPICIOUS);
+                    reportExitedProcess(candidate);
+                }
+            }
         }
-        
-        // Удаляем процессы, которых больше нет в системе
-        monitoredProcesses.entrySet().removeIf(entry -> !currentPids.contains(entry.getKey()));
+        processTree.remove(pid, ProcessTable.startTicks(key));
+        libpqDetector.forget(pid);
+        ioSampler.forget(pid);
+        containerResolver.forget(pid);
     }
     
     /**
@@ -670,6 +1403,10 @@ public class PgDumpProcessMonitor {
      */
     public void stopMonitoring() {
         logger.info("Stopping process behavior monitoring...");
+        eventSource.stop();
+        eventExecutor.shutdownNow();
+        hostResolver.shutdown();
+        procfsWalker.shutdown();
         scheduler.shutdown();
         try {
             if (!scheduler.awaitTermination(10, TimeUnit.SECONDS)) {
@@ -712,15 +1449,28 @@ public class PgDumpProcessMonitor {
  */
 class ProcessInfo {
     private String pid;
+    private int ppid = 0;
     private String command;
     private String arguments; 
+    private String[] argv = new String[0]; // токены argv без argv[0], как в /proc/[pid]/cmdline
     private java.time.Instant startTime;
+    private long startTicks = 0;
     private String user;
+    private int uid = -1;
+    private String knownClientName;
+    private PgArgvMatcher.Match argvMatch;
+    private PgEnvironment pgEnvironment;
     private int pgDumpPatternScore = 0;
     private int postgreSQLConnections = 0;
+    private long lastPostgreSQLConnectionMillis = 0; // последний цикл с подключением к PostgreSQL
     private long totalIOBytes = 0;
+    private IoRates ioRates;
+    private ContainerIdentity container;
+    private final ResourceUsage resourceUsage = new ResourceUsage();
     private int dumpFileCount = 0;
     private int scanCount = 0;
+    private ProcessPreFilter.Signal candidateSignal;
+    private volatile boolean reported; // по процессу уже выдан алерт
     private int suspicionScore = 0;
     private List<String> suspicionReasons = new ArrayList<>();
     private List<NetworkConnection> networkConnections = new ArrayList<>();
@@ -730,33 +1480,120 @@ class ProcessInfo {
     public String getPid() { return pid; }
     public void setPid(String pid) { this.pid = pid; }
     
+    public int getPidNumber() {
+        try {
+            return Integer.parseInt(pid.trim());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+    
+    public int getPpid() { return ppid; }
+    public void setPpid(int ppid) { this.ppid = ppid; }
+    
     public String getCommand() { return command; }
     public void setCommand(String command) { this.command = command; }
     
     public String getArguments() { return arguments; }
     public void setArguments(String arguments) { this.arguments = arguments; }
     
+    public String[] getArgv() { return argv; }
+    public void setArgv(String[] argv) { this.argv = argv != null ? argv : new String[0]; }
+    
     public java.time.Instant getStartTime() { return startTime; }
     public void setStartTime(java.time.Instant startTime) { this.startTime = startTime; }
     
+    public long getStartTicks() { return startTicks; }
+    public void setStartTicks(long startTicks) { this.startTicks = startTicks; }
+    
     public String getUser() { return user; }
     public void setUser(String user) { this.user = user; }
     
+    public int getUid() { return uid; }
+    public void setUid(int uid) { this.uid = uid; }
+    
+    public String getKnownClientName() { return knownClientName; }
+    public void setKnownClientName(String knownClientName) { this.knownClientName = knownClientName; }
+    
+    /**
+     * Бинарник совпадает с известным клиентом PostgreSQL, но запущен под другим именем
+     */
+    public boolean isRenamedPgClient() {
+        if (knownClientName == null || command == null) {
+            return false;
+        }
+        return !command.substring(command.lastIndexOf('/') + 1).equals(knownClientName);
+    }
+    
+    public PgArgvMatcher.Match getArgvMatch() { return argvMatch; }
+    public void setArgvMatch(PgArgvMatcher.Match argvMatch) { this.argvMatch = argvMatch; }
+    
+    public PgEnvironment getPgEnvironment() { return pgEnvironment; }
+    public void setPgEnvironment(PgEnvironment pgEnvironment) { this.pgEnvironment = pgEnvironment; }
+    
     public int getPgDumpPatternScore() { return pgDumpPatternScore; }
     public void setPgDumpPatternScore(int score) { this.pgDumpPatternScore = score; }
     
     public int getPostgreSQLConnections() { return postgreSQLConnections; }
     public void incrementPostgreSQLConnections() { this.postgreSQLConnections++; }
     
+    public long getLastPostgreSQLConnectionMillis() { return lastPostgreSQLConnectionMillis; }
+    public void setLastPostgreSQLConnectionMillis(long millis) { this.lastPostgreSQLConnectionMillis = millis; }
+    
     public long getTotalIOBytes() { return totalIOBytes; }
     public void setTotalIOBytes(long bytes) { this.totalIOBytes = bytes; }
     
+    public IoRates getIoRates() { return ioRates; }
+    public void setIoRates(IoRates ioRates) { this.ioRates = ioRates; }
+    
+    public ResourceUsage getResourceUsage() { return resourceUsage; }
+    
+    public ContainerIdentity getContainer() { return container; }
+    public void setContainer(ContainerIdentity container) { this.container = container; }
+    
     public int getDumpFileCount() { return dumpFileCount; }
     public void setDumpFileCount(int count) { this.dumpFileCount = count; }
     
     public void incrementScanCount() { this.scanCount++; }
     public int getScanCount() { return scanCount; }
     
+    public boolean isCandidate() {
+        return candidateSignal != null && candidateSignal != ProcessPreFilter.Signal.NONE;
+    }
+    
+    public boolean isReported() { return reported; }
+    public void setReported(boolean reported) { this.reported = reported; }
+    
+    public ProcessPreFilter.Signal getCandidateSignal() { return candidateSignal; }
+    public void setCandidateSignal(ProcessPreFilter.Signal signal) { this.candidateSignal = signal; }
+    
+    /**
+     * Ключ процесса (pid, starttime): pid может быть переиспользован после завершения
+     */
+    public String getProcessKey() {
+        return pid + ":" + (startTicks > 0 ? String.valueOf(startTicks) : String.valueOf(startTime));
+    }
+    
+    /**
+     * Ключ процесса для ProcessTable. Без starttime из procfs (ProcessHandle) используется
+     * время запуска в сотых долях секунды
+     */
+    public long getPackedKey() {
+        long ticks = startTicks > 0 ? startTicks : startTime != null ? startTime.toEpochMilli() / 10 : 0;
+        return ProcessTable.key(getPidNumber(), ticks);
+    }
+    
+    /**
+     * Сброс сигналов, которые пересобираются на каждом цикле
+     */
+    public void clearDynamicSignals() {
+        this.postgreSQLConnections = 0;
+        this.totalIOBytes = 0;
+        this.dumpFileCount = 0;
+        this.networkConnections.clear();
+        this.outputFiles.clear();
+    }
+    
     public int getSuspicionScore() { return suspicionScore; }
     public void setSuspicionScore(int score) { this.suspicionScore = score; }
     
@@ -766,6 +1603,36 @@ class ProcessInfo {
     public List<NetworkConnection> getNetworkConnections() { return networkConnections; }
     public void addNetworkConnection(NetworkConnection conn) { this.networkConnections.add(conn); }
     
+    /**
+     * Байты, полученные по подключениям к PostgreSQL (0 без счетчиков sock_diag)
+     */
+    public long getPostgreSQLBytesReceived() {
+        long total = 0;
+        for (NetworkConnection conn : networkConnections) {
+            total += conn.getBytesReceived();
+        }
+        return total;
+    }
+    
+    /**
+     * Суммарная скорость по подключениям к PostgreSQL: устойчивая за окно и пиковая
+     */
+    public long getPostgreSQLSustainedRate() {
+        long total = 0;
+        for (NetworkConnection conn : networkConnections) {
+            total += conn.getSustainedBytesPerSecond();
+        }
+        return total;
+    }
+    
+    public long getPostgreSQLPeakRate() {
+        long total = 0;
+        for (NetworkConnection conn : networkConnections) {
+            total += conn.getPeakBytesPerSecond();
+        }
+        return total;
+    }
+    
     public Map<String, Long> getOutputFiles() { return outputFiles; }
     
     public void addOutputFile(String filename, long size) { 
@@ -784,6 +1651,11 @@ class NetworkConnection {
     private String state;
     private long bytesReceived = 0;
     private long bytesSent = 0;
+    private long inode = 0;
+    private long peakBytesPerSecond = 0;
+    private long sustainedBytesPerSecond = 0;
+    private String socketPath; // путь unix-сокета, null для TCP
+    private String remoteHost; // имя удаленного адреса из кэша DNS, null - неизвестно
     private java.time.LocalDateTime establishedTime;
     
     public NetworkConnection() {
@@ -812,10 +1684,32 @@ class NetworkConnection {
     public long getBytesSent() { return bytesSent; }
     public void setBytesSent(long bytesSent) { this.bytesSent = bytesSent; }
     
+    public long getInode() { return inode; }
+    public void setInode(long inode) { this.inode = inode; }
+    
+    public long getPeakBytesPerSecond() { return peakBytesPerSecond; }
+    public void setPeakBytesPerSecond(long peakBytesPerSecond) { this.peakBytesPerSecond = peakBytesPerSecond; }
+    
+    public long getSustainedBytesPerSecond() { return sustainedBytesPerSecond; }
+    public void setSustainedBytesPerSecond(long sustainedBytesPerSecond) { this.sustainedBytesPerSecond = sustainedBytesPerSecond; }
+    
+    public String getSocketPath() { return socketPath; }
+    public void setSocketPath(String socketPath) { this.socketPath = socketPath; }
+    
+    public String getRemoteHost() { return remoteHost; }
+    public void setRemoteHost(String remoteHost) { this.remoteHost = remoteHost; }
+    
     public java.time.LocalDateTime getEstablishedTime() { return establishedTime; }
     
     @Override
     public String toString() {
+        if (socketPath != null) {
+            return String.format("unix -> %s [%s]", socketPath, state);
+        }
+        if (remoteHost != null) {
+            return String.format("%s:%d -> %s:%d (%s) [%s]", 
+                localAddress, localPort, remoteAddress, remotePort, remoteHost, state);
+        }
         return String.format("%s:%d -> %s:%d [%s]", 
             localAddress, localPort, remoteAddress, remotePort, state);
     }
@@ -829,6 +1723,8 @@ class SecurityAlert {
     private String alertType;
     private String severity;
     private String processId;
+    private String user;
+    private String container;
     private String command;
     private String arguments;
     private int suspicionScore;
@@ -851,6 +1747,12 @@ class SecurityAlert {
     public String getProcessId() { return processId; }
     public void setProcessId(String processId) { this.processId = processId; }
     
+    public String getUser() { return user; }
+    public void setUser(String user) { this.user = user; }
+    
+    public String getContainer() { return container; }
+    public void setContainer(String container) { this.container = container; }
+    
     public String getCommand() { return command; }
     public void setCommand(String command) { this.command = command; }
     
@@ -932,6 +1834,10 @@ class SecurityLogger {
         sb.append("  - Type: ").append(alert.getAlertType()).append("\n");
         sb.append("  - Severity: ").append(alert.getSeverity()).append("\n");
         sb.append("  - Process ID: ").append(alert.getProcessId()).append("\n");
+        sb.append("  - User: ").append(alert.getUser()).append("\n");
+        if (alert.getContainer() != null) {
+            sb.append("  - Container: ").append(alert.getContainer()).append("\n");
+        }
         sb.append("  - Command: ").append(alert.getCommand()).append("\n");
         sb.append("  - Suspicion Score: ").append(alert.getSuspicionScore()).append("%\n");
         
@@ -995,6 +1901,10 @@ class SecurityLogger {
         json.append("\"alertType\":\"").append(alert.getAlertType()).append("\",");
         json.append("\"severity\":\"").append(alert.getSeverity()).append("\",");
         json.append("\"processId\":\"").append(alert.getProcessId()).append("\",");
+        json.append("\"user\":\"").append(escapeJson(alert.getUser())).append("\",");
+        if (alert.getContainer() != null) {
+            json.append("\"container\":\"").append(escapeJson(alert.getContainer())).append("\",");
+        }
         json.append("\"command\":\"").append(escapeJson(alert.getCommand())).append("\",");
         json.append("\"suspicionScore\":").append(alert.getSuspicionScore()).append(",");
         json.append("\"blocked\":").append(alert.isBlocked());
@@ -0,0 +1,485 @@
+package com.security.pgdump.monitor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Разбор argv клиентов PostgreSQL по грамматике getopt_long за один проход:
+ * длинные опции и их сокращения, форма "--opt=value", сгруппированные короткие
+ * опции ("-Fc", "-h10.0.1.10", "-sv") и позиционный dbname. Результат - битовая
+ * маска распознанных опций и значения host/port/username/dbname/file/format.
+ * Команды, не являющиеся клиентами PostgreSQL, разбираются только по длинным и
+ * отдельным коротким опциям: их позиционные аргументы - скрипты, jar и т.п.
+ */
+final class PgArgvMatcher {
+    // Опции, влияющие на оценку; 0 - опция известна, но не интересна
+    static final int HOST = 1;
+    static final int PORT = 1 << 1;
+    static final int USERNAME = 1 << 2;
+    static final int DBNAME = 1 << 3;
+    static final int FORMAT = 1 << 4;
+    static final int FILE = 1 << 5;
+    static final int JOBS = 1 << 6;
+    static final int SCHEMA_ONLY = 1 << 7;
+    static final int DATA_ONLY = 1 << 8;
+    static final int TABLE = 1 << 9;
+    static final int SCHEMA = 1 << 10;
+    static final int NO_PASSWORD = 1 << 11;
+    static final int GLOBALS_ONLY = 1 << 12;
+    static final int ROLES_ONLY = 1 << 13;
+    static final int COMMAND = 1 << 14;
+
+    // Признаки дампа, которые раньше искали регулярные выражения pgDumpArgumentPatterns
+    static final int SCORED_OPTIONS = HOST | PORT | USERNAME | DBNAME | FORMAT | FILE;
+
+    /**
+     * Набор опций конкретного клиента
+     */
+    enum Grammar {
+        PG_DUMP, PG_DUMPALL, PG_RESTORE, PSQL,
+        // Неизвестная команда: опции pg_dump без позиционных аргументов и групп коротких опций
+        GENERIC;
+
+        private final Map<String, Option> longOptions = new HashMap<>();
+        private final Option[] shortOptions = new Option[128];
+
+        private Grammar option(char shortName, String longName, int bit, boolean hasValue) {
+            Option option = new Option(longName, bit, hasValue);
+            if (shortName != 0) {
+                shortOptions[shortName] = option;
+            }
+            if (longName != null) {
+                longOptions.put(longName, option);
+            }
+            return this;
+        }
+
+        /**
+         * Грамматика по имени или пути исполняемого файла; не клиент PostgreSQL - GENERIC
+         */
+        static Grammar forCommand(String command) {
+            if (command == null) {
+                return GENERIC;
+            }
+            for (String path : MonitorConfiguration.PG_DUMP_PATHS) {
+                if (path.equals(command)) {
+                    return PG_DUMP;
+                }
+            }
+            switch (command.substring(command.lastIndexOf('/') + 1)) {
+                case "pg_dump": return PG_DUMP;
+                case "pg_dumpall": return PG_DUMPALL;
+                case "pg_restore": return PG_RESTORE;
+                case "psql": return PSQL;
+                default: return GENERIC;
+            }
+        }
+
+        static {
+            for (Grammar grammar : Grammar.values()) {
+                grammar.option('h', "host", HOST, true)
+                       .option('p', "port", PORT, true)
+                       .option('U', "username", USERNAME, true)
+                       .option('d', "dbname", DBNAME, true)
+                       .option('w', "no-password", NO_PASSWORD, false)
+                       .option('W', "password", 0, false)
+                       .option('V', "version", 0, false)
+                       .option('?', "help", 0, false)
+                       .option((char) 0, "role", 0, true);
+            }
+
+            for (Grammar grammar : new Grammar[] {PG_DUMP, GENERIC}) {
+                grammar.option('f', "file", FILE, true)
+                       .option('F', "format", FORMAT, true)
+                       .option('j', "jobs", JOBS, true)
+                       .option('a', "data-only", DATA_ONLY, false)
+                       .option('s', "schema-only", SCHEMA_ONLY, false)
+                       .option('n', "schema", SCHEMA, true)
+                       .option('N', "exclude-schema", 0, true)
+                       .option('t', "table", TABLE, true)
+                       .option('T', "exclude-table", 0, true)
+                       .option('e', "extension", 0, true)
+                       .option('E', "encoding", 0, true)
+                       .option('Z', "compress", 0, true)
+                       .option('S', "superuser", 0, true)
+                       .option('b', "large-objects", 0, false)
+                       .option('B', "no-large-objects", 0, false)
+                       .option('c', "clean", 0, false)
+                       .option('C', "create", 0, false)
+                       .option('O', "no-owner", 0, false)
+                       .option('x', "no-privileges", 0, false)
+                       .option('v', "verbose", 0, false);
+            }
+
+            Grammar.PG_DUMPALL
+                .option('f', "file", FILE, true)
+                .option('l', "database", DBNAME, true)
+                .option('a', "data-only", DATA_ONLY, false)
+                .option('s', "schema-only", SCHEMA_ONLY, false)
+                .option('g', "globals-only", GLOBALS_ONLY, false)
+                .option('r', "roles-only", ROLES_ONLY, false)
+                .option('t', "tablespaces-only", 0, false)
+                .option('E', "encoding", 0, true)
+                .option('S', "superuser", 0, true)
+                .option('c', "clean", 0, false)
+                .option('O', "no-owner", 0, false)
+                .option('x', "no-privileges", 0, false)
+                .option('v', "verbose", 0, false);
+
+            Grammar.PG_RESTORE
+                .option('f', "file", FILE, true)
+                .option('F', "format", FORMAT, true)
+                .option('j', "jobs", JOBS, true)
+                .option('a', "data-only", DATA_ONLY, false)
+                .option('s', "schema-only", SCHEMA_ONLY, false)
+                .option('n', "schema", SCHEMA, true)
+                .option('N', "exclude-schema", 0, true)
+                .option('t', "table", TABLE, true)
+                .option('T', "trigger", 0, true)
+                .option('I', "index", 0, true)
+                .option('P', "function", 0, true)
+                .option('L', "use-list", 0, true)
+                .option('l', "list", 0, false)
+                .option('S', "superuser", 0, true)
+                .option('c', "clean", 0, false)
+                .option('C', "create", 0, false)
+                .option('e', "exit-on-error", 0, false)
+                .option('O', "no-owner", 0, false)
+                .option('x', "no-privileges", 0, false)
+                .option('1', "single-transaction", 0, false)
+                .option('v', "verbose", 0, false);
+
+            Grammar.PSQL
+                .option('c', "command", COMMAND, true)
+                .option('f', "file", 0, true)           // Входной скрипт, а не файл дампа
+                .option('o', "output", FILE, true)
+                .option('l', "list", 0, false)
+                .option('v', "set", 0, true)
+                .option('L', "log-file", 0, true)
+                .option('P', "pset", 0, true)
+                .option('F', "field-separator", 0, true)
+                .option('R', "record-separator", 0, true)
+                .option('T', "table-attr", 0, true)
+                .option('A', "no-align", 0, false)
+                .option('a', "echo-all", 0, false)
+                .option('b', "echo-errors", 0, false)
+                .option('e', "echo-queries", 0, false)
+                .option('E', "echo-hidden", 0, false)
+                .option('H', "html", 0, false)
+                .option('n', "no-readline", 0, false)
+                .option('q', "quiet", 0, false)
+                .option('s', "single-step", 0, false)
+                .option('S', "single-line", 0, false)
+                .option('t', "tuples-only", 0, false)
+                .option('x', "expanded", 0, false)
+                .option('X', "no-psqlrc", 0, false)
+                .option('z', "field-separator-zero", 0, false)
+                .option('0', "record-separator-zero", 0, false)
+                .option('1', "single-transaction", 0, false);
+        }
+    }
+
+    private static final class Option {
+        final String longName;
+        final byte[] longNameBytes;
+        final int bit;
+        final boolean hasValue;
+
+        Option(String longName, int bit, boolean hasValue) {
+            this.longName = longName;
+            this.longNameBytes = longName != null ? longName.getBytes(StandardCharsets.US_ASCII) : null;
+            this.bit = bit;
+            this.hasValue = hasValue;
+        }
+    }
+
+    // Маркер неоднозначного сокращения при поиске по байтам
+    private static final Option AMBIGUOUS = new Option(null, 0, false);
+
+    /**
+     * Результат разбора
+     */
+    static final class Match {
+        private final Grammar grammar;
+        private int options;
+        private int environmentOptions;
+        private String host;
+        private String port;
+        private String username;
+        private String dbname;
+        private String file;
+        private String format;
+
+        Match(Grammar grammar) {
+            this.grammar = grammar;
+        }
+
+        public Grammar getGrammar() { return grammar; }
+        public int getOptions() { return options; }
+        public boolean has(int option) { return (options & option) != 0; }
+
+        /**
+         * Опции, заданные не в argv, а переменными окружения libpq
+         */
+        public int getEnvironmentOptions() { return environmentOptions; }
+
+        /**
+         * Учет PGHOST/PGPORT/PGUSER/PGDATABASE наравне с опциями; argv имеет приоритет, как в libpq
+         */
+        void applyEnvironment(PgEnvironment env) {
+            if (env == null) {
+                return;
+            }
+            int before = options;
+            setIfAbsent(HOST, env.getHost());
+            setIfAbsent(PORT, env.get(PgEnvironment.Key.PGPORT));
+            setIfAbsent(USERNAME, env.get(PgEnvironment.Key.PGUSER));
+            setIfAbsent(DBNAME, env.get(PgEnvironment.Key.PGDATABASE));
+            environmentOptions |= options & ~before;
+        }
+
+        /**
+         * Число различных признаков дампа (замена счетчика регулярных выражений)
+         */
+        public int score() { return Integer.bitCount(options & SCORED_OPTIONS); }
+
+        public String getHost() { return host; }
+        public String getPort() { return port; }
+        public String getUsername() { return username; }
+        public String getDbname() { return dbname; }
+        public String getFile() { return file; }
+        public String getFormat() { return format; }
+
+        private void set(int bit, String value) {
+            options |= bit;
+            switch (bit) {
+                case HOST: host = value; break;
+                case PORT: port = value; break;
+                case USERNAME: username = value; break;
+                case DBNAME: dbname = value; parseConnectionString(value); break;
+                case FILE: file = value; break;
+                case FORMAT: format = value; break;
+                default: break;
+            }
+        }
+
+        /**
+         * dbname может быть строкой подключения: "postgresql://user@host:port/db" или "host=... port=..."
+         */
+        private void parseConnectionString(String value) {
+            if (value == null) {
+                return;
+            }
+            if (value.startsWith("postgresql://") || value.startsWith("postgres://")) {
+                String rest = value.substring(value.indexOf("://") + 3);
+                int slash = rest.indexOf('/');
+                String authority = slash >= 0 ? rest.substring(0, slash) : rest;
+                int at = authority.lastIndexOf('@');
+                if (at >= 0) {
+                    String user = authority.substring(0, at);
+                    int colon = user.indexOf(':');
+                    setIfAbsent(USERNAME, colon >= 0 ? user.substring(0, colon) : user);
+                    authority = authority.substring(at + 1);
+                }
+                int colon = authority.lastIndexOf(':');
+                if (colon >= 0 && authority.indexOf(']') < colon) {
+                    setIfAbsent(PORT, authority.substring(colon + 1));
+                    authority = authority.substring(0, colon);
+                }
+                setIfAbsent(HOST, authority);
+                if (slash >= 0) {
+                    String db = rest.substring(slash + 1);
+                    int query = db.indexOf('?');
+                    dbname = query >= 0 ? db.substring(0, query) : db;
+                }
+            } else if (value.indexOf('=') > 0) {
+                for (String pair : value.trim().split("\\s+")) {
+                    int eq = pair.indexOf('=');
+                    if (eq <= 0) continue;
+                    String key = pair.substring(0, eq);
+                    String val = pair.substring(eq + 1);
+                    switch (key) {
+                        case "host": case "hostaddr": setIfAbsent(HOST, val); break;
+                        case "port": setIfAbsent(PORT, val); break;
+                        case "user": setIfAbsent(USERNAME, val); break;
+                        case "dbname": dbname = val; break;
+                        default: break;
+                    }
+                }
+            }
+        }
+
+        private void setIfAbsent(int bit, String value) {
+            if (!has(bit) && value != null && !value.isEmpty()) {
+                set(bit, value);
+            }
+        }
+    }
+
+    private PgArgvMatcher() {
+    }
+
+    /**
+     * Разбор аргументов процесса (без argv[0]) в грамматике, выбранной по имени команды.
+     * Токены - argv как есть: значение с пробелами ("host=db1 port=5432") остается одним токеном
+     */
+    static Match match(String command, String[] argv) {
+        return match(Grammar.forCommand(command), argv != null ? argv : new String[0]);
+    }
+
+    /**
+     * Опции одного токена argv без создания строк (для первого этапа отбора): бит длинной
+     * опции или битов группы коротких опций до первой опции со значением; 0 - не опция
+     */
+    static int optionBits(Grammar grammar, byte[] buf, int start, int end) {
+        int length = end - start;
+        if (length < 2 || buf[start] != '-') {
+            return 0;
+        }
+        if (buf[start + 1] == '-') {
+            int nameEnd = start + 2;
+            while (nameEnd < end && buf[nameEnd] != '=') nameEnd++;
+            Option option = findLongOption(grammar, buf, start + 2, nameEnd);
+            return option != null ? option.bit : 0;
+        }
+        if (grammar == Grammar.GENERIC && length != 2) {
+            return 0;
+        }
+        int bits = 0;
+        for (int j = start + 1; j < end; j++) {
+            int c = buf[j];
+            Option option = c > 0 ? grammar.shortOptions[c] : null;
+            if (option == null) {
+                break;
+            }
+            bits |= option.bit;
+            if (option.hasValue) {
+                break;
+            }
+        }
+        return bits;
+    }
+
+    static Match match(Grammar grammar, String[] argv) {
+        Match match = new Match(grammar);
+        int positional = 0;
+        boolean optionsEnded = false;
+
+        for (int i = 0; i < argv.length; i++) {
+            String token = argv[i];
+            if (optionsEnded || token.length() < 2 || token.charAt(0) != '-') {
+                // pg_dump [dbname], pg_restore [filename], psql [dbname [username]];
+                // у прочих команд это скрипт, jar или хост, а не база данных
+                if (!token.isEmpty() && !token.equals("-")) {
+                    if (positional == 0 && grammar == Grammar.PG_RESTORE) {
+                        match.setIfAbsent(FILE, token);
+                    } else if (positional == 0 && (grammar == Grammar.PG_DUMP || grammar == Grammar.PSQL)) {
+                        match.setIfAbsent(DBNAME, token);
+                    } else if (positional == 1 && grammar == Grammar.PSQL) {
+                        match.setIfAbsent(USERNAME, token);
+                    }
+                    positional++;
+                }
+                continue;
+            }
+
+            if (token.charAt(1) == '-') {
+                if (token.length() == 2) {
+                    optionsEnded = true;
+                    continue;
+                }
+                int eq = token.indexOf('=');
+                String name = token.substring(2, eq > 0 ? eq : token.length());
+                Option option = findLongOption(grammar, name);
+                if (option == null) {
+                    continue;
+                }
+                String value = null;
+                if (option.hasValue) {
+                    if (eq > 0) {
+                        value = token.substring(eq + 1);
+                    } else if (i + 1 < argv.length) {
+                        value = argv[++i];
+                    }
+                }
+                match.set(option.bit, value);
+                continue;
+            }
+
+            // Группа коротких опций: флаги до первой опции со значением, остаток - ее значение.
+            // У GENERIC только отдельная опция: "-jar" у java - не группа "-j ar"
+            if (grammar == Grammar.GENERIC && token.length() != 2) {
+                continue;
+            }
+            for (int j = 1; j < token.length(); j++) {
+                char c = token.charAt(j);
+                Option option = c < 128 ? grammar.shortOptions[c] : null;
+                if (option == null) {
+                    break; // getopt отклонит такую группу; остаток не разбираем
+                }
+                if (!option.hasValue) {
+                    match.set(option.bit, null);
+                    continue;
+                }
+                String value = null;
+                if (j + 1 < token.length()) {
+                    value = token.substring(j + 1);
+                } else if (i + 1 < argv.length) {
+                    value = argv[++i];
+                }
+                match.set(option.bit, value);
+                break;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Точное имя или однозначное сокращение, как в getopt_long ("--ho" == "--host")
+     */
+    private static Option findLongOption(Grammar grammar, String name) {
+        Option exact = grammar.longOptions.get(name);
+        if (exact != null || name.isEmpty()) {
+            return exact;
+        }
+        Option found = null;
+        for (Option option : grammar.longOptions.values()) {
+            if (option.longName.startsWith(name)) {
+                if (found != null) {
+                    return null; // Неоднозначное сокращение
+                }
+                found = option;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * То же по байтам имени buf[from, to)
+     */
+    private static Option findLongOption(Grammar grammar, byte[] buf, int from, int to) {
+        int length = to - from;
+        if (length == 0) {
+            return null;
+        }
+        Option found = null;
+        for (Option option : grammar.longOptions.values()) {
+            byte[] name = option.longNameBytes;
+            if (name.length < length) continue;
+            boolean prefix = true;
+            for (int i = 0; i < length && prefix; i++) {
+                prefix = name[i] == buf[from + i];
+            }
+            if (!prefix) continue;
+            if (name.length == length) {
+                return option;
+            }
+            if (found != null) {
+                found = AMBIGUOUS;
+            } else {
+                found = option;
+            }
+        }
+        return found == AMBIGUOUS ? null : found;
+    }
+}
@@ -0,0 +1,469 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Бенчмарк полного цикла сканирования процессов
+ * Запуск: java com.security.pgdump.monitor.ProcScanBenchmark [число процессов]
+ */
+class ProcScanBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int processCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+
+        Path root = SyntheticProcfs.create(processCount);
+        try {
+            ProcfsProcessScanner synthetic = new ProcfsProcessScanner(root);
+            byte[] pgDump = "pg_dump".getBytes(StandardCharsets.UTF_8);
+
+            report("procfs, synthetic " + processCount + ", ProcessInfo for all", processCount,
+                () -> synthetic.scan(entry -> !entry.isKernelThread()).size());
+            report("procfs, synthetic " + processCount + ", ProcessInfo for pg_dump only", processCount,
+                () -> synthetic.scan(entry -> entry.cmdlineContains(pgDump)).size());
+
+            // Аллокации считаются только для вызывающего потока, у воркеров не учитываются
+            for (int workers : new int[] {1, 2, 4, 8}) {
+                ParallelProcfsWalker walker = new ParallelProcfsWalker(root, new UserNameCache(), workers);
+                try {
+                    report("parallel walk, " + workers + " workers, synthetic " + processCount, processCount,
+                        () -> countProcesses(walker));
+                } finally {
+                    walker.shutdown();
+                }
+            }
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+
+        // ProcessHandle нельзя направить на синтетический /proc, сравниваем на живой системе
+        ProcfsProcessScanner live = new ProcfsProcessScanner();
+        int liveCount = (int) ProcessHandle.allProcesses().count();
+        if (live.isAvailable()) {
+            report("procfs, live host", liveCount,
+                () -> live.scan(entry -> !entry.isKernelThread()).size());
+        }
+        report("ProcessHandle.allProcesses + info(), live host", liveCount,
+            ProcScanBenchmark::scanWithProcessHandle);
+    }
+
+    /**
+     * Текущий путь getCurrentProcesses() до перехода на procfs
+     */
+    static int scanWithProcessHandle() {
+        List<ProcessInfo> processes = new ArrayList<>();
+        ProcessHandle.allProcesses().forEach(ph -> {
+            ProcessHandle.Info info = ph.info();
+            if (info.command().isPresent()) {
+                ProcessInfo procInfo = new ProcessInfo();
+                procInfo.setPid(String.valueOf(ph.pid()));
+                procInfo.setCommand(info.command().get());
+                procInfo.setArgv(info.arguments().orElse(new String[0]));
+                procInfo.setArguments(String.join(" ", procInfo.getArgv()));
+                procInfo.setStartTime(info.startInstant().orElse(null));
+                procInfo.setUser(info.user().orElse("unknown"));
+                processes.add(procInfo);
+            }
+        });
+        return processes.size();
+    }
+
+    static final class CountingVisitor implements ParallelProcfsWalker.PartitionVisitor {
+        int count;
+
+        @Override
+        public void visit(ProcfsProcessScanner scanner, ProcEntry entry) {
+            if (!entry.isKernelThread()) {
+                count++;
+            }
+        }
+    }
+
+    static int countProcesses(ParallelProcfsWalker walker) throws InterruptedException {
+        int total = 0;
+        for (CountingVisitor visitor : walker.walk(CountingVisitor::new)) {
+            total += visitor.count;
+        }
+        return total;
+    }
+
+    interface Cycle {
+        int run() throws Exception;
+    }
+
+    static void report(String name, int processCount, Cycle cycle) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            cycle.run();
+        }
+
+        long bestNanos = Long.MAX_VALUE;
+        long totalNanos = 0;
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        int built = 0;
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            long start = System.nanoTime();
+            built = cycle.run();
+            long elapsed = System.nanoTime() - start;
+            bestNanos = Math.min(bestNanos, elapsed);
+            totalNanos += elapsed;
+        }
+        long allocated = (threads.getThreadAllocatedBytes(threadId) - allocatedBefore) / MEASURE_ROUNDS;
+
+        System.out.printf("%-60s processes=%6d built=%6d avg=%8.2f ms best=%8.2f ms per-process=%6.2f us alloc=%s/cycle%n",
+            name, processCount, built, totalNanos / 1e6 / MEASURE_ROUNDS, bestNanos / 1e6,
+            totalNanos / 1e3 / MEASURE_ROUNDS / Math.max(1, processCount), formatBytes(allocated));
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes >= 1024 * 1024) {
+            return String.format("%.2f MB", bytes / (1024.0 * 1024.0));
+        } else if (bytes >= 1024) {
+            return String.format("%.2f KB", bytes / 1024.0);
+        } else {
+            return bytes + " B";
+        }
+    }
+}
+
+/**
+ * Бенчмарк разбора аргументов: прежний список регулярных выражений против PgArgvMatcher
+ * Запуск: java com.security.pgdump.monitor.ArgvMatcherBenchmark [число командных строк]
+ */
+class ArgvMatcherBenchmark {
+
+    // Список из PgDumpProcessMonitor до перехода на PgArgvMatcher
+    static final List<java.util.regex.Pattern> LEGACY_PATTERNS = Arrays.asList(
+        java.util.regex.Pattern.compile("--host\\s+[\\d\\.]+", java.util.regex.Pattern.CASE_INSENSITIVE),
+        java.util.regex.Pattern.compile("--port\\s+\\d+", java.util.regex.Pattern.CASE_INSENSITIVE),
+        java.util.regex.Pattern.compile("--username\\s+\\w+", java.util.regex.Pattern.CASE_INSENSITIVE),
+        java.util.regex.Pattern.compile("--dbname\\s+\\w+", java.util.regex.Pattern.CASE_INSENSITIVE),
+        java.util.regex.Pattern.compile("--format\\s+(custom|tar|plain)", java.util.regex.Pattern.CASE_INSENSITIVE),
+        java.util.regex.Pattern.compile("-h\\s+[\\d\\.]+", java.util.regex.Pattern.CASE_INSENSITIVE),
+        java.util.regex.Pattern.compile("-p\\s+\\d+", java.util.regex.Pattern.CASE_INSENSITIVE),
+        java.util.regex.Pattern.compile("-U\\s+\\w+", java.util.regex.Pattern.CASE_INSENSITIVE),
+        java.util.regex.Pattern.compile("-d\\s+\\w+", java.util.regex.Pattern.CASE_INSENSITIVE)
+    );
+
+    private static final String[][] SAMPLES = {
+        {"/usr/bin/pg_dump", "-h 10.0.1.10 -p 5432 -U backup -d prod_db -Fc -f /tmp/prod.dump"},
+        {"/usr/bin/pg_dump", "--host=10.0.1.10 --port=5432 --username=admin --dbname=production -F custom --file=/tmp/dump.dump"},
+        {"/usr/bin/pg_dumpall", "-h db1 -U postgres -f /backup/all.sql"},
+        {"/usr/bin/psql", "-h 10.0.1.10 -U app -c select 1"},
+        {"/usr/bin/java", "-Xmx2g -Dspring.profiles.active=prod -jar /opt/app/worker.jar --server.port=8080"},
+        {"/usr/sbin/sshd", "-D -p 22 -o ListenAddress=0.0.0.0"},
+    };
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        String[] commands = new String[count];
+        String[] arguments = new String[count];
+        String[][] argv = new String[count][];
+        for (int i = 0; i < count; i++) {
+            commands[i] = SAMPLES[i % SAMPLES.length][0];
+            arguments[i] = SAMPLES[i % SAMPLES.length][1];
+            argv[i] = arguments[i].split(" "); // токены cmdline в образцах не содержат пробелов
+        }
+
+        ProcScanBenchmark.report("regex list (9 patterns), " + count + " command lines", count, () -> {
+            int total = 0;
+            for (String line : arguments) {
+                total += countLegacyPatterns(line);
+            }
+            return total;
+        });
+        ProcScanBenchmark.report("PgArgvMatcher, " + count + " command lines", count, () -> {
+            int total = 0;
+            for (int i = 0; i < count; i++) {
+                total += PgArgvMatcher.match(commands[i], argv[i]).score();
+            }
+            return total;
+        });
+    }
+
+    static int countLegacyPatterns(String arguments) {
+        int matches = 0;
+        for (java.util.regex.Pattern pattern : LEGACY_PATTERNS) {
+            if (pattern.matcher(arguments).find()) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
+
+/**
+ * Бенчмарк таблицы известных процессов: прежняя ConcurrentHashMap<String, ProcessInfo>
+ * со всеми процессами против ProcessTable с ProcessInfo только у кандидатов
+ * Запуск: java com.security.pgdump.monitor.ProcessTableBenchmark [число процессов]
+ */
+class ProcessTableBenchmark {
+    private static volatile Object retainedSink;
+
+    public static void main(String[] args) throws Exception {
+        int processCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        Path root = SyntheticProcfs.create(processCount);
+        try {
+            ProcfsProcessScanner scanner = new ProcfsProcessScanner(root);
+            ProcessPreFilter preFilter = new ProcessPreFilter(new MonitorMetrics());
+
+            long mapBytes = retainedBytes(() -> {
+                Map<String, ProcessInfo> map = new java.util.concurrent.ConcurrentHashMap<>();
+                for (ProcessInfo process : scanner.scan(entry -> !entry.isKernelThread())) {
+                    map.put(process.getProcessKey(), process);
+                }
+                return map;
+            });
+            long tableBytes = retainedBytes(() -> {
+                ProcessTable table = new ProcessTable();
+                int[] pids = new ParallelProcfsWalker(root, new UserNameCache(), 1).listPids();
+                for (int pid : pids) {
+                    if (scanner.readProcess(pid)) {
+                        ProcEntry entry = scanner.currentEntry();
+                        ProcessPreFilter.Signal signal = preFilter.evaluate(entry, null);
+                        table.put(ProcessTable.key(entry.pid, entry.startTicks), signal,
+                            signal != ProcessPreFilter.Signal.NONE ? scanner.toProcessInfo(entry) : null);
+                    }
+                }
+                return table;
+            });
+            System.out.printf("%-60s processes=%6d retained=%s per-process=%d B%n",
+                "ConcurrentHashMap<String, ProcessInfo>", processCount,
+                ProcScanBenchmark.formatBytes(mapBytes), mapBytes / processCount);
+            System.out.printf("%-60s processes=%6d retained=%s per-process=%d B%n",
+                "ProcessTable (ProcessInfo for candidates only)", processCount,
+                ProcScanBenchmark.formatBytes(tableBytes), tableBytes / processCount);
+
+            // Проверка присутствия на каждом цикле сканирования
+            Map<String, ProcessInfo> map = new java.util.concurrent.ConcurrentHashMap<>();
+            ProcessTable table = new ProcessTable();
+            for (int pid = 1; pid <= processCount; pid++) {
+                map.put(pid + ":" + (1000 + pid), new ProcessInfo());
+                table.put(ProcessTable.key(pid, 1000 + pid), ProcessPreFilter.Signal.NONE, null);
+            }
+            ProcScanBenchmark.report("ConcurrentHashMap.containsKey(pid:starttime)", processCount, () -> {
+                int found = 0;
+                for (int pid = 1; pid <= processCount; pid++) {
+                    if (map.containsKey(pid + ":" + (1000 + pid))) found++;
+                }
+                return found;
+            });
+            ProcScanBenchmark.report("ProcessTable.contains(key)", processCount, () -> {
+                int found = 0;
+                for (int pid = 1; pid <= processCount; pid++) {
+                    if (table.contains(ProcessTable.key(pid, 1000 + pid))) found++;
+                }
+                return found;
+            });
+
+            // Очистка после скана, в котором завершился каждый сотый процесс
+            ProcScanBenchmark.report("HashSet<String> rebuild + removeIf, 1% exited", processCount, () -> {
+                Set<String> currentKeys = new HashSet<>();
+                for (int pid = 1; pid <= processCount; pid++) {
+                    if (pid % 100 != 0) currentKeys.add(pid + ":" + (1000 + pid));
+                }
+                int before = map.size();
+                map.keySet().removeIf(key -> !currentKeys.contains(key));
+                int removed = before - map.size();
+                for (int pid = 100; pid <= processCount; pid += 100) {
+                    map.put(pid + ":" + (1000 + pid), new ProcessInfo());
+                }
+                return removed;
+            });
+            ProcScanBenchmark.report("ProcessTable generation sweep, 1% exited", processCount, () -> {
+                table.startGeneration();
+                for (int pid = 1; pid <= processCount; pid++) {
+                    if (pid % 100 != 0) table.mark(ProcessTable.key(pid, 1000 + pid));
+                }
+                int removed = table.sweep(null);
+                for (int pid = 100; pid <= processCount; pid += 100) {
+                    table.put(ProcessTable.key(pid, 1000 + pid), ProcessPreFilter.Signal.NONE, null);
+                }
+                return removed;
+            });
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+
+    /**
+     * Прирост занятой кучи после построения структуры (между двумя полными сборками)
+     */
+    static long retainedBytes(java.util.function.Supplier<Object> builder) throws InterruptedException {
+        long before = usedHeap();
+        retainedSink = builder.get();
+        long after = usedHeap();
+        retainedSink = null;
+        return after - before;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
+
+/**
+ * Шторм процессов: все процессы хоста - кандидаты по аргументам (--host), у каждого десятого
+ * cmdline больше предела чтения, настоящий pg_dump запущен последним. Сравнивается задержка
+ * до анализа pg_dump при разборе кандидатов в порядке pid и по приоритету сигнала
+ * Запуск: java com.security.pgdump.monitor.ProcessStormBenchmark [число процессов] [мс анализа кандидата]
+ */
+class ProcessStormBenchmark {
+
+    /**
+     * Первый этап при обходе: кандидаты в порядке pid, как их собирает ScanPartition
+     */
+    static final class StormPartition implements ParallelProcfsWalker.PartitionVisitor {
+        final ProcessPreFilter preFilter;
+        final List<ProcessInfo> candidates = new ArrayList<>();
+
+        StormPartition(ProcessPreFilter preFilter) {
+            this.preFilter = preFilter;
+        }
+
+        @Override
+        public void visit(ProcfsProcessScanner scanner, ProcEntry entry) {
+            ProcessPreFilter.Signal signal = preFilter.evaluate(entry, null);
+            if (signal != ProcessPreFilter.Signal.NONE) {
+                ProcessInfo process = scanner.toProcessInfo(entry);
+                process.setCandidateSignal(signal);
+                candidates.add(process);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int processCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        long analysisMillis = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        Path root = SyntheticProcfs.createStorm(processCount);
+        ParallelProcfsWalker walker = new ParallelProcfsWalker(root, new UserNameCache(), MonitorConfiguration.SCAN_WORKERS);
+        try {
+            MonitorMetrics metrics = new MonitorMetrics();
+            ProcessPreFilter preFilter = new ProcessPreFilter(metrics);
+
+            long start = System.nanoTime();
+            List<ProcessInfo> candidates = new ArrayList<>();
+            for (StormPartition partition : walker.walk(() -> new StormPartition(preFilter))) {
+                candidates.addAll(partition.candidates);
+            }
+            long walkNanos = System.nanoTime() - start;
+
+            int fifoPosition = 0;
+            while (!candidates.get(fifoPosition).getCommand().endsWith("/pg_dump")) {
+                fifoPosition++;
+            }
+
+            CandidateQueue queue = new CandidateQueue(MonitorConfiguration.MAX_PENDING_CANDIDATES);
+            int shed = 0;
+            for (ProcessInfo process : candidates) {
+                if (queue.add(process) != null) shed++;
+            }
+            boolean[] found = new boolean[1];
+            long[] latency = new long[1];
+            int analyzed = queue.drain(java.util.concurrent.TimeUnit.MILLISECONDS.toNanos(MonitorConfiguration.ANALYSIS_BUDGET),
+                process -> {
+                    // Стоимость netstat/lsof для одного кандидата
+                    java.util.concurrent.locks.LockSupport.parkNanos(analysisMillis * 1_000_000);
+                    if (!found[0] && process.getCommand().endsWith("/pg_dump")) {
+                        found[0] = true;
+                        latency[0] = System.nanoTime() - start;
+                    }
+                });
+
+            System.out.printf("walk: processes=%d candidates=%d time=%.1f ms cmdline truncated=%d%n",
+                processCount, candidates.size(), walkNanos / 1e6, metrics.get(MonitorMetrics.CMDLINE_TRUNCATED));
+            System.out.printf("%-40s pg_dump analyzed after %.1f s (position %d, estimated)%n",
+                "FIFO in pid order", (walkNanos + (fifoPosition + 1) * analysisMillis * 1_000_000) / 1e9, fifoPosition + 1);
+            System.out.printf("%-40s pg_dump analyzed after %.1f ms (analyzed=%d, shed=%d, deferred=%d)%n",
+                "CandidateQueue by signal priority", found[0] ? latency[0] / 1e6 : Double.NaN, analyzed, shed, queue.size());
+        } finally {
+            walker.shutdown();
+            SyntheticProcfs.delete(root);
+        }
+    }
+}
+
+/**
+ * Синтетическое дерево /proc для бенчмарков и тестов
+ */
+class SyntheticProcfs {
+
+    /**
+     * Создает count процессов; каждый сотый - pg_dump, остальные - типичные демоны и воркеры
+     */
+    static Path create(int count) throws IOException {
+        Path root = Files.createTempDirectory("synthetic-proc");
+        Files.write(root.resolve("stat"), "cpu  1 2 3 4\nbtime 1700000000\n".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectories(root.resolve("self"));
+        Files.write(root.resolve("self").resolve("stat"), stat(1, "self", 0, 1).getBytes(StandardCharsets.UTF_8));
+
+        for (int pid = 1; pid <= count; pid++) {
+            if (pid % 100 == 0) {
+                addProcess(root, pid, 1, "pg_dump", "/usr/pgsql-16/bin/pg_dump", "-h", "10.0.1.10",
+                    "-p", "5432", "-U", "backup", "-d", "prod_db", "-Fc", "-f", "/tmp/prod.dump");
+            } else {
+                addProcess(root, pid, 1, "java", "/usr/bin/java", "-Xmx2g", "-jar", "/opt/app/worker-" + pid + ".jar");
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Шторм: count процессов с аргументами подключения, у каждого десятого - cmdline 64KB,
+     * последний процесс - pg_dump
+     */
+    static Path createStorm(int count) throws IOException {
+        Path root = create(0);
+        char[] padding = new char[64 * 1024];
+        Arrays.fill(padding, 'x');
+        String longArgument = new String(padding);
+        for (int pid = 1; pid < count; pid++) {
+            if (pid % 10 == 0) {
+                addProcess(root, pid, 1, "loader", "/opt/tools/loader", "--host=10.0.1.10", "-U", "app", longArgument);
+            } else {
+                addProcess(root, pid, 1, "loader", "/opt/tools/loader", "--host=10.0.1.10", "-U", "app");
+            }
+        }
+        addProcess(root, count, 1, "pg_dump", "/usr/pgsql-16/bin/pg_dump", "-h", "10.0.1.10",
+            "-U", "backup", "-d", "prod_db", "-Fc", "-f", "/tmp/prod.dump");
+        return root;
+    }
+
+    static void addProcess(Path root, int pid, int ppid, String comm, String... argv) throws IOException {
+        Path dir = Files.createDirectories(root.resolve(String.valueOf(pid)));
+        Files.write(dir.resolve("stat"), stat(pid, comm, ppid, 1000 + pid).getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream cmdline = new ByteArrayOutputStream();
+        for (String arg : argv) {
+            cmdline.write(arg.getBytes(StandardCharsets.UTF_8));
+            cmdline.write(0);
+        }
+        Files.write(dir.resolve("cmdline"), cmdline.toByteArray());
+    }
+
+    static String stat(int pid, String comm, int ppid, long startTicks) {
+        return pid + " (" + comm + ") S " + ppid + " " + pid + " " + pid + " 0 -1 4194560 100 0 0 0 "
+            + "150 30 0 0 20 0 1 0 " + startTicks + " 104857600 2560 18446744073709551615 0 0 0 0 0 0 0 0 0 0 0 0 17 0 0 0 0 0 0\n";
+    }
+
+    static void delete(Path root) throws IOException {
+        try (java.util.stream.Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.security.pgdump.monitor;
+
+import java.util.*;
+
+/**
+ * Классы сетей по CIDR: бинарное префиксное дерево по битам адреса, поиск самого длинного
+ * префикса за 32 (IPv4) или 128 (IPv6) шагов без разбора строк на каждый класс.
+ * IPv4-mapped IPv6 (::ffff:a.b.c.d) ищется в дереве IPv4. Узлы хранятся в примитивных
+ * массивах; дерево строится один раз и дальше только читается
+ */
+class NetworkClassifier {
+
+    /**
+     * Класс сети; адрес вне всех заданных сетей - EXTERNAL, не адрес ("[local]", имя) - UNKNOWN
+     */
+    enum NetworkClass {
+        UNKNOWN, LOOPBACK, PATRONI, HAPROXY, INTERNAL, BACKUP, EXTERNAL;
+
+        /**
+         * Адрес, подключение к которому - подключение к PostgreSQL
+         */
+        boolean isPostgreSQL() {
+            return this == PATRONI || this == HAPROXY || this == LOOPBACK;
+        }
+    }
+
+    private static final NetworkClass[] CLASSES = NetworkClass.values();
+    private static final int ROOT_V4 = 0;
+    private static final int ROOT_V6 = 1;
+    private static final int INITIAL_NODES = 256;
+
+    // Дети узла по биту 0 и 1 (0 - нет: корни детьми не бывают) и класс узла (ordinal, 0 - нет)
+    private int[] zero = new int[INITIAL_NODES];
+    private int[] one = new int[INITIAL_NODES];
+    private byte[] classes = new byte[INITIAL_NODES];
+    private int nodes = 2;
+
+    NetworkClassifier() {
+    }
+
+    /**
+     * Дерево по описанию "класс=cidr,cidr;класс=cidr", например
+     * "patroni=10.0.1.10/32,10.0.1.11/32;internal=10.0.0.0/8,fc00::/7"
+     */
+    static NetworkClassifier parse(String spec) {
+        NetworkClassifier classifier = new NetworkClassifier();
+        for (String group : spec.split(";")) {
+            int eq = group.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            NetworkClass networkClass = NetworkClass.valueOf(group.substring(0, eq).trim().toUpperCase(Locale.ROOT));
+            for (String cidr : group.substring(eq + 1).split(",")) {
+                if (!cidr.trim().isEmpty()) {
+                    classifier.add(cidr.trim(), networkClass);
+                }
+            }
+        }
+        return classifier;
+    }
+
+    /**
+     * Добавление сети "адрес/длина" (без длины - один адрес)
+     */
+    void add(String cidr, NetworkClass networkClass) {
+        int slash = cidr.indexOf('/');
+        byte[] address = new byte[16];
+        int length = parseAddress(slash < 0 ? cidr : cidr.substring(0, slash), address);
+        if (length == 0) {
+            throw new IllegalArgumentException("Invalid network address: " + cidr);
+        }
+        int bits = slash < 0 ? length * 8 : Integer.parseInt(cidr.substring(slash + 1).trim());
+        if (length == 16 && isMappedIPv4(address)) {
+            System.arraycopy(address, 12, address, 0, 4);
+            length = 4;
+            bits = Math.max(0, bits - 96);
+        }
+        if (bits < 0 || bits > length * 8) {
+            throw new IllegalArgumentException("Invalid prefix length: " + cidr);
+        }
+
+        int node = length == 4 ? ROOT_V4 : ROOT_V6;
+        for (int bit = 0; bit < bits; bit++) {
+            boolean set = (address[bit >>> 3] & (0x80 >>> (bit & 7))) != 0;
+            int child = set ? one[node] : zero[node];
+            if (child == 0) {
+                child = allocate();
+                if (set) one[node] = child; else zero[node] = child;
+            }
+            node = child;
+        }
+        classes[node] = (byte) networkClass.ordinal();
+    }
+
+    private int allocate() {
+        if (nodes == classes.length) {
+            int capacity = nodes * 2;
+            zero = Arrays.copyOf(zero, capacity);
+            one = Arrays.copyOf(one, capacity);
+            classes = Arrays.copyOf(classes, capacity);
+        }
+        return nodes++;
+    }
+
+    /**
+     * Класс адреса в текстовом виде, как его показывают таблицы сокетов
+     */
+    NetworkClass classify(String address) {
+        if (address == null) {
+            return NetworkClass.UNKNOWN;
+        }
+        byte[] packed = new byte[16];
+        int length = parseAddress(address, packed);
+        return length == 0 ? NetworkClass.UNKNOWN : classify(packed, length);
+    }
+
+    /**
+     * Класс адреса из 4 или 16 байт в сетевом порядке
+     */
+    NetworkClass classify(byte[] address, int length) {
+        if (length == 16 && isMappedIPv4(address)) {
+            return classify((address[12] & 0xFF) << 24 | (address[13] & 0xFF) << 16
+                | (address[14] & 0xFF) << 8 | (address[15] & 0xFF));
+        }
+        if (length == 4) {
+            return classify((address[0] & 0xFF) << 24 | (address[1] & 0xFF) << 16
+                | (address[2] & 0xFF) << 8 | (address[3] & 0xFF));
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = high << 8 | (address[i] & 0xFF);
+            low = low << 8 | (address[i + 8] & 0xFF);
+        }
+        return classify(high, low);
+    }
+
+    /**
+     * Класс упакованного IPv4-адреса
+     */
+    NetworkClass classify(int ipv4) {
+        int node = ROOT_V4;
+        int found = classes[node];
+        for (int bit = 31; bit >= 0; bit--) {
+            node = (ipv4 >>> bit & 1) != 0 ? one[node] : zero[node];
+            if (node == 0) break;
+            if (classes[node] != 0) found = classes[node];
+        }
+        return found != 0 ? CLASSES[found] : NetworkClass.EXTERNAL;
+    }
+
+    /**
+     * Класс упакованного IPv6-адреса (старшие и младшие 64 бита)
+     */
+    NetworkClass classify(long high, long low) {
+        int node = ROOT_V6;
+        int found = classes[node];
+        for (int bit = 0; bit < 128; bit++) {
+            long word = bit < 64 ? high : low;
+            node = (word >>> (63 - (bit & 63)) & 1) != 0 ? one[node] : zero[node];
+            if (node == 0) break;
+            if (classes[node] != 0) found = classes[node];
+        }
+        return found != 0 ? CLASSES[found] : NetworkClass.EXTERNAL;
+    }
+
+    int size() {
+        return nodes;
+    }
+
+    private static boolean isMappedIPv4(byte[] address) {
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) return false;
+        }
+        return address[10] == (byte) 0xFF && address[11] == (byte) 0xFF;
+    }
+
+    /**
+     * Разбор числового IPv4 или IPv6 адреса в out: длина адреса (4 или 16) или 0, если строка
+     * не адрес. Имена не разрешаются
+     */
+    static int parseAddress(String text, byte[] out) {
+        int zone = text.indexOf('%');
+        if (zone >= 0) {
+            text = text.substring(0, zone);
+        }
+        if (text.startsWith("[") && text.endsWith("]")) {
+            text = text.substring(1, text.length() - 1);
+        }
+        if (text.indexOf(':') < 0) {
+            return parseIPv4(text, out, 0) ? 4 : 0;
+        }
+        return parseIPv6(text, out) ? 16 : 0;
+    }
+
+    private static boolean parseIPv4(String text, byte[] out, int offset) {
+        int octet = 0;
+        int value = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : '.';
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) return false;
+            } else if (c == '.') {
+                if (value < 0 || octet == 4) return false;
+                out[offset + octet++] = (byte) value;
+                value = -1;
+            } else {
+                return false;
+            }
+        }
+        return octet == 4;
+    }
+
+    private static boolean parseIPv6(String text, byte[] out) {
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;
+        int i = 0;
+        if (text.startsWith("::")) {
+            gap = 0;
+            i = 2;
+        }
+        while (i < text.length()) {
+            int end = text.indexOf(':', i);
+            if (end < 0) end = text.length();
+            String group = text.substring(i, end);
+            if (group.indexOf('.') >= 0) {
+                // Хвост в виде IPv4 (::ffff:10.0.1.10)
+                if (end != text.length() || count > 6) return false;
+                byte[] v4 = new byte[4];
+                if (!parseIPv4(group, v4, 0)) return false;
+                groups[count++] = (v4[0] & 0xFF) << 8 | (v4[1] & 0xFF);
+                groups[count++] = (v4[2] & 0xFF) << 8 | (v4[3] & 0xFF);
+                break;
+            }
+            if (group.isEmpty() || group.length() > 4 || count == 8) return false;
+            int value = 0;
+            for (int j = 0; j < group.length(); j++) {
+                int digit = Character.digit(group.charAt(j), 16);
+                if (digit < 0) return false;
+                value = value << 4 | digit;
+            }
+            groups[count++] = value;
+            i = end + 1;
+            if (end + 1 < text.length() && text.charAt(end + 1) == ':') {
+                if (gap >= 0) return false;
+                gap = count;
+                i = end + 2;
+            } else if (end + 1 == text.length()) {
+                return false; // одиночное ':' в конце
+            }
+        }
+        if (gap < 0 ? count != 8 : count > 7) {
+            return false;
+        }
+
+        Arrays.fill(out, 0, 16, (byte) 0);
+        int tail = count - (gap < 0 ? count : gap);
+        for (int g = 0; g < count; g++) {
+            int position = gap >= 0 && g >= gap ? 8 - tail + (g - gap) : g;
+            out[position * 2] = (byte) (groups[g] >>> 8);
+            out[position * 2 + 1] = (byte) groups[g];
+        }
+        return true;
+    }
+}
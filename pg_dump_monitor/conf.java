@@ -20,12 +20,32 @@ class MonitorConfiguration {
     public static final int POSTGRESQL_DEFAULT_PORT = 5432;
     public static final int HAPROXY_WRITE_PORT = 5000;
     public static final int HAPROXY_READ_PORT = 5001;
+    public static final int[] MONITORED_PORTS = {POSTGRESQL_DEFAULT_PORT, HAPROXY_WRITE_PORT, HAPROXY_READ_PORT};
+    
+    // Классы сетей по CIDR (-Dpgdump.monitor.networkClasses="класс=cidr,cidr;..."): внутренние сети
+    // и цели резервного копирования. Адреса вне всех сетей - внешние. Узлы PostgreSQL (patroni, haproxy,
+    // loopback) добавляются монитором из списка хостов PostgreSQL отдельными адресами /32 и /128
+    public static final String NETWORK_CLASSES = System.getProperty("pgdump.monitor.networkClasses",
+        "internal=127.0.0.0/8,::1/128,10.0.0.0/8,172.16.0.0/12,192.168.0.0/16,fc00::/7,fe80::/10;" +
+        "backup=");
+    
+    // Известные пути и имена клиентов PostgreSQL (первый этап отбора)
+    public static final String[] PG_DUMP_PATHS = {
+        "/usr/pgsql-16/bin/pg_dump",
+        "pg_dump",
+        "/bin/pg_dump",
+        "/etc/alternative/pgsql-pg_dump"
+    };
+    public static final String[] PG_CLIENT_NAMES = {
+        "pg_dump", "pg_dumpall", "pg_restore", "pg_basebackup", "psql"
+    };
     
     // Веса для оценки подозрительности
     public static final int PATTERN_WEIGHT = 40;
     public static final int NETWORK_WEIGHT = 30;
     public static final int IO_WEIGHT = 20;
     public static final int FILES_WEIGHT = 10;
+    public static final int RESOURCE_WEIGHT = 5;
     
     // Минимальные пороги для срабатывания
     public static final int MIN_PATTERN_MATCHES = 3;
@@ -37,6 +57,69 @@ class MonitorConfiguration {
     public static final boolean ENABLE_ALERT_FILE_LOGGING = true;
     public static final String ALERT_LOG_DIRECTORY = "./security_logs/";
     
+    // Экспорт метрик
+    public static final boolean ENABLE_METRICS_EXPORT = true;
+    public static final String VICTORIA_METRICS_URL = "http://srv1.company.com:8428/api/v1/import/prometheus";
+    public static final long METRICS_PUSH_INTERVAL = 60000; // 1 минута
+    
+    // Число воркеров обхода /proc (-Dpgdump.monitor.scanWorkers=N), по умолчанию - по числу ядер до 8
+    public static final int SCAN_WORKERS = Integer.getInteger("pgdump.monitor.scanWorkers",
+        Math.min(8, Runtime.getRuntime().availableProcessors()));
+    
+    // Защита от шторма процессов: емкость очереди событий exec/exit, очереди кандидатов на анализ,
+    // бюджет времени анализа кандидатов за цикл и предел чтения /proc/[pid]/cmdline
+    public static final int EVENT_QUEUE_CAPACITY = Integer.getInteger("pgdump.monitor.eventQueueCapacity", 16384);
+    public static final int MAX_PENDING_CANDIDATES = Integer.getInteger("pgdump.monitor.maxPendingCandidates", 4096);
+    public static final long ANALYSIS_BUDGET = Long.getLong("pgdump.monitor.analysisBudgetMs", 2000); // 2 секунды
+    public static final int MAX_CMDLINE_BYTES = Integer.getInteger("pgdump.monitor.maxCmdlineBytes", 8 * 1024);
+    
+    // Повторная проверка /proc/[pid]/maps процесса без libpq (dlopen после запуска): первая через
+    // LIBPQ_FIRST_RECHECK_INTERVAL, затем интервал удваивается до LIBPQ_RECHECK_INTERVAL
+    public static final long LIBPQ_FIRST_RECHECK_INTERVAL = Long.getLong("pgdump.monitor.libpqFirstRecheckIntervalMs", 5000); // 5 секунд
+    public static final long LIBPQ_RECHECK_INTERVAL = Long.getLong("pgdump.monitor.libpqRecheckIntervalMs", 300000); // 5 минут
+    
+    // Источник подключений процесса (-Dpgdump.monitor.connectionSource=auto|sock_diag|procfs): sock_diag
+    // добавляет байтовые счетчики tcp_info. Таблица сокетов перечитывается не чаще раза в секунду
+    public static final String CONNECTION_SOURCE = System.getProperty("pgdump.monitor.connectionSource", "auto");
+    public static final long SOCKET_TABLE_MAX_AGE = 1000;
+    
+    // Поиск владельцев новых подключений обходом /proc - не больше N процессов за чтение таблицы
+    // (-Dpgdump.monitor.maxOwnerScanProcesses=N); кандидат по подключению снимается через
+    // CONNECTION_CANDIDATE_TTL после закрытия последнего подключения к PostgreSQL
+    public static final int MAX_OWNER_SCAN_PROCESSES = Integer.getInteger("pgdump.monitor.maxOwnerScanProcesses", 4096);
+    public static final long CONNECTION_CANDIDATE_TTL = 60000; // 1 минута
+    
+    // Скорость по подключениям к PostgreSQL: не больше N отслеживаемых 4-tuple
+    // (-Dpgdump.monitor.maxTrackedConnections=N), устойчивая скорость - средняя за 30 секунд
+    public static final int MAX_TRACKED_CONNECTIONS = Integer.getInteger("pgdump.monitor.maxTrackedConnections", 4096);
+    public static final long SUSTAINED_THROUGHPUT_WINDOW = 30000; // 30 секунд
+    public static final long SUSTAINED_THROUGHPUT_THRESHOLD = 10 * 1024 * 1024; // 10MB/s
+    
+    // Окна скорости ввода-вывода по /proc/[pid]/io: 10 секунд, 1 минута, 5 минут;
+    // высокая скорость - пиковая по окнам не ниже 5MB/s
+    public static final long[] IO_RATE_WINDOWS = {10000, 60000, 300000};
+    public static final long HIGH_IO_RATE = 5 * 1024 * 1024; // 5MB/s
+    
+    // Высокая нагрузка кандидата: CPU в процентах одного ядра и рост RSS с первого замера
+    public static final double HIGH_CPU_PERCENT = 80.0;
+    public static final long HIGH_RSS_GROWTH = 256 * 1024 * 1024; // 256MB
+    
+    // Дополнительные хосты PostgreSQL через запятую, имена и адреса вперемешку
+    // (-Dpgdump.monitor.postgresqlHosts=srv1.company.com,10.0.2.10,fd00::10): адреса сразу попадают
+    // в классификатор сетей как узлы кластера (/32, /128); имена разрешаются в фоне, адреса
+    // обновляются по TTL, неудачные запросы повторяются через отрицательный TTL
+    public static final String POSTGRESQL_HOSTS = System.getProperty("pgdump.monitor.postgresqlHosts", "");
+    public static final long DNS_CACHE_TTL = 300000; // 5 минут
+    public static final long DNS_NEGATIVE_TTL = 60000; // 1 минута
+    public static final int MAX_REVERSE_DNS_ENTRIES = 4096;
+    
+    // Кэш имен пользователей (uid -> имя), обновляется в фоне
+    public static final long USER_CACHE_TTL = 600000; // 10 минут
+    
+    // Штатные процессы сервера PostgreSQL (walreceiver загружает libpq), доверенные для пользователя postgres
+    public static final String POSTGRES_USER = "postgres";
+    public static final String[] TRUSTED_SERVER_COMMANDS = {"postgres", "postmaster"};
+    
     // Настройки блокировки
     public static final boolean ENABLE_PROCESS_BLOCKING = false; // По умолчанию отключено
     public static final boolean REQUIRE_CONFIRMATION = true;
@@ -63,6 +146,22 @@ class MonitorConfiguration {
 class AdvancedPgDumpDetector {
     private final SecurityLogger logger = new SecurityLogger();
     private final SystemCallAnalyzer syscallAnalyzer = new SystemCallAnalyzer();
+    private final NetworkClassifier networks;
+    
+    /**
+     * Только сети NETWORK_CLASSES, без узлов кластера: монитор создает детектор
+     * со своим классификатором через PgDumpProcessMonitor.createDetector()
+     */
+    public AdvancedPgDumpDetector() {
+        this(NetworkClassifier.parse(MonitorConfiguration.NETWORK_CLASSES));
+    }
+    
+    /**
+     * Классификатор с узлами Patroni/HAProxy из списка хостов PostgreSQL
+     */
+    AdvancedPgDumpDetector(NetworkClassifier networks) {
+        this.networks = networks;
+    }
     
     /**
      * Комплексный анализ процесса на предмет pg_dump активности
@@ -112,24 +211,28 @@ class AdvancedPgDumpDetector {
         String args = process.getArguments() != null ? process.getArguments().toLowerCase() : "";
         String cmd = process.getCommand() != null ? process.getCommand().toLowerCase() : "";
         
-        // Проверяем на переименованный pg_dump
-        analysis.setLikelyRenamed(!cmd.contains("pg_dump") && 
-                                 process.getPgDumpPatternScore() >= MonitorConfiguration.MIN_PATTERN_MATCHES);
+        // Проверяем на переименованный pg_dump: по отпечатку бинарника или по аргументам
+        analysis.setLikelyRenamed(process.isRenamedPgClient() ||
+                                 (!cmd.contains("pg_dump") && 
+                                  process.getPgDumpPatternScore() >= MonitorConfiguration.MIN_PATTERN_MATCHES));
         
-        // Ищем специфичные паттерны
-        analysis.setHasHostParameter(args.contains("--host") || args.contains("-h"));
-        analysis.setHasPortParameter(args.contains("--port") || args.contains("-p"));
-        analysis.setHasUserParameter(args.contains("--username") || args.contains("-u"));
-        analysis.setHasDatabaseParameter(args.contains("--dbname") || args.contains("-d"));
-        analysis.setHasFormatParameter(args.contains("--format") || args.contains("-f"));
+        // Опции по грамматике клиента (разобраны при анализе процесса)
+        PgArgvMatcher.Match argv = process.getArgvMatch() != null ? process.getArgvMatch()
+            : PgArgvMatcher.match(process.getCommand(), process.getArgv());
+        analysis.setHasHostParameter(argv.has(PgArgvMatcher.HOST));
+        analysis.setHasPortParameter(argv.has(PgArgvMatcher.PORT));
+        analysis.setHasUserParameter(argv.has(PgArgvMatcher.USERNAME));
+        analysis.setHasDatabaseParameter(argv.has(PgArgvMatcher.DBNAME));
+        analysis.setHasFormatParameter(argv.has(PgArgvMatcher.FORMAT));
         
         // Проверяем на параметры, характерные для массового дампа
-        analysis.setHasSchemaOnly(args.contains("--schema-only"));
-        analysis.setHasDataOnly(args.contains("--data-only"));
-        analysis.setHasAllDatabases(args.contains("--all") || args.contains("-a"));
+        analysis.setHasSchemaOnly(argv.has(PgArgvMatcher.SCHEMA_ONLY));
+        analysis.setHasDataOnly(argv.has(PgArgvMatcher.DATA_ONLY));
+        analysis.setHasAllDatabases(argv.getGrammar() == PgArgvMatcher.Grammar.PG_DUMPALL &&
+                                   !argv.has(PgArgvMatcher.GLOBALS_ONLY | PgArgvMatcher.ROLES_ONLY));
         
         // Подозрительные паттерны вывода
-        analysis.setOutputToFile(args.contains(">") || args.contains("--file"));
+        analysis.setOutputToFile(args.contains(">") || argv.has(PgArgvMatcher.FILE));
         analysis.setOutputToRemote(args.contains("ssh") || args.contains("scp") || args.contains("rsync"));
         
         analysis.setPatternScore(process.getPgDumpPatternScore());
@@ -213,18 +316,16 @@ class AdvancedPgDumpDetector {
      * Проверяет подозрительные сетевые подключения
      */
     private boolean isSuspiciousConnection(NetworkConnection conn) {
-        // Внешние IP-адреса (упрощенная проверка)
-        if (conn.getRemoteAddress() != null && 
-            !conn.getRemoteAddress().startsWith("10.") && 
-            !conn.getRemoteAddress().startsWith("192.168.") && 
-            !conn.getRemoteAddress().equals("127.0.0.1")) {
+        NetworkClassifier.NetworkClass networkClass = networks.classify(conn.getRemoteAddress());
+        
+        // Внешние адреса: вне всех заданных сетей (unix-сокеты и неразобранные адреса - UNKNOWN)
+        if (networkClass == NetworkClassifier.NetworkClass.EXTERNAL) {
             return true;
         }
         
-        // Необычные порты для PostgreSQL
-        if (isPostgreSQLPort(conn.getRemotePort()) && 
-            !conn.getRemoteAddress().equals("127.0.0.1") && 
-            !conn.getRemoteAddress().startsWith("10.")) {
+        // Порты PostgreSQL на узлах вне кластера: внутренний хост или сеть резервного копирования
+        if (isPostgreSQLPort(conn.getRemotePort()) && !networkClass.isPostgreSQL()
+            && networkClass != NetworkClassifier.NetworkClass.UNKNOWN) {
             return true;
         }
         
@@ -268,7 +369,7 @@ class AdvancedPgDumpDetector {
         
         // 1. Проверка на высокую скорость чтения/записи
         long ioBytesPerSecond = calculateIoRate(process, partialResult.getFileAnalysis());
-        analysis.setHighIoRate(ioBytesPerSecond > 5 * 1024 * 1024); // > 5MB/s
+        analysis.setHighIoRate(ioBytesPerSecond > MonitorConfiguration.HIGH_IO_RATE);
         
         // 2. Проверка на короткое время жизни процесса (быстрый дамп)
         analysis.setShortLivedProcess(isShortLivedProcess(process));
@@ -283,15 +384,23 @@ class AdvancedPgDumpDetector {
     }
     
     /**
-     * Вычисляет скорость I/O операций
+     * Вычисляет скорость I/O операций по счетчикам /proc/[pid]/io
      */
     private long calculateIoRate(ProcessInfo process, FileAnalysis fileAnalysis) {
-        // Упрощенный расчет - предполагаем, что весь I/O произошел за время жизни процесса
+        IoRates rates = process.getIoRates();
+        if (rates == null) {
+            return 0; // Счетчики недоступны; размер открытых файлов скоростью не является
+        }
+        if (rates.hasWindowRates()) {
+            return rates.getPeakRate();
+        }
+        
+        // Один замер: средняя скорость за время жизни процесса
         if (process.getStartTime() != null) {
             long processDuration = java.time.Duration.between(
                 process.getStartTime(), java.time.Instant.now()).getSeconds();
             if (processDuration > 0) {
-                return fileAnalysis.getTotalOutputSize() / processDuration;
+                return rates.getTransferredBytes() / processDuration;
             }
         }
         return 0;
@@ -321,8 +430,8 @@ class AdvancedPgDumpDetector {
      * Проверяет высокое использование ресурсов
      */
     private boolean hasHighResourceUsage(ProcessInfo process) {
-        // В реальной реализации нужно получить метрики процесса
-        return false; // Заглушка
+        // Замеры /proc/[pid]/stat и statm выполняются пакетно для всех кандидатов в цикле монитора
+        return process.getResourceUsage().isHigh();
     }
     
     /**
@@ -333,7 +442,7 @@ class AdvancedPgDumpDetector {
         
         // 1. Вес анализа командной строки
         CommandLineAnalysis cmd = result.getCommandLineAnalysis();
-        if (cmd.getPatternScore() >= MonitorConfiguration.MIN_PATTERN_MATCHES) {
+        if (cmd.getPatternScore() >= MonitorConfiguration.MIN_PATTERN_MATCHES || cmd.isLikelyRenamed()) {
             score += MonitorConfiguration.PATTERN_WEIGHT;
         }
         
@@ -361,6 +470,9 @@ class AdvancedPgDumpDetector {
         if (heuristic.isHighIoRate() || heuristic.isShortLivedProcess()) {
             score += 10;
         }
+        if (heuristic.isHighResourceUsage()) {
+            score += MonitorConfiguration.RESOURCE_WEIGHT;
+        }
         
         return Math.min(score, 100);
     }
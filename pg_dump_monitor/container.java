@@ -0,0 +1,323 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Контейнер процесса: идентификатор из /proc/[pid]/cgroup и inode пространств имен.
+ * Экземпляр общий для всех процессов одного mount namespace
+ */
+final class ContainerIdentity {
+    static final ContainerIdentity HOST = new ContainerIdentity("host", "host", 0, 0);
+
+    private final String id;
+    private final String runtime;
+    private final long mountNamespace;
+    private final long pidNamespace;
+
+    ContainerIdentity(String id, String runtime, long mountNamespace, long pidNamespace) {
+        this.id = id;
+        this.runtime = runtime;
+        this.mountNamespace = mountNamespace;
+        this.pidNamespace = pidNamespace;
+    }
+
+    public String getId() { return id; }
+    public String getRuntime() { return runtime; }
+    public long getMountNamespace() { return mountNamespace; }
+    public long getPidNamespace() { return pidNamespace; }
+
+    public boolean isHost() {
+        return this == HOST;
+    }
+
+    /**
+     * Короткая форма для логов, как в docker ps
+     */
+    public String getShortId() {
+        return id.length() == 64 ? id.substring(0, 12) : id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ContainerIdentity)) return false;
+        return mountNamespace == ((ContainerIdentity) o).mountNamespace;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(mountNamespace);
+    }
+
+    @Override
+    public String toString() {
+        return isHost() ? "host" : runtime + ":" + getShortId();
+    }
+}
+
+/**
+ * Определение контейнера процесса. Для каждого процесса читается только ссылка
+ * /proc/[pid]/ns/mnt; /proc/[pid]/cgroup разбирается один раз на mount namespace,
+ * поэтому стоимость на хост с сотнями контейнеров растет с числом контейнеров,
+ * а не процессов. Пути файлов процесса из другого mount namespace переводятся
+ * в пути хоста через /proc/[pid]/root
+ */
+class ContainerResolver {
+    private static final int MAX_NAMESPACES = 4096;
+    private static final int CGROUP_BUFFER_SIZE = 4096;
+
+    // Префиксы и суффиксы сегментов cgroup у распространенных сред выполнения
+    private static final String[][] RUNTIME_PREFIXES = {
+        {"docker-", "docker"},
+        {"cri-containerd-", "containerd"},
+        {"crio-", "cri-o"},
+        {"libpod-", "podman"},
+    };
+
+    /**
+     * Контейнер процесса, запомненный для пары (pid, starttime)
+     */
+    private static final class Resolved {
+        final long startTicks;
+        final ContainerIdentity container;
+
+        Resolved(long startTicks, ContainerIdentity container) {
+            this.startTicks = startTicks;
+            this.container = container;
+        }
+    }
+
+    private final Path procRoot;
+    private final byte[] cgroupBuffer = new byte[CGROUP_BUFFER_SIZE];
+    private final Map<Integer, Resolved> byPid = new ConcurrentHashMap<>();
+    private final Map<Long, ContainerIdentity> byNamespace =
+        new LinkedHashMap<Long, ContainerIdentity>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ContainerIdentity> eldest) {
+                return size() > MAX_NAMESPACES;
+            }
+        };
+    private volatile long hostMountNamespace = -1;
+
+    public ContainerResolver() {
+        this(ProcfsProcessScanner.DEFAULT_PROC_ROOT);
+    }
+
+    ContainerResolver(Path procRoot) {
+        this.procRoot = procRoot;
+    }
+
+    /**
+     * Контейнер процесса; HOST для процессов в mount namespace init и при недоступных ns
+     */
+    public ContainerIdentity resolve(int pid, long startTicks) {
+        Resolved resolved = byPid.get(pid);
+        if (resolved != null && resolved.startTicks == startTicks) {
+            return resolved.container;
+        }
+
+        ContainerIdentity container = lookup(pid);
+        byPid.put(pid, new Resolved(startTicks, container));
+        return container;
+    }
+
+    public void forget(int pid) {
+        byPid.remove(pid);
+    }
+
+    public int size() {
+        return byPid.size();
+    }
+
+    private ContainerIdentity lookup(int pid) {
+        long mountNamespace = namespaceInode(pid, "mnt");
+        if (mountNamespace <= 0 || mountNamespace == hostMountNamespace()) {
+            return ContainerIdentity.HOST;
+        }
+
+        synchronized (byNamespace) {
+            ContainerIdentity known = byNamespace.get(mountNamespace);
+            if (known != null) {
+                return known;
+            }
+            String[] id = containerIdFromCgroup(pid);
+            ContainerIdentity container = new ContainerIdentity(
+                id != null ? id[0] : "mntns:" + mountNamespace, id != null ? id[1] : "unknown",
+                mountNamespace, namespaceInode(pid, "pid"));
+            byNamespace.put(mountNamespace, container);
+            return container;
+        }
+    }
+
+    private long hostMountNamespace() {
+        long host = hostMountNamespace;
+        if (host < 0) {
+            host = namespaceInode(1, "mnt");
+            hostMountNamespace = host;
+        }
+        return host;
+    }
+
+    /**
+     * Inode пространства имен из ссылки вида "mnt:[4026531840]"; -1, если ссылка недоступна
+     */
+    long namespaceInode(int pid, String namespace) {
+        try {
+            String link = Files.readSymbolicLink(
+                procRoot.resolve(String.valueOf(pid)).resolve("ns").resolve(namespace)).toString();
+            return parseNamespaceInode(link);
+        } catch (IOException | UnsupportedOperationException e) {
+            return -1;
+        }
+    }
+
+    static long parseNamespaceInode(String link) {
+        int open = link.indexOf('[');
+        int close = link.indexOf(']', open + 1);
+        if (open < 0 || close < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(link.substring(open + 1, close));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String[] containerIdFromCgroup(int pid) {
+        String path = procRoot.toString() + File.separator + pid + File.separator + "cgroup";
+        int length = ProcfsProcessScanner.readFile(path, cgroupBuffer, cgroupBuffer.length);
+        if (length <= 0) {
+            return null;
+        }
+        return parseContainerId(new String(cgroupBuffer, 0, length, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Идентификатор и среда выполнения из строк "hierarchy:controllers:path" (cgroup v1 и v2):
+     * /docker/<id>, /system.slice/docker-<id>.scope, /kubepods/.../cri-containerd-<id>.scope
+     */
+    static String[] parseContainerId(String cgroup) {
+        for (String line : cgroup.split("\n")) {
+            int colon = line.indexOf(':', line.indexOf(':') + 1);
+            if (colon < 0) {
+                continue;
+            }
+            String[] segments = line.substring(colon + 1).split("/");
+            for (int i = segments.length - 1; i >= 0; i--) {
+                String segment = segments[i];
+                if (segment.endsWith(".scope")) {
+                    segment = segment.substring(0, segment.length() - ".scope".length());
+                }
+                String runtime = null;
+                for (String[] prefix : RUNTIME_PREFIXES) {
+                    if (segment.startsWith(prefix[0])) {
+                        segment = segment.substring(prefix[0].length());
+                        runtime = prefix[1];
+                        break;
+                    }
+                }
+                if (isContainerId(segment)) {
+                    if (runtime == null) {
+                        runtime = line.contains("kubepods") ? "kubernetes" : "docker";
+                    }
+                    return new String[] {segment, runtime};
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isContainerId(String segment) {
+        if (segment.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Путь файла процесса в файловой системе хоста. lsof и /proc/[pid]/fd показывают пути
+     * внутри mount namespace процесса, поэтому для контейнеров добавляется /proc/[pid]/root
+     */
+    public Path hostPath(ProcessInfo process, String path) {
+        ContainerIdentity container = process.getContainer();
+        if (container == null || container.isHost()) {
+            return Paths.get(path);
+        }
+        return Paths.get(procRoot.toString(), String.valueOf(process.getPidNumber()), "root", path);
+    }
+}
+
+/**
+ * Сигналы кандидатов, сведенные по контейнерам за цикл: дамп может быть разбит
+ * на несколько процессов (pg_dump | gzip | curl) внутри одного контейнера
+ */
+class ContainerActivity {
+
+    /**
+     * Сумма сигналов кандидатов одного контейнера
+     */
+    static final class Aggregate {
+        int candidates;
+        int postgreSQLConnections;
+        long transferRate; // сумма пиковых скоростей /proc/[pid]/io, байт в секунду
+
+        public int getCandidates() { return candidates; }
+        public int getPostgreSQLConnections() { return postgreSQLConnections; }
+        public long getTransferRate() { return transferRate; }
+    }
+
+    private Map<ContainerIdentity, Aggregate> current = new HashMap<>();
+    private Map<ContainerIdentity, Aggregate> spare = new HashMap<>();
+
+    /**
+     * Пересчет по текущим кандидатам. Объекты агрегатов переиспользуются между циклами
+     */
+    public synchronized void update(Collection<ProcessInfo> candidates) {
+        Map<ContainerIdentity, Aggregate> next = spare;
+        for (ProcessInfo process : candidates) {
+            ContainerIdentity container = process.getContainer();
+            if (container == null || container.isHost()) {
+                continue;
+            }
+            Aggregate aggregate = next.get(container);
+            if (aggregate == null) {
+                aggregate = current.get(container);
+                if (aggregate == null) {
+                    aggregate = new Aggregate();
+                }
+                aggregate.candidates = 0;
+                aggregate.postgreSQLConnections = 0;
+                aggregate.transferRate = 0;
+                next.put(container, aggregate);
+            }
+            aggregate.candidates++;
+            aggregate.postgreSQLConnections += process.getPostgreSQLConnections();
+            IoRates io = process.getIoRates();
+            if (io != null && io.hasWindowRates()) {
+                aggregate.transferRate += io.getPeakRate();
+            }
+        }
+        current.clear();
+        spare = current;
+        current = next;
+    }
+
+    public synchronized Aggregate get(ContainerIdentity container) {
+        return container != null ? current.get(container) : null;
+    }
+
+    public synchronized int size() {
+        return current.size();
+    }
+}
@@ -0,0 +1,225 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Подключения с байтовыми счетчиками tcp_info (bytes_received, bytes_acked) через
+ * NETLINK_SOCK_DIAG. В JDK нет AF_NETLINK сокетов, поэтому запрос inet_diag с INET_DIAG_INFO
+ * выполняет ss из iproute2: выражение по портам PostgreSQL он компилирует в байткод
+ * INET_DIAG_REQ_BYTECODE, и фильтрация идет в ядре. Один запрос на окно SOCKET_TABLE_MAX_AGE;
+ * адреса и состояние берутся из таблицы /proc/net/tcp{,6}, счетчики присоединяются по inode.
+ * Процессы из других network namespace ss не видит - для них только данные procfs
+ */
+class SockDiagConnectionSource implements ConnectionSource {
+    static final long QUERY_TIMEOUT = 3000; // 3 секунды
+    // Таймаут ss отсчитывается от запуска: по нему процесс уничтожается, и чтение вывода заканчивается
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "pgdump-ss-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Разбор вывода ss
+     */
+    interface OutputParser<T> {
+        T parse(InputStream in) throws IOException;
+    }
+
+    /**
+     * Счетчики одного сокета
+     */
+    static final class Counters {
+        final long bytesReceived;
+        final long bytesAcked;
+
+        Counters(long bytesReceived, long bytesAcked) {
+            this.bytesReceived = bytesReceived;
+            this.bytesAcked = bytesAcked;
+        }
+    }
+
+    private final SecurityLogger logger = new SecurityLogger();
+    private final ProcNetTcpTable procfs;
+    private final String[] command;
+    private final long maxAgeMillis;
+    private final long queryTimeoutMillis;
+    private final MonitorMetrics metrics;
+    private Map<Long, Counters> counters = Collections.emptyMap();
+    private long queryMillis = -1;
+    private long hostNamespace = -2;
+    private volatile boolean available = true;
+
+    SockDiagConnectionSource(ProcNetTcpTable procfs, String[] command, long maxAgeMillis, MonitorMetrics metrics) {
+        this(procfs, command, maxAgeMillis, QUERY_TIMEOUT, metrics);
+    }
+
+    SockDiagConnectionSource(ProcNetTcpTable procfs, String[] command, long maxAgeMillis, long queryTimeoutMillis,
+                             MonitorMetrics metrics) {
+        this.procfs = procfs;
+        this.command = command;
+        this.maxAgeMillis = maxAgeMillis;
+        this.queryTimeoutMillis = queryTimeoutMillis;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Источник по MonitorConfiguration.CONNECTION_SOURCE: "sock_diag", "procfs" или "auto"
+     * (sock_diag, пока ss работает, иначе procfs)
+     */
+    static ConnectionSource create(ProcNetTcpTable procfs, MonitorMetrics metrics) {
+        if ("procfs".equals(MonitorConfiguration.CONNECTION_SOURCE)) {
+            return procfs;
+        }
+        return new SockDiagConnectionSource(procfs, command(MonitorConfiguration.MONITORED_PORTS),
+            MonitorConfiguration.SOCKET_TABLE_MAX_AGE, metrics);
+    }
+
+    /**
+     * ss -tieHn '( dport = :5432 or dport = :5000 ... )': TCP без слушающих сокетов,
+     * tcp_info, inode, без заголовка и разрешения имен
+     */
+    static String[] command(int[] ports) {
+        List<String> command = new ArrayList<>(Arrays.asList("ss", "-tieHn", "("));
+        for (int i = 0; i < ports.length; i++) {
+            if (i > 0) command.add("or");
+            command.add("dport");
+            command.add("=");
+            command.add(":" + ports[i]);
+        }
+        command.add(")");
+        return command.toArray(new String[0]);
+    }
+
+    @Override
+    public String getName() { return available ? "sock_diag" : procfs.getName(); }
+
+    @Override
+    public boolean isAvailable() {
+        return procfs.isAvailable();
+    }
+
+    @Override
+    public synchronized List<NetworkConnection> connections(int pid) {
+        List<NetworkConnection> connections = procfs.connections(pid);
+        if (!available || connections.isEmpty() || !inHostNamespace(pid)) {
+            return connections;
+        }
+
+        long now = System.currentTimeMillis();
+        if (queryMillis < 0 || now - queryMillis >= maxAgeMillis) {
+            counters = query();
+            queryMillis = now;
+        }
+        for (NetworkConnection conn : connections) {
+            Counters socket = counters.get(conn.getInode());
+            if (socket != null) {
+                conn.setBytesReceived(socket.bytesReceived);
+                conn.setBytesSent(socket.bytesAcked);
+            }
+        }
+        return connections;
+    }
+
+    private boolean inHostNamespace(int pid) {
+        if (hostNamespace == -2) {
+            hostNamespace = procfs.networkNamespace("self");
+        }
+        return procfs.networkNamespace(String.valueOf(pid)) == hostNamespace;
+    }
+
+    private Map<Long, Counters> query() {
+        metrics.increment(MonitorMetrics.SOCK_DIAG_QUERIES);
+        try {
+            Map<Long, Counters> result = run(command, queryTimeoutMillis, SockDiagConnectionSource::parse);
+            if (result == null) {
+                logger.debug("ss did not finish in " + queryTimeoutMillis + " ms, byte counters skipped");
+                return Collections.emptyMap();
+            }
+            return result;
+        } catch (IOException e) {
+            // ss не установлен: дальше работаем только по procfs
+            available = false;
+            logger.info("sock_diag is not available, byte counters disabled: " + e.getMessage());
+            return Collections.emptyMap();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Запуск ss и разбор его вывода. Таймаут действует на все время работы, включая чтение
+     * stdout до EOF: по истечении процесс уничтожается таймером. null - ss не уложился в таймаут.
+     * IOException - ss не запустился
+     */
+    static <T> T run(String[] command, long timeoutMillis, OutputParser<T> parser)
+            throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process ss = pb.start();
+        // Флаг ставится до уничтожения: EOF после таймаута всегда видит его
+        AtomicBoolean expired = new AtomicBoolean();
+        ScheduledFuture<?> timeout = TIMEOUTS.schedule(() -> {
+            expired.set(true);
+            ss.destroyForcibly();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        try (InputStream in = ss.getInputStream()) {
+            T result = parser.parse(in);
+            ss.waitFor();
+            return expired.get() ? null : result;
+        } catch (IOException e) {
+            if (!expired.get()) {
+                throw e;
+            }
+            // Поток закрыт уничтожением процесса по таймауту
+            return null;
+        } finally {
+            timeout.cancel(false);
+            if (ss.isAlive()) {
+                ss.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Разбор вывода ss -tie: строка сокета с "ino:N", за ней строка tcp_info с отступом,
+     * содержащая "bytes_acked:N" и "bytes_received:N"
+     */
+    static Map<Long, Counters> parse(InputStream in) throws IOException {
+        Map<Long, Counters> result = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+        long inode = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!Character.isWhitespace(line.charAt(0))) {
+                inode = field(line, "ino:");
+            } else if (inode > 0) {
+                result.put(inode, new Counters(field(line, "bytes_received:"), field(line, "bytes_acked:")));
+                inode = 0;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Число после метки "name:" в строке ss или 0
+     */
+    private static long field(String line, String name) {
+        int start = line.indexOf(name);
+        if (start < 0 || start > 0 && !Character.isWhitespace(line.charAt(start - 1))) {
+            return 0;
+        }
+        start += name.length();
+        int end = start;
+        while (end < line.length() && Character.isDigit(line.charAt(end))) end++;
+        return end > start ? Long.parseLong(line.substring(start, end)) : 0;
+    }
+}
@@ -0,0 +1,231 @@
+package com.security.pgdump.monitor;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Кэш DNS для имен хостов PostgreSQL (srv1.company.com) и обратных имен адресов в алертах.
+ * Таблицы сокетов показывают только числовые адреса, поэтому настроенные имена разрешаются
+ * в наборы адресов в фоне, с обновлением по TTL и отрицательным кэшированием неудачных
+ * запросов. Обращения из цикла анализа не блокируются: отдается то, что уже в кэше,
+ * а недостающее обратное имя запрашивается в отдельном потоке
+ */
+class HostResolverCache {
+    private static final String[] NO_ADDRESSES = new String[0];
+    private static final int MAX_PENDING_LOOKUPS = 256;
+
+    /**
+     * Результат разрешения: адреса имени или имя адреса; пустой результат - отрицательная запись
+     */
+    private static final class Entry {
+        final String[] addresses;
+        final String name;
+        final long expiresAt;
+
+        Entry(String[] addresses, String name, long expiresAt) {
+            this.addresses = addresses;
+            this.name = name;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Источник разрешения; по умолчанию системный резолвер (NSS: /etc/hosts, DNS).
+     * Адреса - в форме InetAddress.getHostAddress, как в таблицах сокетов
+     */
+    interface Resolver {
+        String[] forward(String host) throws Exception;
+        String reverse(String address) throws Exception;
+    }
+
+    private final SecurityLogger logger = new SecurityLogger();
+    private final Resolver resolver;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxReverseEntries;
+    private final ExecutorService lookups;
+    private final Map<String, Entry> hosts = new ConcurrentHashMap<>();
+    private final Map<String, Entry> reverse = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    // Адрес -> настроенное имя, пересобирается при каждом изменении наборов адресов
+    private volatile Map<String, String> hostByAddress = Collections.emptyMap();
+
+    public HostResolverCache() {
+        this(SYSTEM_RESOLVER, MonitorConfiguration.DNS_CACHE_TTL,
+             MonitorConfiguration.DNS_NEGATIVE_TTL, MonitorConfiguration.MAX_REVERSE_DNS_ENTRIES,
+             Executors.newSingleThreadExecutor(r -> {
+                 Thread thread = new Thread(r, "pgdump-dns");
+                 thread.setDaemon(true);
+                 return thread;
+             }));
+    }
+
+    HostResolverCache(Resolver resolver, long ttlMillis, long negativeTtlMillis, int maxReverseEntries,
+                      ExecutorService lookups) {
+        this.resolver = resolver;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.maxReverseEntries = maxReverseEntries;
+        this.lookups = lookups;
+    }
+
+    /**
+     * Регистрация имени хоста PostgreSQL; адреса появятся после фонового разрешения
+     */
+    public void addHost(String host) {
+        if (hosts.putIfAbsent(host, new Entry(NO_ADDRESSES, host, 0)) == null) {
+            submit("forward:" + host, () -> refreshHost(host));
+        }
+    }
+
+    /**
+     * Настроенное имя, в один из адресов которого входит address, или null
+     */
+    public String hostFor(String address) {
+        return address != null ? hostByAddress.get(address) : null;
+    }
+
+    /**
+     * Известные адреса настроенного имени (пусто, пока имя не разрешено или не разрешается)
+     */
+    public String[] addresses(String host) {
+        Entry entry = hosts.get(host);
+        return entry != null ? entry.addresses.clone() : NO_ADDRESSES;
+    }
+
+    /**
+     * Имя адреса для алертов: настроенное имя, иначе обратное имя из кэша. Если обратного
+     * имени еще нет, возвращается null, а запрос ставится в фоновый поток
+     */
+    public String reverse(String address) {
+        if (address == null || NetworkClassifier.parseAddress(address, new byte[16]) == 0) {
+            return null;
+        }
+        String host = hostFor(address);
+        if (host != null) {
+            return host;
+        }
+        Entry entry = reverse.get(address);
+        if (entry == null || System.currentTimeMillis() >= entry.expiresAt) {
+            submit("reverse:" + address, () -> refreshReverse(address));
+        }
+        return entry != null ? entry.name : null;
+    }
+
+    /**
+     * Запуск фонового обновления имен с истекшим TTL
+     */
+    public void start(ScheduledExecutorService scheduler) {
+        long period = Math.max(1000, Math.min(ttlMillis, negativeTtlMillis) / 2);
+        scheduler.scheduleWithFixedDelay(this::refreshExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Постановка в фоновый поток разрешения имен с истекшим TTL; сам не блокирует
+     */
+    void refreshExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Entry> e : hosts.entrySet()) {
+            if (now >= e.getValue().expiresAt) {
+                String host = e.getKey();
+                submit("forward:" + host, () -> refreshHost(host));
+            }
+        }
+        reverse.values().removeIf(entry -> now >= entry.expiresAt);
+    }
+
+    public void shutdown() {
+        lookups.shutdownNow();
+    }
+
+    public int size() {
+        return hosts.size() + reverse.size();
+    }
+
+    private void submit(String key, Runnable lookup) {
+        if (pending.size() >= MAX_PENDING_LOOKUPS || !pending.add(key)) {
+            return;
+        }
+        try {
+            lookups.execute(() -> {
+                try {
+                    lookup.run();
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+        }
+    }
+
+    private void refreshHost(String host) {
+        String[] addresses = null;
+        try {
+            addresses = resolver.forward(host);
+        } catch (Exception e) {
+            logger.debug("DNS lookup failed for " + host + ": " + e.getMessage());
+        }
+
+        long now = System.currentTimeMillis();
+        Entry previous = hosts.get(host);
+        if (addresses == null || addresses.length == 0) {
+            // Сбой DNS: прежние адреса остаются, повтор - через отрицательный TTL
+            hosts.put(host, new Entry(previous != null ? previous.addresses : NO_ADDRESSES, host, now + negativeTtlMillis));
+        } else {
+            hosts.put(host, new Entry(addresses, host, now + ttlMillis));
+        }
+        if (previous == null || !Arrays.equals(previous.addresses, hosts.get(host).addresses)) {
+            rebuildIndex();
+        }
+    }
+
+    private synchronized void rebuildIndex() {
+        Map<String, String> index = new HashMap<>();
+        for (Map.Entry<String, Entry> e : hosts.entrySet()) {
+            for (String address : e.getValue().addresses) {
+                index.putIfAbsent(address, e.getKey());
+            }
+        }
+        hostByAddress = index;
+    }
+
+    private void refreshReverse(String address) {
+        String name = null;
+        try {
+            name = resolver.reverse(address);
+        } catch (Exception e) {
+            logger.debug("Reverse DNS lookup failed for " + address + ": " + e.getMessage());
+        }
+        if (reverse.size() >= maxReverseEntries && !reverse.containsKey(address)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        reverse.put(address, name != null
+            ? new Entry(NO_ADDRESSES, name, now + ttlMillis)
+            : new Entry(NO_ADDRESSES, null, now + negativeTtlMillis));
+    }
+
+    /**
+     * Системный резолвер: блокирует на время запроса, вызывается только из потока lookups
+     */
+    static final Resolver SYSTEM_RESOLVER = new Resolver() {
+        @Override
+        public String[] forward(String host) throws Exception {
+            InetAddress[] resolved = InetAddress.getAllByName(host);
+            String[] addresses = new String[resolved.length];
+            for (int i = 0; i < resolved.length; i++) {
+                addresses[i] = resolved[i].getHostAddress();
+            }
+            return addresses;
+        }
+
+        @Override
+        public String reverse(String address) throws Exception {
+            String name = InetAddress.getByName(address).getCanonicalHostName();
+            // Без PTR-записи возвращается сам адрес
+            return name.equals(address) ? null : name;
+        }
+    };
+}
@@ -0,0 +1,134 @@
+package com.security.pgdump.monitor;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Переменные окружения libpq, найденные в /proc/[pid]/environ.
+ * Хранится только фиксированный набор ключей PG*, остальное окружение не разбирается
+ */
+final class PgEnvironment {
+
+    /**
+     * Ключи, которые libpq читает вместо опций командной строки
+     */
+    enum Key {
+        PGHOST, PGHOSTADDR, PGPORT, PGUSER, PGDATABASE, PGPASSWORD, PGPASSFILE, PGSERVICE;
+
+        final byte[] name = name().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final Key[] KEYS = Key.values();
+
+    private final String[] values = new String[KEYS.length];
+
+    public String get(Key key) {
+        return values[key.ordinal()];
+    }
+
+    void set(Key key, String value) {
+        values[key.ordinal()] = value;
+    }
+
+    public boolean isEmpty() {
+        for (String value : values) {
+            if (value != null) return false;
+        }
+        return true;
+    }
+
+    public String getHost() {
+        return get(Key.PGHOST) != null ? get(Key.PGHOST) : get(Key.PGHOSTADDR);
+    }
+
+    /**
+     * Пароль передан через окружение (значение не сохраняем)
+     */
+    public boolean hasPassword() {
+        return get(Key.PGPASSWORD) != null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("PgEnvironment{");
+        for (Key key : KEYS) {
+            String value = values[key.ordinal()];
+            if (value != null) {
+                if (sb.length() > 15) sb.append(", ");
+                sb.append(key).append('=').append(value);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
+
+/**
+ * Чтение /proc/[pid]/environ для кандидатов первого этапа: "PGHOST=... pg_dump > x"
+ * не оставляет следов в argv. Чтение ограничено по размеру, разбор идет по байтам
+ * без построения карты окружения. Окружение процесса не меняется после exec,
+ * поэтому результат вычисляется один раз на (pid, starttime) и хранится в ProcessInfo
+ */
+class ProcessEnvironmentInspector {
+    static final int MAX_ENVIRON_SIZE = 64 * 1024; // 64KB
+
+    private static final byte[] PG_PREFIX = {'P', 'G'};
+
+    private final String procPrefix;
+    private final byte[] buffer = new byte[MAX_ENVIRON_SIZE];
+
+    public ProcessEnvironmentInspector() {
+        this(ProcfsProcessScanner.DEFAULT_PROC_ROOT);
+    }
+
+    ProcessEnvironmentInspector(Path procRoot) {
+        this.procPrefix = procRoot.toString() + File.separator;
+    }
+
+    /**
+     * Переменные PG* процесса; null, если окружение недоступно (чужой процесс без прав)
+     */
+    public synchronized PgEnvironment inspect(int pid) {
+        int length = ProcfsProcessScanner.readFile(procPrefix + pid + File.separator + "environ", buffer, buffer.length);
+        if (length < 0) {
+            return null;
+        }
+        return parse(buffer, length);
+    }
+
+    /**
+     * Разбор NUL-разделенных записей KEY=VALUE. Строки создаются только для найденных ключей;
+     * запись, обрезанная лимитом чтения, отбрасывается
+     */
+    static PgEnvironment parse(byte[] buf, int length) {
+        PgEnvironment env = new PgEnvironment();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && buf[end] != 0) end++;
+            if (end == length && length == buf.length) {
+                break;
+            }
+
+            if (end - start > 3 && buf[start] == PG_PREFIX[0] && buf[start + 1] == PG_PREFIX[1]) {
+                for (PgEnvironment.Key key : PgEnvironment.Key.values()) {
+                    int eq = start + key.name.length;
+                    if (eq < end && buf[eq] == '=' && startsWith(buf, start, key.name)) {
+                        env.set(key, key == PgEnvironment.Key.PGPASSWORD
+                            ? "" : new String(buf, eq + 1, end - eq - 1, StandardCharsets.UTF_8));
+                        break;
+                    }
+                }
+            }
+            start = end + 1;
+        }
+        return env;
+    }
+
+    private static boolean startsWith(byte[] buf, int from, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[from + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
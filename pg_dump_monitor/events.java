@@ -0,0 +1,154 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Слушатель событий жизненного цикла процессов
+ */
+interface ProcessEventListener {
+    void onExec(int pid);
+    void onExit(int pid);
+}
+
+/**
+ * Источник событий о процессах. Если источник не работает в реальном времени,
+ * монитор остается на периодическом сканировании
+ */
+interface ProcessEventSource {
+    String getName();
+
+    /**
+     * Запуск источника. Возвращает false, если источник недоступен на этой системе
+     */
+    boolean start(ProcessEventListener listener);
+
+    /**
+     * Доставляет ли источник события прямо сейчас
+     */
+    boolean isActive();
+
+    void stop();
+}
+
+/**
+ * Источник без событий: обнаружение только периодическим сканированием
+ */
+class PollingProcessEventSource implements ProcessEventSource {
+
+    @Override
+    public String getName() { return "polling"; }
+
+    @Override
+    public boolean start(ProcessEventListener listener) { return false; }
+
+    @Override
+    public boolean isActive() { return false; }
+
+    @Override
+    public void stop() {}
+}
+
+/**
+ * События PROC_EVENT_EXEC / PROC_EVENT_EXIT из netlink process connector.
+ * В JDK нет AF_NETLINK сокетов, поэтому подписку на connector выполняет forkstat,
+ * а мы разбираем его построчный вывод
+ */
+class NetlinkProcessEventSource implements ProcessEventSource {
+    private static final String[] FORKSTAT_COMMAND = {"forkstat", "-l", "-e", "exec,exit"};
+
+    private final SecurityLogger logger = new SecurityLogger();
+    private final String[] command;
+    private volatile Process helper;
+    private volatile boolean active = false;
+    private Thread readerThread;
+
+    public NetlinkProcessEventSource() {
+        this(FORKSTAT_COMMAND);
+    }
+
+    NetlinkProcessEventSource(String[] command) {
+        this.command = command;
+    }
+
+    @Override
+    public String getName() { return "netlink-proc-connector"; }
+
+    @Override
+    public boolean start(ProcessEventListener listener) {
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+            helper = pb.start();
+
+            // forkstat сразу завершается без CAP_NET_ADMIN
+            if (helper.waitFor(200, TimeUnit.MILLISECONDS)) {
+                logger.warn("Process connector helper exited with code " + helper.exitValue());
+                return false;
+            }
+        } catch (Exception e) {
+            logger.debug("Process connector is not available: " + e.getMessage());
+            return false;
+        }
+
+        active = true;
+        readerThread = new Thread(() -> readEvents(helper.getInputStream(), listener), "proc-connector-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+        return true;
+    }
+
+    /**
+     * Чтение событий до закрытия потока
+     */
+    void readEvents(InputStream in, ProcessEventListener listener) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                dispatchLine(line, listener);
+            }
+        } catch (IOException e) {
+            logger.debug("Process connector stream closed: " + e.getMessage());
+        } finally {
+            if (active) {
+                logger.warn("Process connector stopped, falling back to periodic scanning");
+            }
+            active = false;
+        }
+    }
+
+    /**
+     * Разбор строки вида "13:03:27 exec  12345  /usr/bin/pg_dump ..."
+     */
+    static void dispatchLine(String line, ProcessEventListener listener) {
+        String[] parts = line.trim().split("\\s+", 4);
+        if (parts.length < 3) {
+            return;
+        }
+
+        int pid = ProcfsProcessScanner.parsePid(parts[2]);
+        if (pid <= 0) {
+            return;
+        }
+
+        if ("exec".equals(parts[1])) {
+            listener.onExec(pid);
+        } else if ("exit".equals(parts[1])) {
+            listener.onExit(pid);
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public void stop() {
+        active = false;
+        if (helper != null) {
+            helper.destroy();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Идентичность исполняемого файла: (dev, inode, size, mtime) из /proc/[pid]/exe
+ */
+final class ExeIdentity {
+    final long dev;
+    final long inode;
+    final long size;
+    final long mtime;
+
+    ExeIdentity(long dev, long inode, long size, long mtime) {
+        this.dev = dev;
+        this.inode = inode;
+        this.size = size;
+        this.mtime = mtime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ExeIdentity)) return false;
+        ExeIdentity other = (ExeIdentity) o;
+        return dev == other.dev && inode == other.inode && size == other.size && mtime == other.mtime;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(dev * 31 + inode) * 31 + Long.hashCode(size ^ mtime);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("dev=%d,ino=%d,size=%d,mtime=%d", dev, inode, size, mtime);
+    }
+}
+
+/**
+ * Кэш отпечатков исполняемых файлов для обнаружения переименованных клиентов PostgreSQL.
+ * Каждый различный бинарник хешируется не более одного раза, и только если его размер
+ * совпадает с размером известного клиента; остальные процессы - поиск в хеш-таблице
+ */
+class ExecutableFingerprintCache {
+    static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    // Каталоги штатных установок PostgreSQL, из которых строится таблица известных клиентов
+    private static final String[] CLIENT_DIRECTORY_GLOBS = {
+        "/usr/pgsql-*/bin", "/usr/lib/postgresql/*/bin", "/usr/local/pgsql/bin", "/usr/bin"
+    };
+
+    /**
+     * Запись кэша для одного бинарника
+     */
+    static final class Fingerprint {
+        final ExeIdentity identity;
+        private boolean hashed = false;
+        private String sha256;
+        private String knownClientName;
+
+        Fingerprint(ExeIdentity identity) {
+            this.identity = identity;
+        }
+
+        String getSha256() { return sha256; }
+        String getKnownClientName() { return knownClientName; }
+    }
+
+    private final SecurityLogger logger = new SecurityLogger();
+    private final Path procRoot;
+    private final Map<ExeIdentity, Fingerprint> cache;
+    private final Map<String, String> knownClientHashes = new HashMap<>(); // sha256 -> имя клиента
+    private final Set<Long> knownClientSizes = new HashSet<>();
+
+    public ExecutableFingerprintCache() {
+        this(ProcfsProcessScanner.DEFAULT_PROC_ROOT, DEFAULT_MAX_ENTRIES);
+    }
+
+    ExecutableFingerprintCache(Path procRoot, int maxEntries) {
+        this.procRoot = procRoot;
+        // LRU: вытесняется бинарник, к которому дольше всего не обращались
+        this.cache = new LinkedHashMap<ExeIdentity, Fingerprint>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ExeIdentity, Fingerprint> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Заполнение таблицы известных клиентов из штатных каталогов установки PostgreSQL
+     */
+    public void loadInstalledClients() {
+        for (String path : MonitorConfiguration.PG_DUMP_PATHS) {
+            registerKnownClient(Paths.get(path));
+        }
+        for (String glob : CLIENT_DIRECTORY_GLOBS) {
+            for (Path dir : expandDirectories(glob)) {
+                for (String client : MonitorConfiguration.PG_CLIENT_NAMES) {
+                    registerKnownClient(dir.resolve(client));
+                }
+            }
+        }
+        logger.info("Known PostgreSQL client binaries: " + knownClientHashes.size());
+    }
+
+    /**
+     * Раскрытие шаблона каталога с одним сегментом "*", например каталоги bin всех версий в /usr/lib/postgresql
+     */
+    static List<Path> expandDirectories(String glob) {
+        List<Path> result = new ArrayList<>();
+        int star = glob.indexOf('*');
+        if (star < 0) {
+            result.add(Paths.get(glob));
+            return result;
+        }
+
+        int segmentStart = glob.lastIndexOf('/', star);
+        int segmentEnd = glob.indexOf('/', star);
+        Path parent = Paths.get(glob.substring(0, Math.max(segmentStart, 1)));
+        String segment = glob.substring(segmentStart + 1, segmentEnd < 0 ? glob.length() : segmentEnd);
+        String rest = segmentEnd < 0 ? "" : glob.substring(segmentEnd + 1);
+
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(parent, segment)) {
+            for (Path dir : dirs) {
+                result.add(rest.isEmpty() ? dir : dir.resolve(rest));
+            }
+        } catch (IOException e) {
+            // Каталог отсутствует на этом хосте
+        }
+        return result;
+    }
+
+    /**
+     * Добавление бинарника в таблицу известных клиентов PostgreSQL
+     */
+    public synchronized void registerKnownClient(Path binary) {
+        try {
+            Path real = binary.toRealPath();
+            if (!Files.isRegularFile(real) || !isElf(real)) {
+                return; // Например, perl-обертка pg_wrapper в Debian
+            }
+            String name = binary.getFileName().toString();
+            knownClientHashes.put(sha256(real), name);
+            knownClientSizes.add(Files.size(real));
+        } catch (Exception e) {
+            // Файл отсутствует или недоступен
+        }
+    }
+
+    /**
+     * Добавление известного клиента по готовому хешу
+     */
+    public synchronized void registerKnownClient(String sha256, long size, String name) {
+        knownClientHashes.put(sha256, name);
+        knownClientSizes.add(size);
+    }
+
+    /**
+     * Отпечаток исполняемого файла процесса или null, если процесс недоступен
+     */
+    public Fingerprint lookup(int pid) {
+        ExeIdentity identity = identify(pid);
+        if (identity == null) {
+            return null;
+        }
+
+        Fingerprint fingerprint;
+        synchronized (this) {
+            fingerprint = cache.computeIfAbsent(identity, Fingerprint::new);
+            if (fingerprint.hashed) {
+                return fingerprint;
+            }
+        }
+
+        // Хеш нужен только бинарникам того же размера, что и известные клиенты
+        String hash = null;
+        boolean sizeMatches;
+        synchronized (this) {
+            sizeMatches = knownClientSizes.contains(identity.size);
+        }
+        if (sizeMatches) {
+            try {
+                hash = sha256(exePath(pid));
+            } catch (Exception e) {
+                return fingerprint; // Повторим при следующем процессе с этим бинарником
+            }
+        }
+
+        synchronized (this) {
+            fingerprint.sha256 = hash;
+            fingerprint.knownClientName = hash != null ? knownClientHashes.get(hash) : null;
+            fingerprint.hashed = true;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Имя известного клиента PostgreSQL, которым является исполняемый файл процесса, или null
+     */
+    public String knownClientName(int pid) {
+        Fingerprint fingerprint = lookup(pid);
+        return fingerprint != null ? fingerprint.getKnownClientName() : null;
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    ExeIdentity identify(int pid) {
+        try {
+            // Атрибуты берутся у целевого файла, даже если он удален после запуска
+            Map<String, Object> attrs = Files.readAttributes(exePath(pid), "unix:dev,ino,size,lastModifiedTime");
+            return new ExeIdentity(
+                ((Number) attrs.get("dev")).longValue(),
+                ((Number) attrs.get("ino")).longValue(),
+                ((Number) attrs.get("size")).longValue(),
+                ((FileTime) attrs.get("lastModifiedTime")).toMillis());
+        } catch (Exception e) {
+            return null; // Процесс завершился или нет прав на /proc/[pid]/exe
+        }
+    }
+
+    private Path exePath(int pid) {
+        return procRoot.resolve(String.valueOf(pid)).resolve("exe");
+    }
+
+    private static boolean isElf(Path file) throws IOException {
+        byte[] magic = new byte[4];
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read(magic) == 4 && magic[0] == 0x7f && magic[1] == 'E' && magic[2] == 'L' && magic[3] == 'F';
+        }
+    }
+
+    static String sha256(Path file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package com.security.pgdump.monitor;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Фактический ввод-вывод процесса по /proc/[pid]/io: накопленные счетчики
+ * и скорости в байтах в секунду за окна MonitorConfiguration.IO_RATE_WINDOWS
+ */
+final class IoRates {
+    private final long bytesRead;       // rchar: read() из файлов, сокетов, каналов
+    private final long bytesWritten;    // wchar
+    private final long storageRead;     // read_bytes: с блочного устройства
+    private final long storageWritten;  // write_bytes
+    private final long[] readPerSecond;
+    private final long[] writePerSecond;
+    private final int samples;
+
+    IoRates(long[] counters, long[] readPerSecond, long[] writePerSecond, int samples) {
+        this.bytesRead = counters[ProcessIoSampler.RCHAR];
+        this.bytesWritten = counters[ProcessIoSampler.WCHAR];
+        this.storageRead = counters[ProcessIoSampler.READ_BYTES];
+        this.storageWritten = counters[ProcessIoSampler.WRITE_BYTES];
+        this.readPerSecond = readPerSecond;
+        this.writePerSecond = writePerSecond;
+        this.samples = samples;
+    }
+
+    public long getBytesRead() { return bytesRead; }
+    public long getBytesWritten() { return bytesWritten; }
+    public long getStorageRead() { return storageRead; }
+    public long getStorageWritten() { return storageWritten; }
+
+    /**
+     * Скорость чтения за окно с индексом window в IO_RATE_WINDOWS
+     */
+    public long getReadRate(int window) { return readPerSecond[window]; }
+    public long getWriteRate(int window) { return writePerSecond[window]; }
+
+    /**
+     * Есть хотя бы два замера - скорости за окна вычислены
+     */
+    public boolean hasWindowRates() {
+        return samples > 1;
+    }
+
+    /**
+     * Наибольшая скорость чтения или записи среди всех окон
+     */
+    public long getPeakRate() {
+        long peak = 0;
+        for (int i = 0; i < readPerSecond.length; i++) {
+            peak = Math.max(peak, Math.max(readPerSecond[i], writePerSecond[i]));
+        }
+        return peak;
+    }
+
+    /**
+     * Объем, прошедший через процесс: дамп читается из сокета и пишется в файл или канал
+     */
+    public long getTransferredBytes() {
+        return Math.max(bytesRead, bytesWritten);
+    }
+
+    @Override
+    public String toString() {
+        return "IoRates{read=" + bytesRead + ", written=" + bytesWritten + ", peakRate=" + getPeakRate() + "/s}";
+    }
+}
+
+/**
+ * Периодические замеры /proc/[pid]/io для кандидатов. Последние замеры процесса хранятся
+ * в кольцевом буфере фиксированного размера; скорость за окно считается по разнице
+ * с самым поздним замером, сделанным не позже начала окна
+ */
+class ProcessIoSampler {
+    static final int RCHAR = 0;
+    static final int WCHAR = 1;
+    static final int READ_BYTES = 2;
+    static final int WRITE_BYTES = 3;
+
+    static final int RING_SIZE = 64;
+
+    private static final byte[][] FIELDS = {
+        "rchar:".getBytes(StandardCharsets.US_ASCII),
+        "wchar:".getBytes(StandardCharsets.US_ASCII),
+        "read_bytes:".getBytes(StandardCharsets.US_ASCII),
+        "write_bytes:".getBytes(StandardCharsets.US_ASCII)
+    };
+    private static final int IO_BUFFER_SIZE = 512;
+
+    /**
+     * Кольцо замеров одного образа процесса (pid, starttime)
+     */
+    private static final class History {
+        final long startTicks;
+        final long[] times = new long[RING_SIZE];
+        final long[][] counters = new long[FIELDS.length][RING_SIZE];
+        int head; // индекс следующей записи
+        int count;
+
+        History(long startTicks) {
+            this.startTicks = startTicks;
+        }
+
+        void add(long time, long[] values) {
+            times[head] = time;
+            for (int f = 0; f < values.length; f++) {
+                counters[f][head] = values[f];
+            }
+            head = (head + 1) % RING_SIZE;
+            if (count < RING_SIZE) count++;
+        }
+
+        /**
+         * Индекс самого позднего замера не позже from; если окно длиннее истории - самый ранний
+         */
+        int baseline(long from) {
+            int latest = (head - 1 + RING_SIZE) % RING_SIZE;
+            int index = latest;
+            for (int n = 1; n < count; n++) {
+                int i = (latest - n + RING_SIZE) % RING_SIZE;
+                index = i;
+                if (times[i] <= from) break;
+            }
+            return index;
+        }
+    }
+
+    private final String procPrefix;
+    private final long[] windowsMillis;
+    private final byte[] buffer = new byte[IO_BUFFER_SIZE];
+    private final long[] values = new long[FIELDS.length];
+    private final Map<Integer, History> histories = new ConcurrentHashMap<>();
+
+    public ProcessIoSampler() {
+        this(ProcfsProcessScanner.DEFAULT_PROC_ROOT, MonitorConfiguration.IO_RATE_WINDOWS);
+    }
+
+    ProcessIoSampler(Path procRoot, long[] windowsMillis) {
+        this.procPrefix = procRoot.toString() + File.separator;
+        this.windowsMillis = windowsMillis.clone();
+    }
+
+    /**
+     * Новый замер. null, если /proc/[pid]/io недоступен (процесс завершился, нет прав)
+     */
+    public IoRates sample(int pid, long startTicks) {
+        return sample(pid, startTicks, System.currentTimeMillis());
+    }
+
+    synchronized IoRates sample(int pid, long startTicks, long nowMillis) {
+        int length = ProcfsProcessScanner.readFile(procPrefix + pid + File.separator + "io", buffer, buffer.length);
+        if (length <= 0 || !parse(buffer, length, values)) {
+            return null;
+        }
+
+        History history = histories.get(pid);
+        if (history == null || history.startTicks != startTicks) {
+            // Первый замер или pid достался новому процессу
+            history = new History(startTicks);
+            histories.put(pid, history);
+        }
+        history.add(nowMillis, values);
+
+        long[] readPerSecond = new long[windowsMillis.length];
+        long[] writePerSecond = new long[windowsMillis.length];
+        for (int w = 0; w < windowsMillis.length; w++) {
+            int base = history.baseline(nowMillis - windowsMillis[w]);
+            long elapsed = nowMillis - history.times[base];
+            if (elapsed > 0) {
+                readPerSecond[w] = rate(values[RCHAR] - history.counters[RCHAR][base], elapsed);
+                writePerSecond[w] = rate(values[WCHAR] - history.counters[WCHAR][base], elapsed);
+            }
+        }
+        return new IoRates(values.clone(), readPerSecond, writePerSecond, history.count);
+    }
+
+    private static long rate(long delta, long elapsedMillis) {
+        return delta > 0 ? delta * 1000 / elapsedMillis : 0;
+    }
+
+    public void forget(int pid) {
+        histories.remove(pid);
+    }
+
+    public int size() {
+        return histories.size();
+    }
+
+    /**
+     * Разбор строк "name: value" в values по индексам FIELDS. false, если не найдено ни одного поля
+     */
+    static boolean parse(byte[] buf, int length, long[] values) {
+        Arrays.fill(values, 0);
+        boolean found = false;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && buf[lineEnd] != '\n') lineEnd++;
+
+            for (int f = 0; f < FIELDS.length; f++) {
+                byte[] field = FIELDS[f];
+                if (lineEnd - lineStart > field.length && startsWith(buf, lineStart, field)) {
+                    int pos = lineStart + field.length;
+                    while (pos < lineEnd && buf[pos] == ' ') pos++;
+                    values[f] = ProcfsProcessScanner.parseLong(buf, pos, lineEnd);
+                    found = true;
+                    break;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return found;
+    }
+
+    private static boolean startsWith(byte[] buf, int from, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[from + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
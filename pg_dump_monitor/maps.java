@@ -0,0 +1,181 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Обнаружение libpq в адресном пространстве процесса: переименованный pg_dump,
+ * самописные дамперы на Go/Python через libpq. Сначала проверяется сам исполняемый
+ * файл, затем /proc/[pid]/maps читается потоково до первого совпадения. Результат проверки
+ * бинарника кэшируется по ExeIdentity; отсутствие libpq в maps - только по процессу: проверка
+ * при exec всегда раньше dlopen у дамперов на Python/Go, и ответ одного процесса не говорит
+ * о следующих. Отрицательный ответ перепроверяется с нарастающим интервалом: первый раз
+ * через LIBPQ_FIRST_RECHECK_INTERVAL, затем вдвое реже, но не реже LIBPQ_RECHECK_INTERVAL
+ */
+class LibpqMappingDetector {
+    private static final byte[] LIBPQ = "libpq.so".getBytes(StandardCharsets.US_ASCII);
+    private static final int READ_CHUNK = 16 * 1024; // 16KB
+    // Таблицы динамической компоновки лежат в начале ELF, весь бинарник не читаем
+    private static final long EXE_SCAN_LIMIT = 2 * 1024 * 1024; // 2MB
+    private static final int MAX_EXECUTABLES = 4096;
+
+    /**
+     * Последний результат для процесса, время, раньше которого отрицательный не перепроверяется,
+     * и текущий интервал перепроверки
+     */
+    private static final class MapsState {
+        final long startTicks;
+        final long recheckAt;
+        final long interval;
+        final boolean mapped;
+
+        MapsState(long startTicks, long recheckAt, long interval, boolean mapped) {
+            this.startTicks = startTicks;
+            this.recheckAt = recheckAt;
+            this.interval = interval;
+            this.mapped = mapped;
+        }
+    }
+
+    private final String procPrefix;
+    private final ExecutableFingerprintCache fingerprints;
+    private final MonitorMetrics metrics;
+    private final long firstRecheckMillis;
+    private final long maxRecheckMillis;
+    // Буфер на поток: проверка вызывается из воркеров параллельного обхода /proc
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[READ_CHUNK + LIBPQ.length]);
+    private final Map<Integer, MapsState> statesByPid = new ConcurrentHashMap<>();
+    // Бинарник -> libpq в его таблицах компоновки
+    private final Map<ExeIdentity, Boolean> executables =
+        new LinkedHashMap<ExeIdentity, Boolean>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ExeIdentity, Boolean> eldest) {
+                return size() > MAX_EXECUTABLES;
+            }
+        };
+
+    public LibpqMappingDetector(ExecutableFingerprintCache fingerprints, MonitorMetrics metrics) {
+        this(ProcfsProcessScanner.DEFAULT_PROC_ROOT, fingerprints, metrics,
+             MonitorConfiguration.LIBPQ_FIRST_RECHECK_INTERVAL, MonitorConfiguration.LIBPQ_RECHECK_INTERVAL);
+    }
+
+    LibpqMappingDetector(Path procRoot, ExecutableFingerprintCache fingerprints, MonitorMetrics metrics,
+                         long firstRecheckMillis, long maxRecheckMillis) {
+        this.procPrefix = procRoot.toString() + File.separator;
+        this.fingerprints = fingerprints;
+        this.metrics = metrics;
+        this.firstRecheckMillis = firstRecheckMillis;
+        this.maxRecheckMillis = maxRecheckMillis;
+    }
+
+    public boolean isLibpqMapped(ProcEntry entry) {
+        return isLibpqMapped(entry.pid, entry.startTicks);
+    }
+
+    /**
+     * Загружена ли libpq в процесс. Положительный результат окончательный, отрицательный
+     * перепроверяется чтением maps по истечении текущего интервала, после чего интервал удваивается
+     */
+    public boolean isLibpqMapped(int pid, long startTicks) {
+        long now = System.currentTimeMillis();
+        MapsState state = statesByPid.get(pid);
+        if (state != null && state.startTicks == startTicks && (state.mapped || now < state.recheckAt)) {
+            metrics.increment(MonitorMetrics.LIBPQ_CACHE_HITS);
+            return state.mapped;
+        }
+
+        boolean mapped;
+        long interval;
+        if (state != null && state.startTicks == startTicks) {
+            // Плановая перепроверка известного процесса: бинарник уже проверен
+            mapped = mapsContainLibpq(pid);
+            interval = Math.min(state.interval * 2, maxRecheckMillis);
+        } else {
+            mapped = firstCheck(pid);
+            interval = Math.min(firstRecheckMillis, maxRecheckMillis);
+        }
+        statesByPid.put(pid, new MapsState(startTicks, now + interval, interval, mapped));
+        return mapped;
+    }
+
+    /**
+     * Процесс уже проверялся, libpq не найдена, и срок перепроверки наступил
+     */
+    public boolean needsRecheck(ProcEntry entry) {
+        MapsState state = statesByPid.get(entry.pid);
+        return state != null && state.startTicks == entry.startTicks && !state.mapped
+            && System.currentTimeMillis() >= state.recheckAt;
+    }
+
+    public void forget(int pid) {
+        statesByPid.remove(pid);
+    }
+
+    public int size() {
+        return statesByPid.size();
+    }
+
+    /**
+     * Первая проверка процесса: таблицы компоновки бинарника (кэш по ExeIdentity), затем maps
+     */
+    private boolean firstCheck(int pid) {
+        ExeIdentity identity = fingerprints != null ? fingerprints.identify(pid) : null;
+        if (identity == null) {
+            return mapsContainLibpq(pid);
+        }
+
+        Boolean linked;
+        synchronized (executables) {
+            linked = executables.get(identity);
+        }
+        if (linked == null) {
+            try (InputStream in = new FileInputStream(procPrefix + pid + File.separator + "exe")) {
+                linked = streamContains(in, LIBPQ, buffers.get(), EXE_SCAN_LIMIT);
+            } catch (IOException e) {
+                return false;
+            }
+            synchronized (executables) {
+                executables.put(identity, linked);
+            }
+        }
+        return linked || mapsContainLibpq(pid);
+    }
+
+    private boolean mapsContainLibpq(int pid) {
+        metrics.increment(MonitorMetrics.LIBPQ_MAPS_READS);
+        try (InputStream in = new FileInputStream(procPrefix + pid + File.separator + "maps")) {
+            return streamContains(in, LIBPQ, buffers.get(), Long.MAX_VALUE);
+        } catch (IOException e) {
+            return false; // Процесс завершился или нет прав
+        }
+    }
+
+    /**
+     * Потоковый поиск подстроки с выходом на первом совпадении. Хвост предыдущего блока
+     * длиной needle.length - 1 переносится в начало буфера, чтобы не пропустить совпадение на стыке
+     */
+    static boolean streamContains(InputStream in, byte[] needle, byte[] buf, long limit) throws IOException {
+        int carry = 0;
+        long total = 0;
+        int n;
+        while (total < limit && (n = in.read(buf, carry, buf.length - carry)) > 0) {
+            total += n;
+            int length = carry + n;
+            int last = length - needle.length;
+            outer:
+            for (int i = 0; i <= last; i++) {
+                for (int j = 0; j < needle.length; j++) {
+                    if (buf[i + j] != needle[j]) continue outer;
+                }
+                return true;
+            }
+
+            carry = Math.min(needle.length - 1, length);
+            System.arraycopy(buf, length - carry, buf, 0, carry);
+        }
+        return false;
+    }
+}
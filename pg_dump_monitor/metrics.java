@@ -0,0 +1,129 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счетчики работы монитора в формате Prometheus с отправкой в VictoriaMetrics
+ */
+class MonitorMetrics {
+    // Воронка первого этапа
+    static final String PREFILTER_SEEN = "pg_dump_monitor_prefilter_seen_total";
+    static final String PREFILTER_DROPPED_KERNEL_THREAD = "pg_dump_monitor_prefilter_dropped_total{stage=\"kernel_thread\"}";
+    static final String PREFILTER_DROPPED_NO_SIGNAL = "pg_dump_monitor_prefilter_dropped_total{stage=\"no_client_signal\"}";
+    static final String PREFILTER_CANDIDATES = "pg_dump_monitor_prefilter_candidates_total";
+
+    // Проверка libpq через /proc/[pid]/maps
+    static final String LIBPQ_MAPS_READS = "pg_dump_monitor_libpq_maps_reads_total";
+    static final String LIBPQ_CACHE_HITS = "pg_dump_monitor_libpq_cache_hits_total";
+    static final String LIBPQ_PROMOTED = "pg_dump_monitor_libpq_promoted_total";
+
+    // Второй этап: кандидаты после netstat/lsof
+    static final String ANALYSIS_DROPPED_BELOW_THRESHOLD = "pg_dump_monitor_analysis_dropped_total{stage=\"below_threshold\"}";
+    static final String ANALYSIS_SUSPICIOUS = "pg_dump_monitor_analysis_suspicious_total";
+    static final String EXIT_CANDIDATES_SCORED = "pg_dump_monitor_exit_candidates_scored_total";
+
+    // Чтения /proc/net/tcp{,6}: одно на network namespace за окно, а не на процесс
+    static final String SOCKET_TABLE_READS = "pg_dump_monitor_socket_table_reads_total";
+    static final String SOCK_DIAG_QUERIES = "pg_dump_monitor_sock_diag_queries_total";
+    static final String CONNECTIONS_OPENED = "pg_dump_monitor_postgresql_connections_opened_total";
+    static final String CONNECTION_PROMOTED = "pg_dump_monitor_connection_promoted_total";
+    static final String CONNECTION_EXPIRED = "pg_dump_monitor_connection_expired_total";
+    static final String OWNER_SCAN_TRUNCATED = "pg_dump_monitor_owner_scan_truncated_total";
+
+    // Сброс нагрузки при шторме процессов
+    static final String SHED_EVENTS = "pg_dump_monitor_shed_total{stage=\"event_queue\"}";
+    static final String SHED_CANDIDATES = "pg_dump_monitor_shed_total{stage=\"candidate_queue\"}";
+    static final String DEFERRED_ANALYSIS = "pg_dump_monitor_deferred_total{stage=\"analysis\"}";
+    static final String DEFERRED_REFRESH = "pg_dump_monitor_deferred_total{stage=\"refresh\"}";
+    static final String CMDLINE_TRUNCATED = "pg_dump_monitor_cmdline_truncated_total";
+    static final String SCAN_OVERRUNS = "pg_dump_monitor_scan_overruns_total";
+
+    private final SecurityLogger logger = new SecurityLogger();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public void increment(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    public void add(String name, long delta) {
+        counters.computeIfAbsent(name, key -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Счетчик экспортируется с нулем до первого увеличения: первое изменение видно rate()
+     */
+    public void register(String name) {
+        counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Счетчик больше не экспортируется (исчезнувшая цель)
+     */
+    public void remove(String name) {
+        counters.remove(name);
+    }
+
+    public long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * Экспорт в текстовый формат Prometheus с меткой host
+     */
+    public String toPrometheus(String hostname, long timestampMillis) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            sb.append(withHostLabel(entry.getKey(), hostname))
+              .append(' ').append(entry.getValue().sum())
+              .append(' ').append(timestampMillis)
+              .append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String withHostLabel(String name, String hostname) {
+        int brace = name.indexOf('{');
+        if (brace < 0) {
+            return name + "{host=\"" + hostname + "\"}";
+        }
+        return name.substring(0, brace + 1) + "host=\"" + hostname + "\"," + name.substring(brace + 1);
+    }
+
+    /**
+     * Отправка всех счетчиков в VictoriaMetrics
+     */
+    public void push(String url, String hostname) {
+        try {
+            String payload = toPrometheus(hostname, System.currentTimeMillis());
+            if (payload.isEmpty()) {
+                return;
+            }
+
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setConnectTimeout(MonitorConfiguration.NETWORK_TIMEOUT);
+            conn.setReadTimeout(MonitorConfiguration.NETWORK_TIMEOUT);
+
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write(payload.getBytes());
+                os.flush();
+            }
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode != 204 && responseCode != 200) {
+                logger.error("Failed to send metrics. Response code: " + responseCode);
+            }
+
+            conn.disconnect();
+        } catch (Exception e) {
+            logger.debug("Error sending metrics: " + e.getMessage());
+        }
+    }
+}
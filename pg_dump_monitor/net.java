@@ -0,0 +1,547 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Источник TCP-подключений процесса
+ */
+interface ConnectionSource {
+    String getName();
+
+    boolean isAvailable();
+
+    /**
+     * Подключения процесса (кроме слушающих сокетов); пустой список, если процесс завершился
+     */
+    List<NetworkConnection> connections(int pid);
+}
+
+/**
+ * Индекс позиций сокетов по inode: открытая адресация поверх массива inode снимка.
+ * Сокеты без inode (TIME_WAIT) не индексируются
+ */
+final class InodeIndex {
+    private int[] slots = new int[512]; // позиция в массиве inode, -1 - пусто
+
+    void build(long[] inodes, int count) {
+        int capacity = slots.length;
+        while (capacity < count * 2) {
+            capacity *= 2;
+        }
+        if (capacity != slots.length) {
+            slots = new int[capacity];
+        }
+        Arrays.fill(slots, -1);
+        int mask = capacity - 1;
+        for (int i = 0; i < count; i++) {
+            if (inodes[i] == 0) continue;
+            int slot = (int) ProcessTable.mix(inodes[i]) & mask;
+            while (slots[slot] >= 0) slot = (slot + 1) & mask;
+            slots[slot] = i;
+        }
+    }
+
+    /**
+     * Позиция сокета с данным inode или -1
+     */
+    int find(long[] inodes, long inode) {
+        int mask = slots.length - 1;
+        for (int slot = (int) ProcessTable.mix(inode) & mask; ; slot = (slot + 1) & mask) {
+            int i = slots[slot];
+            if (i < 0) return -1;
+            if (inodes[i] == inode) return i;
+        }
+    }
+}
+
+/**
+ * Изменения набора TCP-сокетов между двумя чтениями таблицы
+ */
+interface SocketChangeListener {
+    void opened(NetworkConnection conn);
+
+    void closed(NetworkConnection conn);
+}
+
+/**
+ * TCP-сокеты сетевого пространства имен из /proc/net/tcp и /proc/net/tcp6 и их сопоставление
+ * с процессом по inode из /proc/[pid]/fd. Таблица сокетов разбирается один раз на окно
+ * SOCKET_TABLE_MAX_AGE для каждого network namespace и хранится в параллельных массивах
+ * с индексом по inode; NetworkConnection создается только для сокетов кандидата.
+ * Стоимость цикла - O(сокеты + дескрипторы кандидатов) вместо netstat на каждый процесс.
+ * Таблица пространства имен монитора дополнительно сравнивается с предыдущим чтением:
+ * неизменившийся сокет стоит одной проверки по индексу inode, события создаются
+ * только для открытых и закрытых сокетов
+ */
+class ProcNetTcpTable implements ConnectionSource {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024; // 64KB
+    private static final int INITIAL_SOCKETS = 256;
+    private static final int MAX_NAMESPACES = 1024;
+
+    // Состояния TCP в нумерации ядра (include/net/tcp_states.h)
+    private static final String[] STATES = {
+        "UNKNOWN", "ESTABLISHED", "SYN_SENT", "SYN_RECV", "FIN_WAIT1", "FIN_WAIT2", "TIME_WAIT",
+        "CLOSE", "CLOSE_WAIT", "LAST_ACK", "LISTEN", "CLOSING", "NEW_SYN_RECV"
+    };
+    static final int STATE_ESTABLISHED = 1;
+    static final int STATE_LISTEN = 10;
+
+    /**
+     * Сокеты одного network namespace. Массивы переиспользуются при следующем чтении
+     */
+    static final class Snapshot {
+        long[] inodes = new long[INITIAL_SOCKETS];
+        byte[] addresses = new byte[INITIAL_SOCKETS * 32]; // локальный и удаленный адрес по 16 байт
+        boolean[] ipv6 = new boolean[INITIAL_SOCKETS];
+        int[] localPorts = new int[INITIAL_SOCKETS];
+        int[] remotePorts = new int[INITIAL_SOCKETS];
+        byte[] states = new byte[INITIAL_SOCKETS];
+        int count;
+        final InodeIndex index = new InodeIndex();
+        long readMillis;
+
+        void clear() {
+            count = 0;
+        }
+
+        void add(long inode, boolean v6, byte[] local, int localPort, byte[] remote, int remotePort, int state) {
+            if (count == inodes.length) {
+                grow(count * 2);
+            }
+            inodes[count] = inode;
+            ipv6[count] = v6;
+            System.arraycopy(local, 0, addresses, count * 32, 16);
+            System.arraycopy(remote, 0, addresses, count * 32 + 16, 16);
+            localPorts[count] = localPort;
+            remotePorts[count] = remotePort;
+            states[count] = (byte) state;
+            count++;
+        }
+
+        private void grow(int capacity) {
+            inodes = Arrays.copyOf(inodes, capacity);
+            addresses = Arrays.copyOf(addresses, capacity * 32);
+            ipv6 = Arrays.copyOf(ipv6, capacity);
+            localPorts = Arrays.copyOf(localPorts, capacity);
+            remotePorts = Arrays.copyOf(remotePorts, capacity);
+            states = Arrays.copyOf(states, capacity);
+        }
+
+        void buildIndex() {
+            index.build(inodes, count);
+        }
+
+        int find(long inode) {
+            return index.find(inodes, inode);
+        }
+
+        NetworkConnection toConnection(int i) {
+            NetworkConnection conn = new NetworkConnection();
+            conn.setLocalAddress(formatAddress(addresses, i * 32, ipv6[i]));
+            conn.setLocalPort(localPorts[i]);
+            conn.setRemoteAddress(formatAddress(addresses, i * 32 + 16, ipv6[i]));
+            conn.setRemotePort(remotePorts[i]);
+            int state = states[i];
+            conn.setState(state > 0 && state < STATES.length ? STATES[state] : STATES[0]);
+            conn.setInode(inodes[i]);
+            return conn;
+        }
+    }
+
+    private final Path procRoot;
+    private final String procPrefix;
+    private final long maxAgeMillis;
+    private final MonitorMetrics metrics;
+    private final ProcNetUnixTable unixSockets;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private final byte[] local = new byte[16];
+    private final byte[] remote = new byte[16];
+    // Снимок, с которым сравнивается следующее чтение, и освободившийся снимок для переиспользования
+    private Snapshot baseline;
+    private Snapshot spare;
+    // Снимок для чтения таблицы другого пространства имен; прежний заменяется только после удачного чтения
+    private Snapshot scratch;
+    private long selfNamespace;
+    // Сверка с таблицей во время поиска владельцев
+    private final Snapshot ownerCheck = new Snapshot();
+    private final Map<Long, Snapshot> byNamespace =
+        new LinkedHashMap<Long, Snapshot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Snapshot> eldest) {
+                return size() > MAX_NAMESPACES;
+            }
+        };
+
+    public ProcNetTcpTable(MonitorMetrics metrics) {
+        this(ProcfsProcessScanner.DEFAULT_PROC_ROOT, MonitorConfiguration.SOCKET_TABLE_MAX_AGE, metrics,
+             new ProcNetUnixTable(metrics));
+    }
+
+    ProcNetTcpTable(Path procRoot, long maxAgeMillis, MonitorMetrics metrics) {
+        this(procRoot, maxAgeMillis, metrics, null);
+    }
+
+    /**
+     * unixSockets - таблица unix-сокетов для дескрипторов, не найденных среди TCP, или null
+     */
+    ProcNetTcpTable(Path procRoot, long maxAgeMillis, MonitorMetrics metrics, ProcNetUnixTable unixSockets) {
+        this.procRoot = procRoot;
+        this.procPrefix = procRoot.toString() + File.separator;
+        this.maxAgeMillis = maxAgeMillis;
+        this.metrics = metrics;
+        this.unixSockets = unixSockets;
+    }
+
+    @Override
+    public String getName() { return "procfs"; }
+
+    @Override
+    public boolean isAvailable() {
+        return Files.isReadable(procRoot.resolve("net").resolve("tcp"));
+    }
+
+    /**
+     * TCP-подключения процесса (кроме слушающих сокетов). Пустой список, если процесс
+     * завершился или его дескрипторы недоступны
+     */
+    @Override
+    public List<NetworkConnection> connections(int pid) {
+        return connections(pid, System.currentTimeMillis());
+    }
+
+    synchronized List<NetworkConnection> connections(int pid, long nowMillis) {
+        List<NetworkConnection> connections = new ArrayList<>();
+        long[] inodes = socketInodes(pid);
+        if (inodes.length == 0) {
+            return connections;
+        }
+
+        Snapshot snapshot = snapshot(pid, nowMillis);
+        int unmatched = 0;
+        for (long inode : inodes) {
+            int i = snapshot.find(inode);
+            if (i >= 0) {
+                if (snapshot.states[i] != STATE_LISTEN) {
+                    connections.add(snapshot.toConnection(i));
+                }
+            } else {
+                inodes[unmatched++] = inode;
+            }
+        }
+        // Остальные сокеты могут быть unix-сокетами, в том числе подключениями к .s.PGSQL.*
+        if (unixSockets != null && unmatched > 0) {
+            unixSockets.connections(pid, Arrays.copyOf(inodes, unmatched), nowMillis, connections);
+        }
+        return connections;
+    }
+
+    /**
+     * Таблица сокетов network namespace процесса: /proc/[pid]/net/tcp показывает сокеты
+     * его пространства имен, поэтому подключения процессов в контейнерах тоже видны.
+     * Пространство имен монитора читается через /proc/self/net. Если чтение не удалось
+     * (процесс завершился), остается прежний снимок со старым временем чтения
+     */
+    private Snapshot snapshot(int pid, long nowMillis) {
+        long namespace = networkNamespace(String.valueOf(pid));
+        Snapshot snapshot = byNamespace.get(namespace);
+        if (snapshot != null && nowMillis - snapshot.readMillis < maxAgeMillis) {
+            return snapshot;
+        }
+        Snapshot fresh = scratch != null ? scratch : new Snapshot();
+        scratch = null;
+        String source = namespace != 0 && namespace == selfNamespace() ? "self" : String.valueOf(pid);
+        if (!load(source, fresh, nowMillis)) {
+            scratch = fresh;
+            return snapshot != null ? snapshot : fresh;
+        }
+        byNamespace.put(namespace, fresh);
+        // Базовый снимок сравнения не переиспользуется поиском подключений
+        if (snapshot != null && snapshot != baseline) {
+            scratch = snapshot;
+        }
+        return fresh;
+    }
+
+    private long selfNamespace() {
+        if (selfNamespace == 0) {
+            selfNamespace = networkNamespace("self");
+        }
+        return selfNamespace;
+    }
+
+    /**
+     * Чтение tcp и tcp6 пространства имен в snapshot. false, если tcp не прочитан: snapshot
+     * тогда пуст и не заменяет прежний снимок, время чтения не меняется
+     */
+    private boolean load(String pid, Snapshot snapshot, long nowMillis) {
+        snapshot.clear();
+        String dir = procPrefix + pid + File.separator + "net" + File.separator;
+        if (!read(dir + "tcp", false, snapshot)) {
+            // Пустая таблица с построенным индексом: поиск по ней безопасен
+            snapshot.clear();
+            snapshot.buildIndex();
+            return false;
+        }
+        // tcp6 нет при выключенном IPv6
+        read(dir + "tcp6", true, snapshot);
+        snapshot.buildIndex();
+        snapshot.readMillis = nowMillis;
+        metrics.increment(MonitorMetrics.SOCKET_TABLE_READS);
+        return true;
+    }
+
+    /**
+     * Чтение таблицы пространства имен монитора и сравнение с предыдущим чтением.
+     * Первое чтение только запоминается. Новый снимок используется и для поиска подключений
+     */
+    public void diff(SocketChangeListener listener) {
+        diff(listener, System.currentTimeMillis());
+    }
+
+    synchronized void diff(SocketChangeListener listener, long nowMillis) {
+        Snapshot current = spare != null ? spare : new Snapshot();
+        if (!load("self", current, nowMillis)) {
+            // Без прочитанной таблицы сравнение сообщило бы о закрытии всех сокетов
+            spare = current;
+            return;
+        }
+
+        Snapshot previous = baseline;
+        if (previous != null) {
+            for (int i = 0; i < current.count; i++) {
+                long inode = current.inodes[i];
+                if (inode != 0 && current.states[i] != STATE_LISTEN && previous.find(inode) < 0) {
+                    listener.opened(current.toConnection(i));
+                }
+            }
+            for (int i = 0; i < previous.count; i++) {
+                long inode = previous.inodes[i];
+                if (inode != 0 && previous.states[i] != STATE_LISTEN && current.find(inode) < 0) {
+                    listener.closed(previous.toConnection(i));
+                }
+            }
+        }
+
+        // Прежний базовый снимок больше нигде не используется
+        baseline = current;
+        spare = previous;
+        byNamespace.put(selfNamespace(), current);
+    }
+
+    /**
+     * pid владельцев сокетов: сначала среди preferred, затем обходом /proc, пока не найдены все.
+     * Обход пропускает preferred и skip, просматривает не больше maxProcesses процессов и раз
+     * в окно maxAgeMillis сверяется с таблицей своего пространства имен: сокеты, которых в ней
+     * больше нет, дальше не ищутся. owners[i] - владелец inodes[i] или 0
+     */
+    public int[] findOwners(long[] inodes, Collection<Integer> preferred, Collection<Integer> skip, int maxProcesses) {
+        int[] owners = new int[inodes.length];
+        boolean[] closed = new boolean[inodes.length];
+        int remaining = inodes.length;
+        for (int pid : preferred) {
+            remaining -= matchOwner(pid, inodes, owners, closed);
+            if (remaining == 0) return owners;
+        }
+        String[] entries = new File(procPrefix).list();
+        if (entries == null) {
+            return owners;
+        }
+        int visited = 0;
+        long checkedMillis = System.currentTimeMillis();
+        for (String name : entries) {
+            int pid = ProcfsProcessScanner.parsePid(name);
+            if (pid <= 0 || preferred.contains(pid) || skip.contains(pid)) {
+                continue;
+            }
+            if (visited++ == maxProcesses) {
+                metrics.increment(MonitorMetrics.OWNER_SCAN_TRUNCATED);
+                break;
+            }
+            long now = System.currentTimeMillis();
+            if (now - checkedMillis >= maxAgeMillis) {
+                remaining -= dropClosed(inodes, owners, closed, now);
+                checkedMillis = now;
+                if (remaining == 0) break;
+            }
+            remaining -= matchOwner(pid, inodes, owners, closed);
+            if (remaining == 0) break;
+        }
+        return owners;
+    }
+
+    private int matchOwner(int pid, long[] inodes, int[] owners, boolean[] closed) {
+        int matched = 0;
+        for (long socket : socketInodes(pid)) {
+            for (int i = 0; i < inodes.length; i++) {
+                if (owners[i] == 0 && !closed[i] && inodes[i] == socket) {
+                    owners[i] = pid;
+                    matched++;
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Отметка сокетов, исчезнувших из таблицы своего пространства имен. Возвращает число отмеченных
+     */
+    private synchronized int dropClosed(long[] inodes, int[] owners, boolean[] closed, long nowMillis) {
+        if (!load("self", ownerCheck, nowMillis)) {
+            return 0;
+        }
+        int dropped = 0;
+        for (int i = 0; i < inodes.length; i++) {
+            if (owners[i] == 0 && !closed[i] && ownerCheck.find(inodes[i]) < 0) {
+                closed[i] = true;
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    private boolean read(String path, boolean v6, Snapshot snapshot) {
+        int length;
+        // Таблица читается целиком: при заполненном буфере он удваивается и файл перечитывается
+        while ((length = ProcfsProcessScanner.readFile(path, buffer, buffer.length)) == buffer.length) {
+            buffer = new byte[buffer.length * 2];
+        }
+        if (length <= 0) {
+            return false;
+        }
+        parse(buffer, length, v6, snapshot);
+        return true;
+    }
+
+    /**
+     * Разбор строк "sl local_address rem_address st tx:rx tr:when retrnsmt uid timeout inode ..."
+     * Первая строка - заголовок
+     */
+    void parse(byte[] buf, int length, boolean v6, Snapshot snapshot) {
+        int pos = 0;
+        while (pos < length && buf[pos] != '\n') pos++;
+        pos++;
+
+        int addressLength = v6 ? 32 : 8;
+        while (pos < length) {
+            int lineEnd = pos;
+            while (lineEnd < length && buf[lineEnd] != '\n') lineEnd++;
+
+            int field = 0;
+            int localPort = 0;
+            int remotePort = 0;
+            int state = 0;
+            long inode = 0;
+            int i = pos;
+            while (i < lineEnd && field <= 9) {
+                while (i < lineEnd && buf[i] == ' ') i++;
+                int start = i;
+                while (i < lineEnd && buf[i] != ' ') i++;
+                if (start == i) break;
+
+                if (field == 1 || field == 2) {
+                    // ADDR:PORT, адрес - 32-битные слова в порядке байт хоста
+                    if (i - start != addressLength + 5) break;
+                    byte[] address = field == 1 ? local : remote;
+                    decodeAddress(buf, start, addressLength, address);
+                    int port = (int) hex(buf, start + addressLength + 1, i);
+                    if (field == 1) localPort = port; else remotePort = port;
+                } else if (field == 3) {
+                    state = (int) hex(buf, start, i);
+                } else if (field == 9) {
+                    inode = ProcfsProcessScanner.parseLong(buf, start, i);
+                }
+                field++;
+            }
+            if (field > 9) {
+                snapshot.add(inode, v6, local, localPort, remote, remotePort, state);
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    private static void decodeAddress(byte[] buf, int from, int hexLength, byte[] out) {
+        Arrays.fill(out, (byte) 0);
+        int words = hexLength / 8;
+        for (int w = 0; w < words; w++) {
+            long word = hex(buf, from + w * 8, from + w * 8 + 8);
+            // Слово записано как число в little-endian: младший байт - первый октет адреса
+            for (int b = 0; b < 4; b++) {
+                out[w * 4 + b] = (byte) (word >>> (8 * b));
+            }
+        }
+    }
+
+    static long hex(byte[] buf, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int b = buf[i];
+            int digit = b >= '0' && b <= '9' ? b - '0' : b >= 'A' && b <= 'F' ? b - 'A' + 10 : b >= 'a' && b <= 'f' ? b - 'a' + 10 : 0;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Текстовый адрес без обращения к DNS; IPv4, отображенный в IPv6 (::ffff:a.b.c.d), - как IPv4,
+     * чтобы совпадать со списком хостов PostgreSQL
+     */
+    static String formatAddress(byte[] addresses, int offset, boolean v6) {
+        if (!v6 || isV4Mapped(addresses, offset)) {
+            int o = v6 ? offset + 12 : offset;
+            return (addresses[o] & 0xff) + "." + (addresses[o + 1] & 0xff) + "."
+                + (addresses[o + 2] & 0xff) + "." + (addresses[o + 3] & 0xff);
+        }
+        try {
+            return InetAddress.getByAddress(Arrays.copyOfRange(addresses, offset, offset + 16)).getHostAddress();
+        } catch (UnknownHostException e) {
+            return "::";
+        }
+    }
+
+    private static boolean isV4Mapped(byte[] addresses, int offset) {
+        for (int i = 0; i < 10; i++) {
+            if (addresses[offset + i] != 0) return false;
+        }
+        return addresses[offset + 10] == (byte) 0xff && addresses[offset + 11] == (byte) 0xff;
+    }
+
+    /**
+     * inode network namespace процесса ("self" - монитора) или -1
+     */
+    long networkNamespace(String pid) {
+        return ContainerResolver.parseNamespaceInode(readLink(procPrefix + pid + "/ns/net"));
+    }
+
+    /**
+     * inode сокетов процесса по ссылкам /proc/[pid]/fd вида "socket:[12345]"
+     */
+    long[] socketInodes(int pid) {
+        String fdDir = procPrefix + pid + File.separator + "fd";
+        String[] fds = new File(fdDir).list();
+        if (fds == null) {
+            return new long[0];
+        }
+        long[] inodes = new long[fds.length];
+        int count = 0;
+        for (String fd : fds) {
+            String link = readLink(fdDir + File.separator + fd);
+            if (link.startsWith("socket:[")) {
+                // Тот же формат "type:[inode]", что у ссылок /proc/[pid]/ns
+                inodes[count++] = ContainerResolver.parseNamespaceInode(link);
+            }
+        }
+        return Arrays.copyOf(inodes, count);
+    }
+
+    static String readLink(String path) {
+        try {
+            return Files.readSymbolicLink(Paths.get(path)).toString();
+        } catch (IOException | UnsupportedOperationException e) {
+            return "";
+        }
+    }
+}
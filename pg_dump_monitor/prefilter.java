@@ -0,0 +1,175 @@
+package com.security.pgdump.monitor;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Первый этап отбора: за микросекунды по уже прочитанным данным процесса
+ * (comm, argv, известные пути pg_dump, загруженная libpq) решает, нужен ли дорогой анализ
+ * (netstat/lsof). Счетчики этапов экспортируются как метрики
+ */
+class ProcessPreFilter {
+
+    /**
+     * Причина, по которой процесс стал кандидатом. CONNECTION - новое подключение к порту
+     * PostgreSQL у процесса без других признаков (например, JDBC-клиент)
+     */
+    enum Signal { NONE, CLIENT_NAME, CLIENT_PATH, KNOWN_BINARY, ARGUMENTS, LIBPQ, CONNECTION }
+
+    // Минимум различных опций подключения в argv (одиночный "-p 22" не в счет)
+    private static final int MIN_OPTION_KINDS = 2;
+
+    private static final byte[][] CLIENT_NAMES = toBytes(MonitorConfiguration.PG_CLIENT_NAMES);
+    private static final byte[][] CLIENT_PATHS = toBytes(MonitorConfiguration.PG_DUMP_PATHS);
+
+    // Опции подключения по таблице опций PgArgvMatcher; имя неизвестно, поэтому грамматика pg_dump
+    private static final int CONNECTION_OPTIONS = PgArgvMatcher.HOST | PgArgvMatcher.PORT
+        | PgArgvMatcher.USERNAME | PgArgvMatcher.DBNAME | PgArgvMatcher.FORMAT;
+
+    private final MonitorMetrics metrics;
+    private final ExecutableFingerprintCache fingerprints;
+    private final LibpqMappingDetector libpqDetector;
+
+    public ProcessPreFilter(MonitorMetrics metrics) {
+        this(metrics, null, null);
+    }
+
+    public ProcessPreFilter(MonitorMetrics metrics, ExecutableFingerprintCache fingerprints,
+                            LibpqMappingDetector libpqDetector) {
+        this.metrics = metrics;
+        this.fingerprints = fingerprints;
+        this.libpqDetector = libpqDetector;
+    }
+
+    /**
+     * Решение по сырым данным procfs. libpqMapped == null, если карта памяти еще не известна:
+     * тогда она проверяется последней, только если других признаков нет
+     */
+    public Signal evaluate(ProcEntry entry, Boolean libpqMapped) {
+        metrics.increment(MonitorMetrics.PREFILTER_SEEN);
+
+        if (entry.isKernelThread()) {
+            metrics.increment(MonitorMetrics.PREFILTER_DROPPED_KERNEL_THREAD);
+            return Signal.NONE;
+        }
+        if (entry.cmdlineTruncated) {
+            metrics.increment(MonitorMetrics.CMDLINE_TRUNCATED);
+        }
+
+        Signal signal = findSignal(entry, libpqMapped);
+        if (signal == Signal.NONE) {
+            metrics.increment(MonitorMetrics.PREFILTER_DROPPED_NO_SIGNAL);
+        } else {
+            metrics.increment(MonitorMetrics.PREFILTER_CANDIDATES);
+        }
+        return signal;
+    }
+
+    /**
+     * Решение для процессов без procfs (ProcessHandle / ps)
+     */
+    public Signal evaluate(ProcessInfo process) {
+        metrics.increment(MonitorMetrics.PREFILTER_SEEN);
+
+        String command = process.getCommand() != null ? process.getCommand() : "";
+        Signal signal = Signal.NONE;
+
+        String name = command.substring(command.lastIndexOf('/') + 1);
+        for (String client : MonitorConfiguration.PG_CLIENT_NAMES) {
+            if (name.equals(client)) {
+                signal = Signal.CLIENT_NAME;
+            }
+        }
+        for (String path : MonitorConfiguration.PG_DUMP_PATHS) {
+            if (command.equals(path)) {
+                signal = Signal.CLIENT_PATH;
+            }
+        }
+        if (signal == Signal.NONE && countOptionKinds(process.getArgv()) >= MIN_OPTION_KINDS) {
+            signal = Signal.ARGUMENTS;
+        }
+
+        metrics.increment(signal == Signal.NONE
+            ? MonitorMetrics.PREFILTER_DROPPED_NO_SIGNAL : MonitorMetrics.PREFILTER_CANDIDATES);
+        return signal;
+    }
+
+    private Signal findSignal(ProcEntry entry, Boolean libpqMapped) {
+        // comm - имя исполняемого файла (усечено ядром до 15 символов)
+        for (byte[] name : CLIENT_NAMES) {
+            if (entry.commEquals(name)) {
+                return Signal.CLIENT_NAME;
+            }
+        }
+
+        // argv[0]: полный путь из PG_DUMP_PATHS или basename клиента
+        int argv0End = entry.tokenEnd(0);
+        for (byte[] path : CLIENT_PATHS) {
+            if (regionEquals(entry.cmdline, 0, argv0End, path)) {
+                return Signal.CLIENT_PATH;
+            }
+        }
+        int base = argv0End;
+        while (base > 0 && entry.cmdline[base - 1] != '/') base--;
+        for (byte[] name : CLIENT_NAMES) {
+            if (regionEquals(entry.cmdline, base, argv0End, name)) {
+                return Signal.CLIENT_PATH;
+            }
+        }
+
+        // Переименованная копия клиента: поиск отпечатка бинарника по (dev, inode, size, mtime)
+        if (fingerprints != null && fingerprints.knownClientName(entry.pid) != null) {
+            return Signal.KNOWN_BINARY;
+        }
+
+        if (countOptionKinds(entry) >= MIN_OPTION_KINDS) {
+            return Signal.ARGUMENTS;
+        }
+
+        if (libpqMapped == null && libpqDetector != null) {
+            libpqMapped = libpqDetector.isLibpqMapped(entry);
+        }
+        if (Boolean.TRUE.equals(libpqMapped)) {
+            return Signal.LIBPQ;
+        }
+        return Signal.NONE;
+    }
+
+    /**
+     * Число различных опций подключения среди токенов argv (без argv[0])
+     */
+    static int countOptionKinds(ProcEntry entry) {
+        int seen = 0;
+        int start = entry.tokenEnd(0) + 1;
+        while (start < entry.cmdlineLength) {
+            int end = entry.tokenEnd(start);
+            seen |= PgArgvMatcher.optionBits(PgArgvMatcher.Grammar.PG_DUMP, entry.cmdline, start, end);
+            start = end + 1;
+        }
+        return Integer.bitCount(seen & CONNECTION_OPTIONS);
+    }
+
+    static int countOptionKinds(String[] tokens) {
+        int seen = 0;
+        for (String token : tokens) {
+            byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+            seen |= PgArgvMatcher.optionBits(PgArgvMatcher.Grammar.PG_DUMP, bytes, 0, bytes.length);
+        }
+        return Integer.bitCount(seen & CONNECTION_OPTIONS);
+    }
+
+    private static boolean regionEquals(byte[] buf, int from, int to, byte[] expected) {
+        if (to - from != expected.length) return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (buf[from + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    private static byte[][] toBytes(String[] values) {
+        byte[][] result = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+}
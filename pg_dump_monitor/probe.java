@@ -0,0 +1,262 @@
+package com.security.pgdump.monitor;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Смена доступности узла PostgreSQL между проверками
+ */
+interface ReachabilityListener {
+    void changed(ReachabilityProber.Target target, boolean up);
+}
+
+/**
+ * Проверка доступности узлов PostgreSQL (host:port) одним Selector: подключения ко всем
+ * целям открываются сразу в неблокирующем режиме, и вся проверка занимает не больше одного
+ * таймаута, сколько бы узлов ни было недоступно. Время установления подключения копится
+ * в гистограмме по каждой цели и экспортируется как гистограмма Prometheus в микросекундах:
+ * счетчики целочисленные, поэтому корзины, _sum и _count в одной единице
+ */
+class ReachabilityProber {
+    static final String CONNECT_MICROSECONDS = "pg_dump_monitor_probe_connect_microseconds";
+    static final String PROBE_FAILURES = "pg_dump_monitor_probe_failures_total";
+    // Верхние границы корзин гистограммы, микросекунды; последняя корзина - +Inf
+    static final long[] BUCKET_BOUNDS_MICROS = {
+        1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000
+    };
+
+    /**
+     * Цель проверки: состояние и гистограмма времени подключения
+     */
+    static final class Target {
+        final String label;
+        final InetSocketAddress address;
+        final long[] buckets = new long[BUCKET_BOUNDS_MICROS.length + 1];
+        long count;
+        long sumMicros;
+        long lastLatencyMicros = -1;
+        String lastFailure;
+        Boolean up; // null - еще не проверялась
+        long startedNanos;
+        private final String[] bucketNames;
+        private final String sumName;
+        private final String countName;
+        private final String failureName;
+
+        /**
+         * Все ряды цели регистрируются сразу с нулем: гистограмма полна и у цели,
+         * к которой еще ни разу не удалось подключиться
+         */
+        Target(String label, InetSocketAddress address, MonitorMetrics metrics) {
+            this.label = label;
+            this.address = address;
+            String labels = "target=\"" + label + "\"";
+            this.bucketNames = new String[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                String le = i < BUCKET_BOUNDS_MICROS.length
+                    ? String.valueOf(BUCKET_BOUNDS_MICROS[i]) : "+Inf";
+                bucketNames[i] = CONNECT_MICROSECONDS + "_bucket{" + labels + ",le=\"" + le + "\"}";
+            }
+            this.sumName = CONNECT_MICROSECONDS + "_sum{" + labels + "}";
+            this.countName = CONNECT_MICROSECONDS + "_count{" + labels + "}";
+            this.failureName = PROBE_FAILURES + "{" + labels + "}";
+            for (String name : seriesNames()) {
+                metrics.register(name);
+            }
+        }
+
+        void unregister(MonitorMetrics metrics) {
+            for (String name : seriesNames()) {
+                metrics.remove(name);
+            }
+        }
+
+        private List<String> seriesNames() {
+            List<String> names = new ArrayList<>(Arrays.asList(bucketNames));
+            names.add(sumName);
+            names.add(countName);
+            names.add(failureName);
+            return names;
+        }
+
+        public String getLabel() { return label; }
+        public boolean isUp() { return Boolean.TRUE.equals(up); }
+        public long getLastLatencyMicros() { return lastLatencyMicros; }
+        public String getLastFailure() { return lastFailure; }
+        public long getCount() { return count; }
+
+        public long getBucket(int i) { return buckets[i]; }
+
+        static int bucket(long micros) {
+            int i = 0;
+            while (i < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[i]) i++;
+            return i;
+        }
+    }
+
+    private final long timeoutMillis;
+    private final MonitorMetrics metrics;
+    private final ReachabilityListener listener;
+    private final Map<String, Target> targets = new LinkedHashMap<>();
+
+    public ReachabilityProber(MonitorMetrics metrics, ReachabilityListener listener) {
+        this(MonitorConfiguration.NETWORK_TIMEOUT, metrics, listener);
+    }
+
+    ReachabilityProber(long timeoutMillis, MonitorMetrics metrics, ReachabilityListener listener) {
+        this.timeoutMillis = timeoutMillis;
+        this.metrics = metrics;
+        this.listener = listener;
+    }
+
+    /**
+     * Проверка всех целей (метка -> адрес с портом). Цели, которых нет в наборе, забываются.
+     * Адреса должны быть уже разрешены: проверка не обращается к DNS
+     */
+    public synchronized void probe(Map<String, InetSocketAddress> addresses) {
+        Iterator<Target> known = targets.values().iterator();
+        while (known.hasNext()) {
+            Target target = known.next();
+            if (!addresses.containsKey(target.label)) {
+                // Ряды исчезнувшей цели больше не экспортируются
+                target.unregister(metrics);
+                known.remove();
+            }
+        }
+        List<Target> round = new ArrayList<>(addresses.size());
+        for (Map.Entry<String, InetSocketAddress> e : addresses.entrySet()) {
+            Target target = targets.get(e.getKey());
+            if (target == null || !target.address.equals(e.getValue())) {
+                // Новый адрес той же метки продолжает ее ряды
+                target = new Target(e.getKey(), e.getValue(), metrics);
+                targets.put(e.getKey(), target);
+            }
+            round.add(target);
+        }
+        if (round.isEmpty()) {
+            return;
+        }
+
+        Selector selector;
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            for (Target target : round) failed(target, "selector: " + e.getMessage());
+            return;
+        }
+        try {
+            int pending = 0;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            for (Target target : round) {
+                SocketChannel channel = null;
+                try {
+                    channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    target.startedNanos = System.nanoTime();
+                    if (channel.connect(target.address)) {
+                        connected(target);
+                        channel.close();
+                    } else {
+                        channel.register(selector, SelectionKey.OP_CONNECT, target);
+                        pending++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    close(channel);
+                    failed(target, e.getMessage());
+                }
+            }
+
+            while (pending > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    selector.select(remaining);
+                } catch (IOException e) {
+                    break;
+                }
+                Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+                while (ready.hasNext()) {
+                    SelectionKey key = ready.next();
+                    ready.remove();
+                    Target target = (Target) key.attachment();
+                    SocketChannel channel = (SocketChannel) key.channel();
+                    try {
+                        if (!channel.finishConnect()) {
+                            continue;
+                        }
+                        connected(target);
+                    } catch (IOException e) {
+                        failed(target, e.getMessage());
+                    }
+                    key.cancel();
+                    close(channel);
+                    pending--;
+                }
+            }
+
+            // Не ответившие за таймаут
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    failed((Target) key.attachment(), "timeout after " + timeoutMillis + " ms");
+                    close(key.channel());
+                }
+            }
+        } finally {
+            close(selector);
+        }
+    }
+
+    private void connected(Target target) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - target.startedNanos);
+        int bucket = Target.bucket(micros);
+        target.buckets[bucket]++;
+        target.count++;
+        target.sumMicros += micros;
+        target.lastLatencyMicros = micros;
+        target.lastFailure = null;
+        // Корзины гистограммы Prometheus кумулятивные
+        for (int i = bucket; i < target.buckets.length; i++) {
+            metrics.increment(target.bucketNames[i]);
+        }
+        metrics.add(target.sumName, micros);
+        metrics.increment(target.countName);
+        transition(target, true);
+    }
+
+    private void failed(Target target, String reason) {
+        target.lastFailure = reason;
+        metrics.increment(target.failureName);
+        transition(target, false);
+    }
+
+    private void transition(Target target, boolean up) {
+        Boolean previous = target.up;
+        target.up = up;
+        // Первая успешная проверка - не событие; недоступность сообщается и при первой проверке
+        if (previous == null ? !up : previous != up) {
+            listener.changed(target, up);
+        }
+    }
+
+    public synchronized Target get(String label) {
+        return targets.get(label);
+    }
+
+    public synchronized int size() {
+        return targets.size();
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Закрытие проверочного сокета
+        }
+    }
+}
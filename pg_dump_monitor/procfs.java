@@ -0,0 +1,424 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Сканер процессов через procfs (Linux)
+ * Читает /proc/[pid]/stat и /proc/[pid]/cmdline в переиспользуемые буферы,
+ * ProcessInfo создается только для процессов, прошедших фильтр
+ */
+class ProcfsProcessScanner {
+    static final Path DEFAULT_PROC_ROOT = Paths.get("/proc");
+
+    private static final int STAT_BUFFER_SIZE = 2048;
+    private static final int STATUS_BUFFER_SIZE = 1024; // Строка Uid: в начале файла
+    static final long CLOCK_TICKS_PER_SECOND = 100; // USER_HZ
+
+    private final Path procRoot;
+    private final String procPrefix;
+    private final byte[] statBuffer = new byte[STAT_BUFFER_SIZE];
+    private final byte[] statusBuffer = new byte[STATUS_BUFFER_SIZE];
+    private final UserNameCache userNames;
+    private final ProcEntry entry = new ProcEntry(MonitorConfiguration.MAX_CMDLINE_BYTES);
+    private long bootTimeMillis = -1;
+
+    /**
+     * Фильтр процессов: решение принимается по сырым данным из procfs
+     */
+    interface ProcessFilter {
+        boolean accept(ProcEntry entry);
+    }
+
+    /**
+     * Обработчик сырых данных процесса при обходе /proc
+     */
+    interface ProcessVisitor {
+        void visit(ProcEntry entry);
+    }
+
+    public ProcfsProcessScanner() {
+        this(DEFAULT_PROC_ROOT);
+    }
+
+    public ProcfsProcessScanner(Path procRoot) {
+        this(procRoot, new UserNameCache());
+    }
+
+    public ProcfsProcessScanner(Path procRoot, UserNameCache userNames) {
+        this.procRoot = procRoot;
+        this.procPrefix = procRoot.toString() + File.separator;
+        this.userNames = userNames;
+    }
+
+    /**
+     * Доступен ли procfs на этой системе
+     */
+    public boolean isAvailable() {
+        return Files.isReadable(procRoot.resolve("self").resolve("stat"));
+    }
+
+    /**
+     * Полный обход /proc. ProcessInfo строится только для процессов, принятых фильтром
+     */
+    public List<ProcessInfo> scan(ProcessFilter filter) {
+        List<ProcessInfo> processes = new ArrayList<>();
+        walk(e -> {
+            if (filter.accept(e)) {
+                processes.add(toProcessInfo(e));
+            }
+        });
+        return processes;
+    }
+
+    /**
+     * Полный обход /proc без создания объектов на процесс; entry переиспользуется
+     */
+    public void walk(ProcessVisitor visitor) {
+        String[] names = procRoot.toFile().list();
+        if (names == null) {
+            return;
+        }
+
+        for (String name : names) {
+            int pid = parsePid(name);
+            if (pid > 0 && readProcess(pid)) {
+                visitor.visit(entry);
+            }
+        }
+    }
+
+    /**
+     * Чтение одного процесса во внутренний буфер. Возвращает false, если процесс уже завершился
+     */
+    boolean readProcess(int pid) {
+        entry.reset(pid);
+        String base = procPrefix + pid + File.separator;
+
+        int statLength = readFile(base + "stat", statBuffer, statBuffer.length);
+        if (statLength <= 0 || !parseStat(statBuffer, statLength, entry)) {
+            return false;
+        }
+
+        entry.cmdlineLength = readFile(base + "cmdline", entry.cmdline, entry.cmdline.length);
+        if (entry.cmdlineLength < 0) {
+            return false;
+        }
+        // Чтение ограничено буфером: аргументы сверх него не читаются и не разбираются
+        entry.cmdlineTruncated = entry.cmdlineLength == entry.cmdline.length;
+        entry.countArguments();
+        return true;
+    }
+
+    /**
+     * Жив ли образ (pid, starttime). stat читается в собственный буфер, поэтому метод можно
+     * вызывать из любого потока. Зомби считается завершившимся: событие exit ядро отправляет
+     * уже после перехода процесса в это состояние
+     */
+    boolean isRunning(int pid, long startTicks) {
+        byte[] buf = new byte[STAT_BUFFER_SIZE];
+        int length = readFile(procPrefix + pid + File.separator + "stat", buf, buf.length);
+        ProcEntry e = new ProcEntry(0);
+        e.reset(pid);
+        return length > 0 && parseStat(buf, length, e) && !e.isExited() && e.startTicks == startTicks;
+    }
+
+    /**
+     * Последний прочитанный процесс (буфер переиспользуется при следующем чтении)
+     */
+    ProcEntry currentEntry() {
+        return entry;
+    }
+
+    /**
+     * Построение ProcessInfo из сырых данных процесса
+     */
+    ProcessInfo toProcessInfo(ProcEntry e) {
+        ProcessInfo info = new ProcessInfo();
+        info.setPid(String.valueOf(e.pid));
+        info.setPpid(e.ppid);
+        info.setStartTicks(e.startTicks);
+        info.setStartTime(java.time.Instant.ofEpochMilli(
+            getBootTimeMillis() + e.startTicks * 1000 / CLOCK_TICKS_PER_SECOND));
+
+        String[] argv = e.argv();
+        info.setCommand(resolveExecutable(e.pid, argv.length > 0 ? argv[0] : e.commString()));
+        info.setArgv(Arrays.copyOfRange(argv, Math.min(1, argv.length), argv.length));
+        info.setArguments(String.join(" ", info.getArgv()));
+        int uid = readUid(e.pid);
+        info.setUid(uid);
+        info.setUser(userNames.resolve(uid));
+        return info;
+    }
+
+    /**
+     * Эффективный uid из /proc/[pid]/status (строка "Uid: real effective saved fs"), -1 при ошибке
+     */
+    int readUid(int pid) {
+        int length = readFile(procPrefix + pid + File.separator + "status", statusBuffer, statusBuffer.length);
+        return length > 0 ? parseUid(statusBuffer, length) : -1;
+    }
+
+    static int parseUid(byte[] buf, int length) {
+        for (int i = 0; i + 4 < length; i++) {
+            if ((i == 0 || buf[i - 1] == '\n') && buf[i] == 'U' && buf[i + 1] == 'i' && buf[i + 2] == 'd' && buf[i + 3] == ':') {
+                int pos = i + 4;
+                // Пропускаем реальный uid, берем эффективный (как ps)
+                for (int field = 0; field < 2; field++) {
+                    while (pos < length && (buf[pos] == ' ' || buf[pos] == '\t')) pos++;
+                    int start = pos;
+                    while (pos < length && buf[pos] >= '0' && buf[pos] <= '9') pos++;
+                    if (field == 1 && pos > start) {
+                        return (int) parseLong(buf, start, pos);
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private String resolveExecutable(int pid, String fallback) {
+        try {
+            return Files.readSymbolicLink(procRoot.resolve(String.valueOf(pid)).resolve("exe")).toString();
+        } catch (Exception e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Время загрузки системы из /proc/stat (поле btime)
+     */
+    long getBootTimeMillis() {
+        if (bootTimeMillis < 0) {
+            bootTimeMillis = 0;
+            try (BufferedReader reader = Files.newBufferedReader(procRoot.resolve("stat"))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("btime ")) {
+                        bootTimeMillis = Long.parseLong(line.substring(6).trim()) * 1000;
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                // Без btime время старта считается от эпохи, ключ процесса остается корректным
+            }
+        }
+        return bootTimeMillis;
+    }
+
+    /**
+     * Разбор /proc/[pid]/stat: "pid (comm) state ppid ... utime stime ... starttime vsize rss"
+     * comm может содержать пробелы и скобки, поэтому ищем последнюю ')'
+     */
+    static boolean parseStat(byte[] buf, int length, ProcEntry e) {
+        int open = -1;
+        int close = -1;
+        for (int i = 0; i < length; i++) {
+            if (buf[i] == '(' && open < 0) open = i;
+            if (buf[i] == ')') close = i;
+        }
+        if (open < 0 || close < open) {
+            return false;
+        }
+
+        e.commLength = Math.min(close - open - 1, e.comm.length);
+        System.arraycopy(buf, open + 1, e.comm, 0, e.commLength);
+
+        // Поля после comm нумеруются с 3 (state)
+        int field = 3;
+        int i = close + 2;
+        while (i < length && field <= 24) {
+            int start = i;
+            while (i < length && buf[i] != ' ' && buf[i] != '\n') i++;
+            switch (field) {
+                case 3: e.state = (char) buf[start]; break;
+                case 4: e.ppid = (int) parseLong(buf, start, i); break;
+                case 14: e.utime = parseLong(buf, start, i); break;
+                case 15: e.stime = parseLong(buf, start, i); break;
+                case 22: e.startTicks = parseLong(buf, start, i); break;
+                case 23: e.vsize = parseLong(buf, start, i); break;
+                case 24: e.rssPages = parseLong(buf, start, i); break;
+                default: break;
+            }
+            field++;
+            i++;
+        }
+        return field > 22;
+    }
+
+    static long parseLong(byte[] buf, int from, int to) {
+        long value = 0;
+        boolean negative = false;
+        for (int i = from; i < to; i++) {
+            byte b = buf[i];
+            if (b == '-') {
+                negative = true;
+            } else if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    static int parsePid(String name) {
+        int pid = 0;
+        int length = name.length();
+        if (length == 0 || length > 9) return -1;
+        for (int i = 0; i < length; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            pid = pid * 10 + (c - '0');
+        }
+        return pid;
+    }
+
+    /**
+     * Чтение файла procfs в буфер без промежуточных копий
+     */
+    static int readFile(String path, byte[] buffer, int limit) {
+        try (FileInputStream in = new FileInputStream(path)) {
+            int total = 0;
+            int n;
+            while (total < limit && (n = in.read(buffer, total, limit - total)) > 0) {
+                total += n;
+            }
+            return total;
+        } catch (IOException e) {
+            // Процесс завершился или нет доступа
+            return -1;
+        }
+    }
+}
+
+/**
+ * Сырые данные процесса из procfs. Экземпляр переиспользуется сканером,
+ * argv хранится как NUL-разделенные токены в байтовом буфере
+ */
+class ProcEntry {
+    int pid;
+    int ppid;
+    char state;
+    long startTicks;
+    long utime;
+    long stime;
+    long vsize;
+    long rssPages;
+
+    final byte[] comm = new byte[64];
+    int commLength;
+
+    final byte[] cmdline;
+    int cmdlineLength;
+    boolean cmdlineTruncated;
+    int argc;
+
+    ProcEntry(int cmdlineCapacity) {
+        this.cmdline = new byte[cmdlineCapacity];
+    }
+
+    void reset(int pid) {
+        this.pid = pid;
+        this.ppid = 0;
+        this.state = '?';
+        this.startTicks = 0;
+        this.utime = 0;
+        this.stime = 0;
+        this.vsize = 0;
+        this.rssPages = 0;
+        this.commLength = 0;
+        this.cmdlineLength = 0;
+        this.cmdlineTruncated = false;
+        this.argc = 0;
+    }
+
+    void countArguments() {
+        // Завершающий NUL может отсутствовать, если процесс переписал свой argv
+        while (cmdlineLength > 0 && cmdline[cmdlineLength - 1] == 0) {
+            cmdlineLength--;
+        }
+        argc = cmdlineLength > 0 ? 1 : 0;
+        for (int i = 0; i < cmdlineLength; i++) {
+            if (cmdline[i] == 0) argc++;
+        }
+    }
+
+    /**
+     * Потоки ядра не имеют cmdline
+     */
+    boolean isKernelThread() {
+        return cmdlineLength == 0;
+    }
+
+    /**
+     * Процесс завершился, но еще не обработан родителем (зомби) или уже удаляется
+     */
+    boolean isExited() {
+        return state == 'Z' || state == 'X';
+    }
+
+    /**
+     * Начало i-го токена argv или -1
+     */
+    int tokenStart(int index) {
+        if (index >= argc) return -1;
+        int pos = 0;
+        for (int n = 0; n < index; n++) {
+            while (cmdline[pos] != 0) pos++;
+            pos++;
+        }
+        return pos;
+    }
+
+    int tokenEnd(int start) {
+        int pos = start;
+        while (pos < cmdlineLength && cmdline[pos] != 0) pos++;
+        return pos;
+    }
+
+    /**
+     * Содержит ли cmdline заданную последовательность байт
+     */
+    boolean cmdlineContains(byte[] needle) {
+        return indexOf(cmdline, cmdlineLength, needle) >= 0;
+    }
+
+    boolean commEquals(byte[] name) {
+        if (name.length != commLength) return false;
+        for (int i = 0; i < commLength; i++) {
+            if (comm[i] != name[i]) return false;
+        }
+        return true;
+    }
+
+    String commString() {
+        return new String(comm, 0, commLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Материализация argv (только для процессов, прошедших фильтр)
+     */
+    String[] argv() {
+        String[] result = new String[argc];
+        int start = 0;
+        for (int n = 0; n < argc; n++) {
+            int end = tokenEnd(start);
+            result[n] = new String(cmdline, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+        }
+        return result;
+    }
+
+    static int indexOf(byte[] haystack, int length, byte[] needle) {
+        outer:
+        for (int i = 0; i <= length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,165 @@
+package com.security.pgdump.monitor;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Ограниченная очередь событий exec/exit: кольцо int без объектов на событие.
+ * exec хранится как pid, exit - как -pid. При переполнении событие отбрасывается,
+ * а вызывающий запрашивает внеочередную сверку полным обходом /proc
+ */
+class ProcessEventQueue {
+    private final int[] ring;
+    private final int mask;
+    private long head; // следующее для чтения
+    private long tail; // следующее для записи
+
+    public ProcessEventQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new int[size];
+        this.mask = size - 1;
+    }
+
+    public synchronized boolean offerExec(int pid) {
+        return offer(pid);
+    }
+
+    public synchronized boolean offerExit(int pid) {
+        return offer(-pid);
+    }
+
+    private boolean offer(int event) {
+        if (tail - head == ring.length) {
+            return false;
+        }
+        ring[(int) (tail++ & mask)] = event;
+        return true;
+    }
+
+    /**
+     * Следующее событие или 0, если очередь пуста
+     */
+    public synchronized int poll() {
+        if (head == tail) {
+            return 0;
+        }
+        return ring[(int) (head++ & mask)];
+    }
+
+    public synchronized int size() {
+        return (int) (tail - head);
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+}
+
+/**
+ * Кандидаты первого этапа, ожидающие дорогого анализа (netstat/lsof). Выдаются по
+ * приоритету сигнала: совпадение отпечатка и имени клиента и новое подключение
+ * к PostgreSQL раньше аргументов и libpq, так что шторм процессов с низким
+ * приоритетом не задерживает настоящий pg_dump. Очередь ограничена: при
+ * переполнении вытесняется самый старый кандидат с наименьшим приоритетом
+ */
+class CandidateQueue {
+    private static final ProcessPreFilter.Signal[] PRIORITY = {
+        ProcessPreFilter.Signal.KNOWN_BINARY,
+        ProcessPreFilter.Signal.CLIENT_NAME,
+        ProcessPreFilter.Signal.CLIENT_PATH,
+        ProcessPreFilter.Signal.CONNECTION,
+        ProcessPreFilter.Signal.ARGUMENTS,
+        ProcessPreFilter.Signal.LIBPQ
+    };
+
+    private final ArrayDeque<ProcessInfo>[] buckets;
+    private final int capacity;
+    private int size;
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public CandidateQueue(int capacity) {
+        this.capacity = capacity;
+        this.buckets = new ArrayDeque[ProcessPreFilter.Signal.values().length];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Постановка кандидата в очередь. Возвращает вытесненного кандидата (возможно, самого
+     * добавляемого, если его приоритет наименьший) или null
+     */
+    public synchronized ProcessInfo add(ProcessInfo process) {
+        ProcessPreFilter.Signal signal = process.getCandidateSignal();
+        if (signal == null || signal == ProcessPreFilter.Signal.NONE) {
+            return null;
+        }
+        if (size == capacity) {
+            int lowest = lowestRank();
+            if (rank(signal) >= lowest) {
+                return process;
+            }
+            ProcessInfo evicted = buckets[PRIORITY[lowest].ordinal()].pollFirst();
+            buckets[signal.ordinal()].addLast(process);
+            return evicted;
+        }
+        buckets[signal.ordinal()].addLast(process);
+        size++;
+        return null;
+    }
+
+    private int lowestRank() {
+        for (int i = PRIORITY.length - 1; i >= 0; i--) {
+            if (!buckets[PRIORITY[i].ordinal()].isEmpty()) {
+                return i;
+            }
+        }
+        return PRIORITY.length;
+    }
+
+    /**
+     * Место сигнала в порядке приоритета: 0 - наивысший
+     */
+    static int rank(ProcessPreFilter.Signal signal) {
+        for (int i = 0; i < PRIORITY.length; i++) {
+            if (PRIORITY[i] == signal) return i;
+        }
+        return PRIORITY.length;
+    }
+
+    /**
+     * Кандидат с наибольшим приоритетом или null
+     */
+    public synchronized ProcessInfo poll() {
+        for (ProcessPreFilter.Signal signal : PRIORITY) {
+            ProcessInfo process = buckets[signal.ordinal()].pollFirst();
+            if (process != null) {
+                size--;
+                return process;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Анализ кандидатов по приоритету в пределах бюджета времени; хотя бы один кандидат
+     * обрабатывается всегда. Остаток ждет следующего вызова. Возвращает число обработанных
+     */
+    public int drain(long budgetNanos, Consumer<ProcessInfo> analyzer) {
+        long deadline = System.nanoTime() + budgetNanos;
+        int processed = 0;
+        ProcessInfo process;
+        while ((process = poll()) != null) {
+            analyzer.accept(process);
+            processed++;
+            if (System.nanoTime() - deadline >= 0) {
+                break;
+            }
+        }
+        return processed;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,186 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Потребление CPU и памяти кандидатом. Один изменяемый экземпляр на процесс,
+ * обновляется на месте при каждом замере
+ */
+final class ResourceUsage {
+    // Открытые stat и statm процесса: повторное чтение с начала без открытия файла
+    RandomAccessFile statFile;
+    RandomAccessFile statmFile;
+    private long lastCpuTicks = -1;
+    private long lastSampleMillis;
+    private long initialRssBytes = -1;
+    private volatile double cpuPercent;
+    private volatile long rssBytes;
+    private volatile long rssGrowthBytes;
+
+    /**
+     * Новый замер: CPU% считается по приросту utime + stime с прошлого замера (100% - одно ядро),
+     * рост памяти - относительно первого замера
+     */
+    void update(long cpuTicks, long rssBytes, long nowMillis) {
+        if (lastCpuTicks >= 0 && nowMillis > lastSampleMillis) {
+            long cpuMillis = (cpuTicks - lastCpuTicks) * 1000 / ProcfsProcessScanner.CLOCK_TICKS_PER_SECOND;
+            cpuPercent = Math.max(0, cpuMillis * 100.0 / (nowMillis - lastSampleMillis));
+        }
+        if (initialRssBytes < 0) {
+            initialRssBytes = rssBytes;
+        }
+        lastCpuTicks = cpuTicks;
+        lastSampleMillis = nowMillis;
+        this.rssBytes = rssBytes;
+        this.rssGrowthBytes = rssBytes - initialRssBytes;
+    }
+
+    public double getCpuPercent() { return cpuPercent; }
+    public long getRssBytes() { return rssBytes; }
+    public long getRssGrowthBytes() { return rssGrowthBytes; }
+
+    /**
+     * Высокая нагрузка: сжатие дампа загружает ядро, выгрузка каталога большой базы раздувает память
+     */
+    public boolean isHigh() {
+        return cpuPercent >= MonitorConfiguration.HIGH_CPU_PERCENT
+            || rssGrowthBytes >= MonitorConfiguration.HIGH_RSS_GROWTH;
+    }
+
+    /**
+     * Закрытие дескрипторов, когда процесс перестал быть кандидатом
+     */
+    synchronized void close() {
+        closeQuietly(statFile);
+        closeQuietly(statmFile);
+        statFile = null;
+        statmFile = null;
+    }
+
+    private static void closeQuietly(Closeable file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // Дескриптор уже недействителен
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResourceUsage{cpu=%.1f%%, rss=%d, growth=%d}", cpuPercent, rssBytes, rssGrowthBytes);
+    }
+}
+
+/**
+ * Замер /proc/[pid]/stat (utime, stime) и /proc/[pid]/statm (resident) для всех кандидатов
+ * за один проход цикла. Файлы открываются один раз на кандидата и перечитываются с начала,
+ * буферы и ProcEntry переиспользуются, время замера берется один раз на проход,
+ * так что повторный замер не создает объектов. После завершения процесса чтение
+ * открытого дескриптора завершается ошибкой, поэтому переиспользованный pid не замеряется
+ */
+class ProcessResourceSampler {
+    static final long PAGE_SIZE = 4096;
+
+    private static final int STAT_BUFFER_SIZE = 2048;
+    private static final int STATM_BUFFER_SIZE = 128;
+
+    private final String procPrefix;
+    private final byte[] statBuffer = new byte[STAT_BUFFER_SIZE];
+    private final byte[] statmBuffer = new byte[STATM_BUFFER_SIZE];
+    private final ProcEntry entry = new ProcEntry(0);
+
+    public ProcessResourceSampler() {
+        this(ProcfsProcessScanner.DEFAULT_PROC_ROOT);
+    }
+
+    ProcessResourceSampler(Path procRoot) {
+        this.procPrefix = procRoot.toString() + File.separator;
+    }
+
+    /**
+     * Замер всех кандидатов. Возвращает число успешно замеренных процессов
+     */
+    public int sampleAll(Collection<ProcessInfo> candidates) {
+        return sampleAll(candidates, System.currentTimeMillis());
+    }
+
+    synchronized int sampleAll(Collection<ProcessInfo> candidates, long nowMillis) {
+        int sampled = 0;
+        for (ProcessInfo process : candidates) {
+            if (sample(process, nowMillis)) {
+                sampled++;
+            }
+        }
+        return sampled;
+    }
+
+    private boolean sample(ProcessInfo process, long nowMillis) {
+        int pid = process.getPidNumber();
+        ResourceUsage usage = process.getResourceUsage();
+        if (pid <= 0) {
+            return false;
+        }
+
+        synchronized (usage) {
+            try {
+                if (usage.statFile == null) {
+                    String dir = procPrefix + pid + File.separator;
+                    usage.statFile = new RandomAccessFile(dir + "stat", "r");
+                    usage.statmFile = new RandomAccessFile(dir + "statm", "r");
+                }
+
+                int length = reread(usage.statFile, statBuffer);
+                entry.reset(pid);
+                if (length <= 0 || !ProcfsProcessScanner.parseStat(statBuffer, length, entry)) {
+                    return false;
+                }
+                // pid мог достаться новому процессу до первого открытия
+                if (process.getStartTicks() > 0 && entry.startTicks != process.getStartTicks()) {
+                    usage.close();
+                    return false;
+                }
+
+                length = reread(usage.statmFile, statmBuffer);
+                long residentPages = length > 0 ? parseStatmResident(statmBuffer, length) : entry.rssPages;
+                usage.update(entry.utime + entry.stime, residentPages * PAGE_SIZE, nowMillis);
+                return true;
+            } catch (IOException e) {
+                // Процесс завершился или нет доступа
+                usage.close();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Процесс больше не кандидат: закрываем его файлы
+     */
+    public void release(ProcessInfo process) {
+        process.getResourceUsage().close();
+    }
+
+    private static int reread(RandomAccessFile file, byte[] buffer) throws IOException {
+        file.seek(0);
+        int total = 0;
+        int n;
+        while (total < buffer.length && (n = file.read(buffer, total, buffer.length - total)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Второе поле statm: "size resident shared text lib data dt" в страницах
+     */
+    static long parseStatmResident(byte[] buf, int length) {
+        int i = 0;
+        while (i < length && buf[i] != ' ') i++;
+        int start = ++i;
+        while (i < length && buf[i] != ' ' && buf[i] != '\n') i++;
+        return start < i ? ProcfsProcessScanner.parseLong(buf, start, i) : 0;
+    }
+}
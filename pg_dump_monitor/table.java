@@ -0,0 +1,417 @@
+package com.security.pgdump.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Таблица известных процессов с открытой адресацией по упакованному ключу (pid, starttime).
+ * Горячие поля хранятся в параллельных массивах (struct-of-arrays), ProcessInfo -
+ * только у кандидатов первого этапа; для остальных процессов хоста запись занимает
+ * несколько байт без объектов. Таблица разбита на сегменты со своими блокировками,
+ * чтобы воркеры обхода /proc вставляли записи без глобальной блокировки.
+ * Завершившиеся процессы находятся по поколению: каждый скан отмечает увиденные записи,
+ * сегменты без пропущенных записей при очистке не просматриваются. Обработчики удаления
+ * вызываются после снятия блокировки сегмента: оценка завершившегося кандидата не держит
+ * вставки воркеров обхода
+ */
+class ProcessTable {
+    // pid_max в Linux не больше 2^22, starttime в тиках USER_HZ занимает оставшиеся 42 бита
+    static final int TICKS_BITS = 42;
+    static final long TICKS_MASK = (1L << TICKS_BITS) - 1;
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int INITIAL_SEGMENT_CAPACITY = 256;
+    private static final long EMPTY = 0L; // pid 0 не встречается в /proc
+    private static final byte NO_SIGNAL = -1;
+    private static final ProcessPreFilter.Signal[] SIGNALS = ProcessPreFilter.Signal.values();
+
+    /**
+     * Обработчик удаляемых записей
+     */
+    interface RemovalListener {
+        void removed(long key, ProcessInfo info);
+    }
+
+    /**
+     * Записи, удаленные под блокировкой сегмента, для уведомления обработчика после нее
+     */
+    private static final class Removed {
+        long[] keys;
+        ProcessInfo[] infos;
+        int count;
+
+        Removed(int capacity) {
+            keys = new long[Math.max(1, capacity)];
+            infos = new ProcessInfo[keys.length];
+        }
+
+        void add(long key, ProcessInfo info) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                infos = Arrays.copyOf(infos, count * 2);
+            }
+            keys[count] = key;
+            infos[count++] = info;
+        }
+
+        int notify(RemovalListener listener) {
+            if (listener != null) {
+                for (int i = 0; i < count; i++) {
+                    listener.removed(keys[i], infos[i]);
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Условие удаления по ключу
+     */
+    interface KeyPredicate {
+        boolean test(long key);
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public ProcessTable() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(INITIAL_SEGMENT_CAPACITY);
+        }
+    }
+
+    static long key(int pid, long startTicks) {
+        return ((long) pid << TICKS_BITS) | (startTicks & TICKS_MASK);
+    }
+
+    static int pid(long key) {
+        return (int) (key >>> TICKS_BITS);
+    }
+
+    static long startTicks(long key) {
+        return key & TICKS_MASK;
+    }
+
+    public boolean contains(long key) {
+        return segmentFor(key).indexOf(key) >= 0;
+    }
+
+    /**
+     * Решение первого этапа для процесса или null, если процесс неизвестен (или еще не оценен)
+     */
+    public ProcessPreFilter.Signal getSignal(long key) {
+        return segmentFor(key).signal(key);
+    }
+
+    /**
+     * ProcessInfo кандидата или null
+     */
+    public ProcessInfo getInfo(long key) {
+        return segmentFor(key).info(key);
+    }
+
+    /**
+     * Вставка новой записи. Возвращает false, если ключ уже есть (например, его принесло событие exec)
+     */
+    public boolean putIfAbsent(long key, ProcessPreFilter.Signal signal, ProcessInfo info) {
+        return segmentFor(key).put(key, signal, info, false);
+    }
+
+    /**
+     * Вставка или замена записи (новый образ после exec, результат анализа)
+     */
+    public void put(long key, ProcessPreFilter.Signal signal, ProcessInfo info) {
+        segmentFor(key).put(key, signal, info, true);
+    }
+
+    public boolean remove(long key) {
+        return segmentFor(key).remove(key, null);
+    }
+
+    /**
+     * Удаление по событию exit с уведомлением обработчика после снятия блокировки сегмента
+     */
+    public boolean remove(long key, RemovalListener listener) {
+        Removed removed = new Removed(1);
+        if (!segmentFor(key).remove(key, removed)) {
+            return false;
+        }
+        removed.notify(listener);
+        return true;
+    }
+
+    /**
+     * Начало нового поколения (скана). Записи, вставленные или замененные после этого,
+     * считаются отмеченными
+     */
+    public void startGeneration() {
+        for (Segment segment : segments) {
+            segment.startGeneration();
+        }
+    }
+
+    /**
+     * Отметка живого процесса в текущем поколении. Возвращает false, если ключа нет
+     */
+    public boolean mark(long key) {
+        return segmentFor(key).mark(key);
+    }
+
+    /**
+     * Удаление записей, не отмеченных в текущем поколении. Сегмент, где отмечены все записи,
+     * пропускается без просмотра слотов и без выделения памяти. Обработчик вызывается
+     * после снятия блокировки сегмента. Возвращает число удаленных записей
+     */
+    public int sweep(RemovalListener listener) {
+        int removed = 0;
+        for (Segment segment : segments) {
+            Removed batch = segment.sweep();
+            if (batch != null) {
+                removed += batch.notify(listener);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Удаление всех записей, удовлетворяющих условию, с уведомлением обработчика.
+     * Обработчик вызывается после снятия блокировки сегмента
+     */
+    public void removeIf(KeyPredicate predicate, RemovalListener listener) {
+        for (Segment segment : segments) {
+            segment.removeIf(predicate).notify(listener);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Емкость всех сегментов в слотах (для оценки памяти)
+     */
+    int capacity() {
+        int capacity = 0;
+        for (Segment segment : segments) {
+            capacity += segment.capacity();
+        }
+        return capacity;
+    }
+
+    private Segment segmentFor(long key) {
+        return segments[(int) (mix(key) >>> (64 - SEGMENT_BITS))];
+    }
+
+    static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Сегмент: линейное пробирование, удаление со сдвигом назад (без надгробий)
+     */
+    private static final class Segment {
+        private long[] keys;
+        private byte[] signals;
+        private ProcessInfo[] infos;
+        private int[] stamps;
+        private int size;
+        private int generation;
+        private int marked; // записей с отметкой текущего поколения
+
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            signals = new byte[capacity];
+            infos = new ProcessInfo[capacity];
+            stamps = new int[capacity];
+        }
+
+        private int slot(long key) {
+            return (int) mix(key) & (keys.length - 1);
+        }
+
+        synchronized int indexOf(long key) {
+            int mask = keys.length - 1;
+            for (int i = slot(key); ; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) return i;
+                if (k == EMPTY) return -1;
+            }
+        }
+
+        synchronized ProcessPreFilter.Signal signal(long key) {
+            int i = indexOf(key);
+            return i < 0 || signals[i] == NO_SIGNAL ? null : SIGNALS[signals[i]];
+        }
+
+        synchronized ProcessInfo info(long key) {
+            int i = indexOf(key);
+            return i < 0 ? null : infos[i];
+        }
+
+        synchronized boolean put(long key, ProcessPreFilter.Signal signal, ProcessInfo info, boolean replace) {
+            int mask = keys.length - 1;
+            int i = slot(key);
+            while (keys[i] != EMPTY) {
+                if (keys[i] == key) {
+                    if (replace) {
+                        signals[i] = signal != null ? (byte) signal.ordinal() : NO_SIGNAL;
+                        infos[i] = info;
+                        stamp(i);
+                    }
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+
+            keys[i] = key;
+            signals[i] = signal != null ? (byte) signal.ordinal() : NO_SIGNAL;
+            infos[i] = info;
+            stamps[i] = generation;
+            marked++;
+            if (++size * 10 > keys.length * 6) {
+                resize(keys.length * 2);
+            }
+            return true;
+        }
+
+        synchronized boolean remove(long key, Removed out) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return false;
+            }
+            if (out != null) {
+                out.add(key, infos[i]);
+            }
+            deleteAt(i);
+            return true;
+        }
+
+        synchronized void startGeneration() {
+            generation++;
+            marked = 0;
+        }
+
+        synchronized boolean mark(long key) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return false;
+            }
+            stamp(i);
+            return true;
+        }
+
+        private void stamp(int i) {
+            if (stamps[i] != generation) {
+                stamps[i] = generation;
+                marked++;
+            }
+        }
+
+        /**
+         * Удаленные записи или null, если все записи отмечены
+         */
+        synchronized Removed sweep() {
+            int stale = size - marked;
+            if (stale == 0) {
+                return null;
+            }
+            Removed removed = new Removed(stale);
+            int i = 0;
+            // Просмотр заканчивается на последней неотмеченной записи
+            while (removed.count < stale && i < keys.length) {
+                long key = keys[i];
+                if (key != EMPTY && stamps[i] != generation) {
+                    removed.add(key, infos[i]);
+                    deleteAt(i);
+                    continue;
+                }
+                i++;
+            }
+            return removed;
+        }
+
+        synchronized Removed removeIf(KeyPredicate predicate) {
+            Removed removed = new Removed(4);
+            int i = 0;
+            while (i < keys.length) {
+                long key = keys[i];
+                if (key != EMPTY && predicate.test(key)) {
+                    removed.add(key, infos[i]);
+                    deleteAt(i);
+                    // В слот i мог сдвинуться следующий элемент цепочки - проверяем его снова
+                    continue;
+                }
+                i++;
+            }
+            return removed;
+        }
+
+        /**
+         * Удаление со сдвигом: элементы цепочки за освободившимся слотом переносятся назад,
+         * если их исходная позиция не лежит между освободившимся слотом и текущим
+         */
+        private void deleteAt(int hole) {
+            if (stamps[hole] == generation) {
+                marked--;
+            }
+            int mask = keys.length - 1;
+            int i = hole;
+            while (true) {
+                i = (i + 1) & mask;
+                long key = keys[i];
+                if (key == EMPTY) {
+                    break;
+                }
+                int home = slot(key);
+                boolean movable = hole <= i ? (home <= hole || home > i) : (home <= hole && home > i);
+                if (movable) {
+                    keys[hole] = key;
+                    signals[hole] = signals[i];
+                    infos[hole] = infos[i];
+                    stamps[hole] = stamps[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = EMPTY;
+            signals[hole] = NO_SIGNAL;
+            infos[hole] = null;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            byte[] oldSignals = signals;
+            ProcessInfo[] oldInfos = infos;
+            int[] oldStamps = stamps;
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                long key = oldKeys[j];
+                if (key != EMPTY) {
+                    int i = slot(key);
+                    while (keys[i] != EMPTY) i = (i + 1) & mask;
+                    keys[i] = key;
+                    signals[i] = oldSignals[j];
+                    infos[i] = oldInfos[j];
+                    stamps[i] = oldStamps[j];
+                }
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized int capacity() {
+            return keys.length;
+        }
+    }
+}
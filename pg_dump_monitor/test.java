@@ -6,6 +6,7 @@ import org.mockito.Mockito;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
@@ -82,6 +83,7 @@ class PgDumpProcessMonitorTest {
         ProcessInfo process = new ProcessInfo();
         process.setCommand("/usr/bin/pg_dump");
         process.setArguments("--host=10.0.1.10 --port=5432 --username=admin --dbname=production -F custom --file=/tmp/dump.dump");
+        process.setArgv(process.getArguments().split(" "));
         
         monitor.analyzeProcessBehavior(process);
         
@@ -187,7 +189,7 @@ class PgDumpProcessMonitorTest {
     // Тест интеграции всех компонентов
     @Test
     void testIntegratedDetection() {
-        AdvancedPgDumpDetector detector = new AdvancedPgDumpDetector();
+        AdvancedPgDumpDetector detector = monitor.createDetector();
         ProcessInfo process = createSuspiciousProcess();
         
         DetectionResult result = detector.analyzeProcess(process);
@@ -216,6 +218,7 @@ class PgDumpProcessMonitorTest {
         process.setPid("12345");
         process.setCommand("/usr/bin/pg_dump");
         process.setArguments("--host=10.0.1.10 --port=5432 --username=admin --dbname=production -F custom --file=/tmp/dump.dump");
+        process.setArgv(process.getArguments().split(" "));
         process.setStartTime(Instant.now());
         process.setUser("postgres");
         
@@ -324,3 +327,1435 @@ class ProcessInfoTest {
         assertEquals(1, process.getOutputFiles().size());
     }
 }
+
+class ProcfsProcessScannerTest {
+    
+    @Test
+    void testParseStatWithSpacesInComm() {
+        byte[] stat = "4242 (my (odd) proc) S 1 4242 4242 0 -1 4194560 100 0 0 0 150 30 0 0 20 0 1 0 98765 104857600 2560 0\n"
+            .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        ProcEntry entry = new ProcEntry(1024);
+        entry.reset(4242);
+        
+        assertTrue(ProcfsProcessScanner.parseStat(stat, stat.length, entry));
+        assertEquals("my (odd) proc", entry.commString());
+        assertEquals(1, entry.ppid);
+        assertEquals(150, entry.utime);
+        assertEquals(30, entry.stime);
+        assertEquals(98765, entry.startTicks);
+        assertEquals(2560, entry.rssPages);
+    }
+    
+    @Test
+    void testScanBuildsProcessInfoOnlyForFilteredProcesses() throws Exception {
+        java.nio.file.Path root = SyntheticProcfs.create(300);
+        try {
+            ProcfsProcessScanner scanner = new ProcfsProcessScanner(root);
+            byte[] pgDump = "pg_dump".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            
+            List<ProcessInfo> processes = scanner.scan(entry -> entry.cmdlineContains(pgDump));
+            
+            assertEquals(3, processes.size(), "Only pg_dump processes should be materialized");
+            ProcessInfo first = processes.stream()
+                .filter(p -> p.getPid().equals("100")).findFirst().orElseThrow();
+            assertEquals("/usr/pgsql-16/bin/pg_dump", first.getCommand());
+            assertTrue(first.getArguments().startsWith("-h 10.0.1.10 -p 5432"));
+            assertEquals(1100, first.getStartTicks());
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+    
+    @Test
+    void testExitedProcessIsNotRunning() throws Exception {
+        java.nio.file.Path root = SyntheticProcfs.create(2);
+        try {
+            // Событие exit приходит, когда процесс уже зомби, но /proc/[pid] еще существует
+            java.nio.file.Files.write(root.resolve("2").resolve("stat"), SyntheticProcfs.stat(2, "pg_dump", 1, 1002)
+                .replace(") S ", ") Z ").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            ProcfsProcessScanner scanner = new ProcfsProcessScanner(root);
+            
+            assertTrue(scanner.isRunning(1, 1001));
+            assertFalse(scanner.isRunning(1, 5000), "Reused pid is another process image");
+            assertFalse(scanner.isRunning(2, 1002), "Zombie has already exited");
+            assertFalse(scanner.isRunning(3, 1003), "No /proc entry");
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+}
+
+/**
+ * Источник событий для тестов: события генерируются вручную
+ */
+class FakeProcessEventSource implements ProcessEventSource {
+    private volatile ProcessEventListener listener;
+    
+    @Override
+    public String getName() { return "fake"; }
+    
+    @Override
+    public boolean start(ProcessEventListener listener) {
+        this.listener = listener;
+        return true;
+    }
+    
+    @Override
+    public boolean isActive() { return listener != null; }
+    
+    @Override
+    public void stop() { listener = null; }
+    
+    void emitExec(int pid) { listener.onExec(pid); }
+    
+    void emitExit(int pid) { listener.onExit(pid); }
+}
+
+class ProcessEventSourceTest {
+    
+    @Test
+    void testForkstatLinesAreDispatched() {
+        List<String> events = new ArrayList<>();
+        ProcessEventListener listener = new ProcessEventListener() {
+            public void onExec(int pid) { events.add("exec " + pid); }
+            public void onExit(int pid) { events.add("exit " + pid); }
+        };
+        
+        String output = "Time     Event     PID Info   Duration Process\n" +
+                        "13:03:27 exec    12345                  /usr/bin/pg_dump -h 10.0.1.10\n" +
+                        "13:03:28 exit    12345      0    0.812s /usr/bin/pg_dump -h 10.0.1.10\n";
+        new NetlinkProcessEventSource().readEvents(
+            new java.io.ByteArrayInputStream(output.getBytes()), listener);
+        
+        assertEquals(Arrays.asList("exec 12345", "exit 12345"), events);
+    }
+    
+    @Test
+    void testExecEventAnalyzesProcessImmediately() throws Exception {
+        Assumptions.assumeTrue(new ProcfsProcessScanner().isAvailable(), "procfs required");
+        
+        // Монитор не запущен: полный скан не вмешивается в обработку событий
+        PgDumpProcessMonitor monitor = new PgDumpProcessMonitor(new FakeProcessEventSource());
+        Process child = new ProcessBuilder("sh", "-c", "sleep 5; true", "-h", "10.0.1.10", "-p", "5432").start();
+        try {
+            int pid = (int) child.pid();
+            
+            monitor.handleProcessExec(pid);
+            monitor.drainProcessEvents();
+            assertTrue(monitor.isCandidate(pid), "Exec event should be analyzed without waiting for a scan");
+            
+            monitor.handleProcessExit(pid);
+            assertFalse(monitor.isCandidate(pid), "Exit event should drop the candidate");
+        } finally {
+            child.destroy();
+        }
+    }
+}
+
+class ProcessPreFilterTest {
+    
+    private final MonitorMetrics metrics = new MonitorMetrics();
+    private final ProcessPreFilter preFilter = new ProcessPreFilter(metrics);
+    
+    @Test
+    void testClientNamePathsAndArgumentsAreCandidates() {
+        assertEquals(ProcessPreFilter.Signal.CLIENT_NAME,
+            preFilter.evaluate(entry("pg_dump", "pg_dump", "prod_db"), null));
+        assertEquals(ProcessPreFilter.Signal.CLIENT_PATH,
+            preFilter.evaluate(entry("backup", "/usr/pgsql-16/bin/pg_dump", "prod_db"), null));
+        assertEquals(ProcessPreFilter.Signal.ARGUMENTS,
+            preFilter.evaluate(entry("dumper", "/opt/tools/dumper", "--host=10.0.1.10", "-U", "admin"), null));
+        assertEquals(ProcessPreFilter.Signal.LIBPQ,
+            preFilter.evaluate(entry("python3", "/usr/bin/python3", "export.py"), Boolean.TRUE));
+        // Опции по таблице PgArgvMatcher: сокращения и группы коротких опций
+        assertEquals(ProcessPreFilter.Signal.ARGUMENTS,
+            preFilter.evaluate(entry("dumper", "/opt/tools/dumper", "--ho", "10.0.1.10", "-vU", "admin"), null));
+    }
+    
+    @Test
+    void testOrdinaryProcessesAreDroppedAndCounted() {
+        assertEquals(ProcessPreFilter.Signal.NONE,
+            preFilter.evaluate(entry("ssh", "/usr/bin/ssh", "-p", "22", "backup-host"), null));
+        assertEquals(ProcessPreFilter.Signal.NONE, preFilter.evaluate(entry("kworker/0:1"), null));
+        
+        assertEquals(2, metrics.get(MonitorMetrics.PREFILTER_SEEN));
+        assertEquals(1, metrics.get(MonitorMetrics.PREFILTER_DROPPED_NO_SIGNAL));
+        assertEquals(1, metrics.get(MonitorMetrics.PREFILTER_DROPPED_KERNEL_THREAD));
+        assertTrue(metrics.toPrometheus("db1", 0L)
+            .contains("pg_dump_monitor_prefilter_dropped_total{host=\"db1\",stage=\"kernel_thread\"} 1 0"));
+    }
+    
+    static ProcEntry entry(String comm, String... argv) {
+        ProcEntry entry = new ProcEntry(4096);
+        entry.reset(100);
+        byte[] name = comm.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        System.arraycopy(name, 0, entry.comm, 0, name.length);
+        entry.commLength = name.length;
+        for (String arg : argv) {
+            byte[] bytes = arg.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, entry.cmdline, entry.cmdlineLength, bytes.length);
+            entry.cmdlineLength += bytes.length + 1;
+        }
+        entry.countArguments();
+        return entry;
+    }
+}
+
+class ExecutableFingerprintCacheTest {
+    
+    @Test
+    void testRenamedClientBinaryIsRecognized() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("fingerprint");
+        java.nio.file.Path client = java.nio.file.Files.copy(java.nio.file.Paths.get("/bin/sleep"), dir.resolve("pg_dump"));
+        java.nio.file.Path renamed = java.nio.file.Files.copy(client, dir.resolve("backup_tool"));
+        java.nio.file.Path other = java.nio.file.Files.copy(java.nio.file.Paths.get("/bin/ls"), dir.resolve("ls"));
+        
+        java.nio.file.Path procRoot = dir.resolve("proc");
+        java.nio.file.Files.createDirectories(procRoot.resolve("42"));
+        java.nio.file.Files.createSymbolicLink(procRoot.resolve("42").resolve("exe"), renamed);
+        java.nio.file.Files.createDirectories(procRoot.resolve("43"));
+        java.nio.file.Files.createSymbolicLink(procRoot.resolve("43").resolve("exe"), other);
+        
+        try {
+            ExecutableFingerprintCache cache = new ExecutableFingerprintCache(procRoot, 16);
+            cache.registerKnownClient(client);
+            
+            assertEquals("pg_dump", cache.knownClientName(42), "Copy of pg_dump should match by hash");
+            assertNull(cache.knownClientName(43), "Unrelated binary should not match");
+            assertNull(cache.knownClientName(44), "Missing process should not match");
+            
+            // Повторный поиск обслуживается из кэша по (dev, inode, size, mtime)
+            assertSame(cache.lookup(42), cache.lookup(42));
+            assertEquals(2, cache.size());
+            
+            ProcessInfo process = new ProcessInfo();
+            process.setCommand(renamed.toString());
+            process.setKnownClientName(cache.knownClientName(42));
+            assertTrue(process.isRenamedPgClient());
+            
+            process.setCommand(client.toString());
+            assertFalse(process.isRenamedPgClient(), "Client under its own name is not renamed");
+        } finally {
+            SyntheticProcfs.delete(dir);
+        }
+    }
+}
+
+class PgArgvMatcherTest {
+    
+    @Test
+    void testLongEqualsAndClusteredShortOptions() {
+        PgArgvMatcher.Match match = PgArgvMatcher.match("/usr/bin/pg_dump",
+            "--host=10.0.1.10 --port=5432 -Uadmin -Fc -vf /tmp/prod.dump prod_db".split(" "));
+        
+        assertEquals("10.0.1.10", match.getHost());
+        assertEquals("5432", match.getPort());
+        assertEquals("admin", match.getUsername());
+        assertEquals("c", match.getFormat());
+        assertEquals("/tmp/prod.dump", match.getFile());
+        assertEquals("prod_db", match.getDbname(), "Positional argument is the database name");
+        assertEquals(6, match.score());
+    }
+    
+    @Test
+    void testAbbreviatedOptionsAndConnectionString() {
+        PgArgvMatcher.Match match = PgArgvMatcher.match("/opt/tools/exporter",
+            "--ho 10.0.1.10 --dbname=postgresql://backup@10.0.1.10:6432/prod_db -s".split(" "));
+        
+        assertEquals("10.0.1.10", match.getHost(), "Unambiguous prefix should match like getopt_long");
+        assertEquals("6432", match.getPort());
+        assertEquals("backup", match.getUsername());
+        assertEquals("prod_db", match.getDbname());
+        assertTrue(match.has(PgArgvMatcher.SCHEMA_ONLY));
+        assertFalse(match.has(PgArgvMatcher.FORMAT), "Ambiguous prefixes must not be guessed");
+    }
+    
+    @Test
+    void testGrammarDependsOnClient() {
+        PgArgvMatcher.Match psql = PgArgvMatcher.match("psql", "-h db1 -f init.sql -s app admin".split(" "));
+        assertEquals(PgArgvMatcher.Grammar.PSQL, psql.getGrammar());
+        assertFalse(psql.has(PgArgvMatcher.FILE), "psql -f is an input script");
+        assertFalse(psql.has(PgArgvMatcher.SCHEMA_ONLY), "psql -s is single-step mode");
+        assertEquals("app", psql.getDbname());
+        assertEquals("admin", psql.getUsername());
+        
+        PgArgvMatcher.Match dumpall = PgArgvMatcher.match("/usr/bin/pg_dumpall", "-g -l postgres".split(" "));
+        assertTrue(dumpall.has(PgArgvMatcher.GLOBALS_ONLY));
+        assertEquals("postgres", dumpall.getDbname());
+        
+        PgArgvMatcher.Match ssh = PgArgvMatcher.match("/usr/bin/ssh", "-p 22 backup-host".split(" "));
+        assertTrue(ssh.score() < MonitorConfiguration.MIN_PATTERN_MATCHES);
+    }
+    
+    @Test
+    void testArgvTokensKeepSpaces() {
+        // Строка подключения key=value и путь с пробелом - по одному токену argv
+        PgArgvMatcher.Match match = PgArgvMatcher.match("/usr/bin/pg_dump", new String[] {
+            "-d", "host=10.0.1.10 port=5432 dbname=prod user=backup", "-f", "/tmp/my dump.sql"});
+        
+        assertEquals("10.0.1.10", match.getHost());
+        assertEquals("5432", match.getPort());
+        assertEquals("backup", match.getUsername());
+        assertEquals("prod", match.getDbname());
+        assertEquals("/tmp/my dump.sql", match.getFile());
+        assertEquals(5, match.score());
+    }
+
+    @Test
+    void testUnknownCommandPositionalIsNotDbname() {
+        // Скрипт и jar - позиционные аргументы интерпретатора, а не база данных
+        PgArgvMatcher.Match python = PgArgvMatcher.match("/usr/bin/python3",
+            "sync.py --host 10.0.1.10 --port 5432".split(" "));
+        assertEquals(PgArgvMatcher.Grammar.GENERIC, python.getGrammar());
+        assertFalse(python.has(PgArgvMatcher.DBNAME));
+        assertEquals(2, python.score());
+
+        PgArgvMatcher.Match java = PgArgvMatcher.match("/usr/bin/java",
+            "-jar app.jar -h 10.0.1.10 -p 5432".split(" "));
+        assertFalse(java.has(PgArgvMatcher.DBNAME));
+        assertFalse(java.has(PgArgvMatcher.JOBS), "-jar is not a cluster of pg_dump short options");
+        assertEquals(2, java.score());
+
+        PgArgvMatcher.Match restore = PgArgvMatcher.match("pg_restore", "-d prod_db /tmp/prod.dump".split(" "));
+        assertEquals("prod_db", restore.getDbname());
+        assertEquals("/tmp/prod.dump", restore.getFile(), "pg_restore positional is the archive");
+    }
+}
+
+class ProcessTreeTest {
+    
+    private ProcessTree tree;
+    
+    @BeforeEach
+    void setUp() {
+        tree = new ProcessTree();
+        tree.add(1, 0, 1, "systemd");
+        tree.add(700, 1, 50, "sshd");
+        tree.add(810, 700, 900, "sshd-session");
+        tree.add(820, 810, 910, "bash");
+        tree.add(900, 820, 1000, "pg_dump");
+        tree.add(901, 820, 1000, "gzip");
+        tree.add(950, 1, 60, "cron");
+    }
+    
+    @Test
+    void testAncestorQueries() {
+        ProcessTree.Node session = tree.findAncestor(900, node -> node.getComm().startsWith("sshd"));
+        assertEquals(810, session.getPid(), "Nearest sshd ancestor should be the session process");
+        assertNull(tree.findAncestor(950, node -> node.getComm().startsWith("sshd")));
+        assertEquals("systemd(1) -> sshd(700) -> sshd-session(810) -> bash(820) -> pg_dump(900)",
+            ProcessTree.format(tree.lineage(900)));
+    }
+    
+    @Test
+    void testDescendantsAndExitReparenting() {
+        List<Integer> pids = new ArrayList<>();
+        for (ProcessTree.Node node : tree.descendants(810)) {
+            pids.add(node.getPid());
+        }
+        assertEquals(Arrays.asList(820, 901, 900), pids);
+        
+        // Выход оболочки: дети переходят к init
+        tree.remove(820);
+        assertNull(tree.findAncestor(900, node -> node.getComm().startsWith("sshd")));
+        assertEquals(1, tree.get(900).getPpid());
+        assertTrue(tree.descendants(810).isEmpty());
+    }
+    
+    @Test
+    void testChildSeenBeforeParentAndPidReuse() {
+        // При переполнении pid ребенок может иметь меньший pid, чем родитель
+        tree.add(5, 3000, 2100, "pg_dump");
+        tree.add(3000, 950, 2000, "backup.sh");
+        assertEquals("backup.sh(3000)", tree.findAncestor(5, node -> true).toString());
+        
+        // Тот же pid с другим starttime - новый процесс без старых детей
+        tree.add(3000, 1, 5000, "nginx");
+        assertTrue(tree.descendants(3000).isEmpty());
+        assertEquals("nginx", tree.get(3000).getComm());
+        
+        // Удаление по устаревшему starttime не затрагивает новый процесс
+        tree.remove(3000, 2000);
+        assertNotNull(tree.get(3000));
+    }
+}
+
+class ProcessEnvironmentInspectorTest {
+    
+    @Test
+    void testOnlyPgKeysAreExtracted() {
+        byte[] environ = "PATH=/usr/bin\0PGHOST=10.0.1.10\0PGPORTAL=x\0PGDATABASE=prod_db\0PGPASSWORD=secret\0HOME=/root\0"
+            .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        PgEnvironment env = ProcessEnvironmentInspector.parse(environ, environ.length);
+        
+        assertEquals("10.0.1.10", env.getHost());
+        assertEquals("prod_db", env.get(PgEnvironment.Key.PGDATABASE));
+        assertNull(env.get(PgEnvironment.Key.PGPORT), "PGPORTAL is not PGPORT");
+        assertTrue(env.hasPassword());
+        assertFalse(env.toString().contains("secret"), "Password value must not be kept");
+    }
+    
+    @Test
+    void testTruncatedEntryIsDropped() {
+        byte[] buffer = "PGUSER=admin\0PGHOST=10.0.1.1".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        PgEnvironment env = ProcessEnvironmentInspector.parse(buffer, buffer.length);
+        
+        assertEquals("admin", env.get(PgEnvironment.Key.PGUSER));
+        assertNull(env.getHost(), "Entry cut by the read limit may be incomplete");
+    }
+    
+    @Test
+    void testEnvironmentFeedsPatternScore() {
+        byte[] environ = "PGHOST=10.0.1.10\0PGUSER=backup\0PGDATABASE=prod_db\0".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        PgArgvMatcher.Match match = PgArgvMatcher.match("/usr/bin/pg_dump", "-h 127.0.0.1".split(" "));
+        match.applyEnvironment(ProcessEnvironmentInspector.parse(environ, environ.length));
+        
+        assertEquals("127.0.0.1", match.getHost(), "Command line overrides the environment");
+        assertEquals(3, match.score());
+        assertEquals(PgArgvMatcher.USERNAME | PgArgvMatcher.DBNAME, match.getEnvironmentOptions());
+    }
+}
+
+class LibpqMappingDetectorTest {
+    
+    private static final String MAPS_WITHOUT_LIBPQ =
+        "55d0c0a00000-55d0c0a28000 r--p 00000000 fd:01 1048602 /usr/bin/python3.11\n" +
+        "7f2b1c000000-7f2b1c022000 r--p 00000000 fd:01 1050123 /usr/lib/x86_64-linux-gnu/libc.so.6\n";
+    private static final String LIBPQ_LINE =
+        "7f2b1d400000-7f2b1d40b000 r--p 00000000 fd:01 1051177 /usr/lib/x86_64-linux-gnu/libpq.so.5.16\n";
+    
+    @Test
+    void testMatchAcrossChunkBoundary() throws Exception {
+        byte[] needle = "libpq.so".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        byte[] data = ("xxxxxxxxxxxxlibpq.so.5").getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        // Буфер 16 байт: совпадение разрезано между первым и вторым блоком
+        assertTrue(LibpqMappingDetector.streamContains(new java.io.ByteArrayInputStream(data), needle, new byte[16], Long.MAX_VALUE));
+        assertFalse(LibpqMappingDetector.streamContains(new java.io.ByteArrayInputStream(data), needle, new byte[16], 8),
+            "Read limit should stop the scan");
+    }
+    
+    @Test
+    void testMapsAreRereadOnlyAfterRecheckInterval() throws Exception {
+        java.nio.file.Path procRoot = java.nio.file.Files.createTempDirectory("maps");
+        java.nio.file.Path maps = java.nio.file.Files.createDirectories(procRoot.resolve("42")).resolve("maps");
+        java.nio.file.Files.write(maps, MAPS_WITHOUT_LIBPQ.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        
+        try {
+            MonitorMetrics metrics = new MonitorMetrics();
+            LibpqMappingDetector cached = new LibpqMappingDetector(procRoot, null, metrics, 60_000, 60_000);
+            
+            assertFalse(cached.isLibpqMapped(42, 1000));
+            
+            // psycopg2 загрузил libpq: до срока перепроверки ответ берется из кэша
+            java.nio.file.Files.write(maps, (MAPS_WITHOUT_LIBPQ + LIBPQ_LINE).getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            ProcEntry entry = new ProcEntry(16);
+            entry.reset(42);
+            entry.startTicks = 1000;
+            assertFalse(cached.needsRecheck(entry), "Recheck should wait for the interval");
+            assertFalse(cached.isLibpqMapped(entry));
+            assertEquals(1, metrics.get(MonitorMetrics.LIBPQ_MAPS_READS));
+            assertEquals(1, metrics.get(MonitorMetrics.LIBPQ_CACHE_HITS));
+            
+            // Срок перепроверки наступил
+            LibpqMappingDetector expired = new LibpqMappingDetector(procRoot, null, metrics, 0, 0);
+            java.nio.file.Files.write(maps, MAPS_WITHOUT_LIBPQ.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            assertFalse(expired.isLibpqMapped(entry));
+            java.nio.file.Files.write(maps, (MAPS_WITHOUT_LIBPQ + LIBPQ_LINE).getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            assertTrue(expired.needsRecheck(entry));
+            assertTrue(expired.isLibpqMapped(entry));
+            assertFalse(expired.needsRecheck(entry), "Positive result is final");
+            assertEquals(3, metrics.get(MonitorMetrics.LIBPQ_MAPS_READS));
+            
+            expired.forget(42);
+            assertEquals(0, expired.size());
+        } finally {
+            SyntheticProcfs.delete(procRoot);
+        }
+    }
+    
+    @Test
+    void testExecutableNegativeIsNotShared() throws Exception {
+        java.nio.file.Path procRoot = java.nio.file.Files.createTempDirectory("maps");
+        java.nio.file.Path binary = java.nio.file.Files.write(procRoot.resolve("python3"),
+            "\u007fELF plain interpreter".getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        for (int pid = 42; pid <= 43; pid++) {
+            java.nio.file.Path dir = java.nio.file.Files.createDirectories(procRoot.resolve(String.valueOf(pid)));
+            java.nio.file.Files.createSymbolicLink(dir.resolve("exe"), binary);
+            java.nio.file.Files.write(dir.resolve("maps"), MAPS_WITHOUT_LIBPQ.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        }
+        
+        try {
+            MonitorMetrics metrics = new MonitorMetrics();
+            LibpqMappingDetector detector = new LibpqMappingDetector(procRoot,
+                new ExecutableFingerprintCache(procRoot, 16), metrics, 60_000, 300_000);
+            
+            // Проверка при exec раньше dlopen: ответ первого процесса python3 не переносится на второй
+            assertFalse(detector.isLibpqMapped(42, 1000));
+            java.nio.file.Files.write(procRoot.resolve("43").resolve("maps"),
+                (MAPS_WITHOUT_LIBPQ + LIBPQ_LINE).getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            assertTrue(detector.isLibpqMapped(43, 1001));
+            assertEquals(2, metrics.get(MonitorMetrics.LIBPQ_MAPS_READS));
+            assertEquals(2, detector.size());
+        } finally {
+            SyntheticProcfs.delete(procRoot);
+        }
+    }
+    
+    @Test
+    void testRecheckIntervalBacksOff() throws Exception {
+        java.nio.file.Path procRoot = java.nio.file.Files.createTempDirectory("maps");
+        java.nio.file.Path maps = java.nio.file.Files.createDirectories(procRoot.resolve("42")).resolve("maps");
+        java.nio.file.Files.write(maps, MAPS_WITHOUT_LIBPQ.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        
+        try {
+            MonitorMetrics metrics = new MonitorMetrics();
+            LibpqMappingDetector detector = new LibpqMappingDetector(procRoot, null, metrics, 100, 1000);
+            ProcEntry entry = new ProcEntry(16);
+            entry.reset(42);
+            entry.startTicks = 1000;
+            
+            assertFalse(detector.isLibpqMapped(entry));
+            assertFalse(detector.needsRecheck(entry));
+            Thread.sleep(150);
+            assertTrue(detector.needsRecheck(entry), "First recheck comes after the short interval");
+            assertFalse(detector.isLibpqMapped(entry));
+            Thread.sleep(100);
+            assertFalse(detector.needsRecheck(entry), "Interval doubles after a negative recheck");
+            Thread.sleep(200);
+            assertTrue(detector.needsRecheck(entry));
+        } finally {
+            SyntheticProcfs.delete(procRoot);
+        }
+    }
+}
+
+class UserNameCacheTest {
+    
+    @Test
+    void testLookupOncePerUidAndKeepNameOnFailure() {
+        Map<Integer, String> directory = new HashMap<>();
+        directory.put(26, "postgres");
+        AtomicInteger lookups = new AtomicInteger();
+        List<Runnable> queued = new ArrayList<>();
+        UserNameCache cache = new UserNameCache(uid -> {
+            lookups.incrementAndGet();
+            return directory.get(uid);
+        }, uid -> null, queued::add, 0);
+        
+        // Каталог опрашивается в фоне: до ответа - числовой uid
+        assertEquals("26", cache.resolve(26));
+        assertEquals("26", cache.resolve(26));
+        assertEquals(1, queued.size(), "Name service should be queried once per uid");
+        queued.remove(0).run();
+        assertEquals("postgres", cache.resolve(26));
+        assertEquals(1, lookups.get());
+        assertEquals("1001", cache.resolve(1001), "Unknown uid is shown as a number");
+        queued.remove(0).run();
+        assertEquals("1001", cache.resolve(1001));
+        
+        // Каталог недоступен при фоновом обновлении: имя сохраняется
+        directory.clear();
+        cache.refreshExpired();
+        assertEquals(2, queued.size(), "Refresh runs on the lookup thread, not the caller");
+        queued.forEach(Runnable::run);
+        assertEquals("postgres", cache.resolve(26));
+        assertEquals(4, lookups.get());
+    }
+    
+    @Test
+    void testLocalPasswdAnswersUntilDirectoryResponds() {
+        List<Runnable> queued = new ArrayList<>();
+        UserNameCache cache = new UserNameCache(uid -> "postgres-ldap", uid -> uid == 26 ? "postgres" : null,
+            queued::add, 60000);
+        
+        assertEquals("postgres", cache.resolve(26), "Local /etc/passwd answers without waiting for NSS");
+        queued.remove(0).run();
+        assertEquals("postgres-ldap", cache.resolve(26));
+        cache.refreshExpired();
+        assertTrue(queued.isEmpty(), "Fresh entries are not looked up again");
+    }
+    
+    @Test
+    void testEffectiveUidFromStatus() throws Exception {
+        byte[] status = "Name:\tpg_dump\nUmask:\t0022\nState:\tS (sleeping)\nUid:\t0\t26\t26\t26\nGid:\t0\t26\t26\t26\n"
+            .getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        assertEquals(26, ProcfsProcessScanner.parseUid(status, status.length));
+        assertEquals(-1, ProcfsProcessScanner.parseUid(status, 20));
+        
+        java.nio.file.Path passwd = java.nio.file.Files.createTempFile("passwd", "");
+        try {
+            java.nio.file.Files.write(passwd, "root:x:0:0:root:/root:/bin/bash\npostgres:x:26:26::/var/lib/pgsql:/bin/bash\n"
+                .getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            assertEquals("postgres", UserNameCache.lookupPasswd(passwd, 26));
+            assertNull(UserNameCache.lookupPasswd(passwd, 2));
+        } finally {
+            java.nio.file.Files.delete(passwd);
+        }
+    }
+}
+
+class ParallelProcfsWalkerTest {
+    
+    static final class CollectingVisitor implements ParallelProcfsWalker.PartitionVisitor {
+        final List<Integer> pids = new ArrayList<>();
+        
+        @Override
+        public void visit(ProcfsProcessScanner scanner, ProcEntry entry) {
+            pids.add(entry.pid);
+        }
+    }
+    
+    @Test
+    void testPartitionsCoverAllPidsInOrder() throws Exception {
+        java.nio.file.Path root = SyntheticProcfs.create(1000);
+        ParallelProcfsWalker walker = new ParallelProcfsWalker(root, new UserNameCache(), 4);
+        try {
+            List<CollectingVisitor> partitions = walker.walk(CollectingVisitor::new);
+            assertEquals(16, partitions.size(), "Four partitions per worker");
+            
+            List<Integer> merged = new ArrayList<>();
+            for (CollectingVisitor partition : partitions) {
+                merged.addAll(partition.pids);
+            }
+            assertEquals(1000, merged.size(), "Every pid should be visited exactly once");
+            for (int i = 0; i < merged.size(); i++) {
+                assertEquals(i + 1, merged.get(i).intValue(), "Merged results should be in pid order");
+            }
+        } finally {
+            walker.shutdown();
+            SyntheticProcfs.delete(root);
+        }
+    }
+}
+
+class ProcessTableTest {
+    
+    @Test
+    void testPutGetRemoveAndKeyPacking() {
+        ProcessTable table = new ProcessTable();
+        long key = ProcessTable.key(4194303, 123456789L);
+        assertEquals(4194303, ProcessTable.pid(key));
+        assertEquals(123456789L, ProcessTable.startTicks(key));
+        
+        ProcessInfo candidate = new ProcessInfo();
+        assertTrue(table.putIfAbsent(key, ProcessPreFilter.Signal.CLIENT_NAME, candidate));
+        assertFalse(table.putIfAbsent(key, ProcessPreFilter.Signal.NONE, null), "Existing entry must not be replaced");
+        assertEquals(ProcessPreFilter.Signal.CLIENT_NAME, table.getSignal(key));
+        assertSame(candidate, table.getInfo(key));
+        
+        // Пара (pid, starttime) отличает переиспользованный pid
+        assertFalse(table.contains(ProcessTable.key(4194303, 123456790L)));
+        
+        table.put(key, null, null);
+        assertTrue(table.contains(key));
+        assertNull(table.getSignal(key), "Entry without first-stage decision");
+        assertTrue(table.remove(key));
+        assertFalse(table.contains(key));
+        assertEquals(0, table.size());
+    }
+    
+    @Test
+    void testRemoveIfKeepsProbeChainsAndNotifiesListener() {
+        ProcessTable table = new ProcessTable();
+        int count = 20000;
+        for (int pid = 1; pid <= count; pid++) {
+            table.put(ProcessTable.key(pid, 1000 + pid), ProcessPreFilter.Signal.NONE, null);
+        }
+        assertEquals(count, table.size());
+        
+        // Удаляем нечетные pid: сдвиг назад не должен разорвать цепочки оставшихся ключей
+        List<Integer> removed = new ArrayList<>();
+        table.removeIf(key -> ProcessTable.pid(key) % 2 == 1, (key, info) -> removed.add(ProcessTable.pid(key)));
+        assertEquals(count / 2, removed.size());
+        assertEquals(count / 2, table.size());
+        for (int pid = 1; pid <= count; pid++) {
+            assertEquals(pid % 2 == 0, table.contains(ProcessTable.key(pid, 1000 + pid)), "pid " + pid);
+        }
+    }
+    
+    @Test
+    void testSweepRemovesOnlyEntriesMissedByCurrentScan() {
+        ProcessTable table = new ProcessTable();
+        ProcessInfo candidate = new ProcessInfo();
+        for (int pid = 1; pid <= 1000; pid++) {
+            table.put(ProcessTable.key(pid, pid), ProcessPreFilter.Signal.NONE, pid == 500 ? candidate : null);
+        }
+        
+        table.startGeneration();
+        for (int pid = 1; pid <= 1000; pid++) {
+            if (pid % 250 != 0) {
+                assertTrue(table.mark(ProcessTable.key(pid, pid)));
+            }
+        }
+        // Вставка события exec во время скана относится к текущему поколению
+        table.putIfAbsent(ProcessTable.key(2000, 1), ProcessPreFilter.Signal.NONE, null);
+        
+        Map<Integer, ProcessInfo> exited = new HashMap<>();
+        assertEquals(4, table.sweep((key, info) -> exited.put(ProcessTable.pid(key), info)));
+        assertEquals(new HashSet<>(Arrays.asList(250, 500, 750, 1000)), exited.keySet());
+        assertSame(candidate, exited.get(500), "Exit hook should receive the candidate's last state");
+        assertTrue(table.contains(ProcessTable.key(2000, 1)));
+        assertEquals(0, table.sweep(null), "Nothing left to sweep in the same generation");
+    }
+    
+    @Test
+    void testRemovalListenerRunsOutsideSegmentLock() throws Exception {
+        ProcessTable table = new ProcessTable();
+        long key = ProcessTable.key(4242, 1);
+        table.put(key, ProcessPreFilter.Signal.CLIENT_NAME, new ProcessInfo());
+        table.startGeneration();
+        
+        // Оценка завершившегося кандидата не должна держать вставки других потоков в тот же сегмент
+        List<Boolean> inserted = new ArrayList<>();
+        table.sweep((removedKey, info) -> {
+            Thread writer = new Thread(() -> table.putIfAbsent(removedKey, ProcessPreFilter.Signal.NONE, null));
+            writer.start();
+            try {
+                writer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inserted.add(!writer.isAlive());
+        });
+        assertEquals(Collections.singletonList(true), inserted, "Sweep listener should not hold the segment lock");
+        assertTrue(table.contains(key));
+        
+        List<Boolean> removed = new ArrayList<>();
+        assertTrue(table.remove(key, (removedKey, info) -> {
+            Thread reader = new Thread(() -> table.contains(removedKey));
+            reader.start();
+            try {
+                reader.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            removed.add(!reader.isAlive());
+        }));
+        assertEquals(Collections.singletonList(true), removed, "Exit listener should not hold the segment lock");
+    }
+}
+
+class ProcessIoSamplerTest {
+    
+    private static void writeIo(java.nio.file.Path root, int pid, long rchar, long wchar) throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createDirectories(root.resolve(String.valueOf(pid)));
+        java.nio.file.Files.write(dir.resolve("io"), ("rchar: " + rchar + "\nwchar: " + wchar + "\nsyscr: 10\nsyscw: 20\n" +
+            "read_bytes: 4096\nwrite_bytes: " + wchar + "\ncancelled_write_bytes: 0\n").getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+    }
+    
+    @Test
+    void testWindowRatesFromCounterDeltas() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-io");
+        try {
+            ProcessIoSampler sampler = new ProcessIoSampler(root, new long[] {10000, 60000});
+            long mb = 1024 * 1024;
+            
+            writeIo(root, 42, 0, 0);
+            IoRates first = sampler.sample(42, 1000, 0);
+            assertFalse(first.hasWindowRates(), "Single sample has no window rates");
+            
+            // 50 секунд по 1MB/s, затем 10 секунд по 20MB/s
+            writeIo(root, 42, 50 * mb, 50 * mb);
+            sampler.sample(42, 1000, 50000);
+            writeIo(root, 42, 250 * mb, 250 * mb);
+            IoRates rates = sampler.sample(42, 1000, 60000);
+            
+            assertEquals(20 * mb, rates.getReadRate(0), "Short window reflects the burst");
+            assertEquals(250 * mb / 60, rates.getWriteRate(1), "Long window averages over history");
+            assertEquals(20 * mb, rates.getPeakRate());
+            assertEquals(250 * mb, rates.getTransferredBytes());
+            assertEquals(4096, rates.getStorageRead());
+            
+            // pid переиспользован: история начинается заново
+            assertFalse(sampler.sample(42, 2000, 61000).hasWindowRates());
+            assertNull(sampler.sample(43, 1000, 61000), "Missing io file");
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+}
+
+class ProcessResourceSamplerTest {
+    
+    @Test
+    void testCpuPercentAndRssGrowthFromStatAndStatm() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-res");
+        try {
+            ProcessResourceSampler sampler = new ProcessResourceSampler(root);
+            ProcessInfo process = new ProcessInfo();
+            process.setPid("42");
+            process.setStartTicks(1042);
+            java.nio.file.Path dir = java.nio.file.Files.createDirectories(root.resolve("42"));
+            
+            // utime + stime = 180 тиков, resident = 2560 страниц (10MB)
+            java.nio.file.Files.write(dir.resolve("stat"), SyntheticProcfs.stat(42, "pg_dump", 1, 1042)
+                .getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            java.nio.file.Files.write(dir.resolve("statm"), "25600 2560 300 100 0 5000 0\n"
+                .getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            assertEquals(1, sampler.sampleAll(Collections.singletonList(process), 0));
+            assertEquals(0.0, process.getResourceUsage().getCpuPercent(), 0.001);
+            assertEquals(10 * 1024 * 1024, process.getResourceUsage().getRssBytes());
+            
+            // Через 2 секунды: +180 тиков CPU (90% ядра), resident вырос до 300MB
+            java.nio.file.Files.write(dir.resolve("stat"), SyntheticProcfs.stat(42, "pg_dump", 1, 1042)
+                .replace(" 150 30 ", " 300 60 ").getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            java.nio.file.Files.write(dir.resolve("statm"), "100000 76800 300 100 0 70000 0\n"
+                .getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            sampler.sampleAll(Collections.singletonList(process), 2000);
+            
+            ResourceUsage usage = process.getResourceUsage();
+            assertEquals(90.0, usage.getCpuPercent(), 0.001);
+            assertEquals(290L * 1024 * 1024, usage.getRssGrowthBytes());
+            assertTrue(usage.isHigh());
+            
+            // pid переиспользован другим процессом - замер пропускается
+            process.setStartTicks(7);
+            assertEquals(0, sampler.sampleAll(Collections.singletonList(process), 4000));
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+}
+
+class ContainerResolverTest {
+    
+    private static final String ID = "4f1c2b3a4d5e6f708192a3b4c5d6e7f8091a2b3c4d5e6f708192a3b4c5d6e7f8";
+    
+    private static void addNamespaces(java.nio.file.Path root, int pid, long mnt, String cgroup) throws Exception {
+        java.nio.file.Path ns = java.nio.file.Files.createDirectories(root.resolve(String.valueOf(pid)).resolve("ns"));
+        java.nio.file.Files.createSymbolicLink(ns.resolve("mnt"), java.nio.file.Paths.get("mnt:[" + mnt + "]"));
+        java.nio.file.Files.createSymbolicLink(ns.resolve("pid"), java.nio.file.Paths.get("pid:[" + (mnt + 1) + "]"));
+        java.nio.file.Files.write(root.resolve(String.valueOf(pid)).resolve("cgroup"),
+            cgroup.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+    }
+    
+    @Test
+    void testResolveOncePerNamespaceAndTranslatePaths() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-ns");
+        try {
+            addNamespaces(root, 1, 4026531840L, "0::/init.scope\n");
+            addNamespaces(root, 100, 4026531840L, "0::/system.slice/cron.service\n");
+            addNamespaces(root, 200, 4026532500L, "0::/system.slice/docker-" + ID + ".scope\n");
+            addNamespaces(root, 201, 4026532500L, "0::/system.slice/docker-" + ID + ".scope\n");
+            ContainerResolver resolver = new ContainerResolver(root);
+            
+            assertTrue(resolver.resolve(100, 1).isHost());
+            ContainerIdentity container = resolver.resolve(200, 1);
+            assertEquals(ID, container.getId());
+            assertEquals("docker:4f1c2b3a4d5e", container.toString());
+            assertSame(container, resolver.resolve(201, 1), "Processes of one namespace share the identity");
+            
+            ProcessInfo process = new ProcessInfo();
+            process.setPid("200");
+            process.setContainer(container);
+            assertEquals(root.resolve("200").resolve("root").resolve("tmp/db.dump"),
+                resolver.hostPath(process, "/tmp/db.dump"), "Container paths go through /proc/[pid]/root");
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+    
+    @Test
+    void testContainerIdFromCgroupLayouts() {
+        assertArrayEquals(new String[] {ID, "docker"}, ContainerResolver.parseContainerId("12:memory:/docker/" + ID + "\n"));
+        assertArrayEquals(new String[] {ID, "containerd"}, ContainerResolver.parseContainerId(
+            "0::/kubepods.slice/kubepods-burstable.slice/kubepods-burstable-pod1.slice/cri-containerd-" + ID + ".scope\n"));
+        assertArrayEquals(new String[] {ID, "podman"}, ContainerResolver.parseContainerId("0::/machine.slice/libpod-" + ID + ".scope\n"));
+        assertNull(ContainerResolver.parseContainerId("0::/user.slice/user-1000.slice/session-3.scope\n"));
+    }
+}
+
+class ProcessStormTest {
+    
+    private static ProcessInfo candidate(int pid, ProcessPreFilter.Signal signal) {
+        ProcessInfo process = new ProcessInfo();
+        process.setPid(String.valueOf(pid));
+        process.setCandidateSignal(signal);
+        return process;
+    }
+    
+    @Test
+    void testPgDumpIsAnalyzedFirstDuringCandidateStorm() {
+        CandidateQueue queue = new CandidateQueue(4096);
+        int shed = 0;
+        for (int pid = 1; pid <= 100_000; pid++) {
+            if (queue.add(candidate(pid, ProcessPreFilter.Signal.ARGUMENTS)) != null) shed++;
+        }
+        assertEquals(100_000 - 4096, shed, "Overflow of equal priority should be shed");
+        
+        ProcessInfo pgDump = candidate(100_001, ProcessPreFilter.Signal.CLIENT_NAME);
+        ProcessInfo evicted = queue.add(pgDump);
+        assertNotNull(evicted);
+        assertNotSame(pgDump, evicted, "A stronger signal should evict a weaker candidate");
+        assertEquals(4096, queue.size());
+        
+        List<ProcessInfo> analyzed = new ArrayList<>();
+        assertEquals(1, queue.drain(0, analyzed::add), "At least one candidate is analyzed even without budget");
+        assertSame(pgDump, analyzed.get(0), "pg_dump should not wait behind the storm");
+    }
+    
+    @Test
+    void testEventQueueShedsOverflow() {
+        ProcessEventQueue queue = new ProcessEventQueue(16384);
+        int accepted = 0;
+        for (int pid = 1; pid <= 100_000; pid++) {
+            if (queue.offerExec(pid)) accepted++;
+        }
+        assertEquals(queue.capacity(), accepted);
+        assertFalse(queue.offerExit(7), "Full queue should reject exit events as well");
+        
+        assertEquals(1, queue.poll());
+        assertTrue(queue.offerExit(7));
+        for (int i = 2; i <= accepted; i++) {
+            assertEquals(i, queue.poll(), "Events should keep their order");
+        }
+        assertEquals(-7, queue.poll(), "Exit events are stored as negative pids");
+        assertEquals(0, queue.poll());
+    }
+    
+    @Test
+    void testHugeCmdlineIsTruncatedAndCounted() throws Exception {
+        java.nio.file.Path root = SyntheticProcfs.create(0);
+        try {
+            char[] padding = new char[MonitorConfiguration.MAX_CMDLINE_BYTES * 4];
+            Arrays.fill(padding, 'x');
+            SyntheticProcfs.addProcess(root, 42, 1, "pg_dump", "/usr/bin/pg_dump", new String(padding), "-h", "10.0.1.10");
+            ProcfsProcessScanner scanner = new ProcfsProcessScanner(root);
+            MonitorMetrics metrics = new MonitorMetrics();
+            
+            assertTrue(scanner.readProcess(42));
+            ProcEntry entry = scanner.currentEntry();
+            assertTrue(entry.cmdlineTruncated);
+            assertEquals(MonitorConfiguration.MAX_CMDLINE_BYTES, entry.cmdlineLength);
+            assertEquals(ProcessPreFilter.Signal.CLIENT_NAME, new ProcessPreFilter(metrics).evaluate(entry, null));
+            assertEquals(1, metrics.get(MonitorMetrics.CMDLINE_TRUNCATED));
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+}
+
+class ProcNetTcpTableTest {
+    
+    private static final String TCP =
+        "  sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode\n" +
+        "   0: 0100007F:1538 00000000:0000 0A 00000000:00000000 00:00000000 00000000    26        0 1001 1 0 100 0 0 10 0\n" +
+        "   1: 0F01000A:D431 0A01000A:1538 01 00000000:00000000 02:000A7D8A 00000000  1000        0 2002 1 0 20 4 30 10 -1\n" +
+        "   2: 0F01000A:D432 0A01000A:1538 06 00000000:00000000 03:00001770 00000000     0        0 0 3 0\n";
+    private static final String TCP6 =
+        "  sl  local_address                         remote_address                        st tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode\n" +
+        "   0: 0000000000000000FFFF00000F01000A:D433 0000000000000000FFFF00000B01000A:1538 01 00000000:00000000 00:00000000 00000000  1000        0 3003 1 0 20 4 30 10 -1\n";
+    
+    static void addProcess(java.nio.file.Path root, int pid, long... sockets) throws Exception {
+        java.nio.file.Path dir = root.resolve(String.valueOf(pid));
+        java.nio.file.Path fd = java.nio.file.Files.createDirectories(dir.resolve("fd"));
+        java.nio.file.Files.createSymbolicLink(fd.resolve("0"), java.nio.file.Paths.get("/dev/null"));
+        for (int i = 0; i < sockets.length; i++) {
+            java.nio.file.Files.createSymbolicLink(fd.resolve(String.valueOf(i + 3)),
+                java.nio.file.Paths.get("socket:[" + sockets[i] + "]"));
+        }
+        java.nio.file.Files.createDirectories(dir.resolve("ns"));
+        java.nio.file.Files.createSymbolicLink(dir.resolve("ns").resolve("net"), java.nio.file.Paths.get("net:[4026531992]"));
+        java.nio.file.Path net = java.nio.file.Files.createDirectories(dir.resolve("net"));
+        java.nio.file.Files.write(net.resolve("tcp"), TCP.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        java.nio.file.Files.write(net.resolve("tcp6"), TCP6.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+    }
+    
+    @Test
+    void testJoinsSocketInodesWithOneTableReadPerNamespace() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-net");
+        try {
+            addProcess(root, 100, 1001, 2002);
+            addProcess(root, 200, 3003);
+            MonitorMetrics metrics = new MonitorMetrics();
+            ProcNetTcpTable table = new ProcNetTcpTable(root, 1000, metrics);
+            
+            List<NetworkConnection> first = table.connections(100, 5000);
+            assertEquals(1, first.size(), "Listening sockets are not connections");
+            assertEquals("10.0.1.15:54321 -> 10.0.1.10:5432 [ESTABLISHED]", first.get(0).toString());
+            
+            List<NetworkConnection> second = table.connections(200, 5500);
+            assertEquals("10.0.1.15:54323 -> 10.0.1.11:5432 [ESTABLISHED]", second.get(0).toString(),
+                "IPv4-mapped IPv6 addresses should be shown as IPv4");
+            assertEquals(1, metrics.get(MonitorMetrics.SOCKET_TABLE_READS), "Processes of one namespace share the table");
+            
+            table.connections(100, 6000);
+            assertEquals(2, metrics.get(MonitorMetrics.SOCKET_TABLE_READS), "The table is re-read after max age");
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+    
+    @Test
+    void testDiffReportsOnlyOpenedAndClosedSockets() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-net");
+        try {
+            addProcess(root, 100, 2002);
+            addProcess(root, 300, 5005);
+            java.nio.file.Path self = java.nio.file.Files.createDirectories(root.resolve("self").resolve("net"));
+            java.nio.file.Files.write(self.resolve("tcp"), TCP.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            ProcNetTcpTable table = new ProcNetTcpTable(root, 1000, new MonitorMetrics());
+            List<String> events = new ArrayList<>();
+            SocketChangeListener listener = new SocketChangeListener() {
+                @Override
+                public void opened(NetworkConnection conn) { events.add("opened " + conn.getInode() + " " + conn.getRemotePort()); }
+                
+                @Override
+                public void closed(NetworkConnection conn) { events.add("closed " + conn.getInode()); }
+            };
+            
+            table.diff(listener, 1000);
+            assertTrue(events.isEmpty(), "The first read is only a baseline");
+            table.diff(listener, 2000);
+            assertTrue(events.isEmpty(), "Unchanged sockets produce no events");
+            
+            // Соединение 2002 закрыто, открыто 5005 к HAProxy
+            java.nio.file.Files.write(self.resolve("tcp"), (TCP.substring(0, TCP.indexOf("   1:")) +
+                "   3: 0F01000A:D440 0501000A:1389 02 00000000:00000000 00:00000000 00000000  1000        0 5005 1 0\n")
+                .getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            table.diff(listener, 3000);
+            assertEquals(Arrays.asList("opened 5005 5001", "closed 2002"), events);
+            
+            assertArrayEquals(new int[] {300, 0}, table.findOwners(new long[] {5005, 9999}, Collections.singleton(100),
+                Collections.emptySet(), 100));
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+    
+    @Test
+    void testOwnerSearchIsBoundedAndStopsForClosedSockets() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-net");
+        try {
+            addProcess(root, 100, 2002);
+            addProcess(root, 200, 1001);
+            addProcess(root, 300, 5005);
+            java.nio.file.Path self = java.nio.file.Files.createDirectories(root.resolve("self").resolve("net"));
+            java.nio.file.Files.write(self.resolve("tcp"), TCP.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            MonitorMetrics metrics = new MonitorMetrics();
+            
+            // Не больше одного процесса за обход; 300 пропускается как уже известный
+            ProcNetTcpTable table = new ProcNetTcpTable(root, 60_000, metrics);
+            int[] owners = table.findOwners(new long[] {1001, 2002}, Collections.emptySet(), Collections.singleton(300), 1);
+            assertEquals(1, (owners[0] > 0 ? 1 : 0) + (owners[1] > 0 ? 1 : 0), "Walk should stop at the process limit");
+            assertEquals(1, metrics.get(MonitorMetrics.OWNER_SCAN_TRUNCATED));
+            
+            // Сокета 9999 уже нет в таблице: обход заканчивается на первой сверке
+            ProcNetTcpTable checking = new ProcNetTcpTable(root, 0, metrics);
+            assertArrayEquals(new int[] {0}, checking.findOwners(new long[] {9999}, Collections.emptySet(),
+                Collections.emptySet(), 100));
+            assertEquals(1, metrics.get(MonitorMetrics.SOCKET_TABLE_READS), "Walk should stop once the socket is gone");
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+    
+    @Test
+    void testFailedReadKeepsPreviousTable() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-net");
+        try {
+            addProcess(root, 100, 1001, 2002);
+            addProcess(root, 200, 2002);
+            MonitorMetrics metrics = new MonitorMetrics();
+            ProcNetTcpTable table = new ProcNetTcpTable(root, 1000, metrics);
+            assertEquals(1, table.connections(100, 5000).size());
+            
+            // Процесс 200 завершается: его таблица уже не читается
+            java.nio.file.Files.delete(root.resolve("200").resolve("net").resolve("tcp"));
+            java.nio.file.Files.delete(root.resolve("200").resolve("net").resolve("tcp6"));
+            assertEquals(1, table.connections(200, 6000).size(), "Previous table should be kept when the read fails");
+            assertEquals(1, metrics.get(MonitorMetrics.SOCKET_TABLE_READS));
+            
+            // Неудачное чтение не продлевает снимок
+            table.connections(100, 6100);
+            assertEquals(2, metrics.get(MonitorMetrics.SOCKET_TABLE_READS), "Failed read should not refresh the table age");
+            
+            // Неудачное чтение своей таблицы не превращается в закрытие всех сокетов
+            java.nio.file.Path self = java.nio.file.Files.createDirectories(root.resolve("self").resolve("net"));
+            java.nio.file.Files.write(self.resolve("tcp"), TCP.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            List<String> events = new ArrayList<>();
+            SocketChangeListener listener = new SocketChangeListener() {
+                @Override
+                public void opened(NetworkConnection conn) { events.add("opened " + conn.getInode()); }
+                
+                @Override
+                public void closed(NetworkConnection conn) { events.add("closed " + conn.getInode()); }
+            };
+            table.diff(listener, 7000);
+            java.nio.file.Files.delete(self.resolve("tcp"));
+            table.diff(listener, 8000);
+            java.nio.file.Files.write(self.resolve("tcp"), TCP.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            table.diff(listener, 9000);
+            assertTrue(events.isEmpty(), "Unreadable table should not produce events: " + events);
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+    
+    @Test
+    void testOwnNamespaceIsReadThroughSelf() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-net");
+        try {
+            addProcess(root, 100, 2002);
+            // Монитор в том же пространстве имен; /proc/self/net - таблица, с которой сравниваются чтения
+            java.nio.file.Path self = root.resolve("self");
+            java.nio.file.Files.createDirectories(self.resolve("ns"));
+            java.nio.file.Files.createSymbolicLink(self.resolve("ns").resolve("net"), java.nio.file.Paths.get("net:[4026531992]"));
+            java.nio.file.Files.createDirectories(self.resolve("net"));
+            java.nio.file.Files.write(self.resolve("net").resolve("tcp"), TCP.replace("0A01000A:1538 01", "0B01000A:1538 01")
+                .getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            ProcNetTcpTable table = new ProcNetTcpTable(root, 1000, new MonitorMetrics());
+            
+            List<NetworkConnection> connections = table.connections(100, 5000);
+            assertEquals("10.0.1.15:54321 -> 10.0.1.11:5432 [ESTABLISHED]", connections.get(0).toString());
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+}
+
+class SockDiagConnectionSourceTest {
+    
+    private static final String SS_OUTPUT =
+        "ESTAB 0      0      10.0.1.15:54321 10.0.1.10:5432 uid:1000 ino:2002 sk:3a cgroup:/user.slice <->\n" +
+        "\t cubic wscale:7,7 rto:204 rtt:0.9/0.4 mss:1448 cwnd:10 bytes_sent:2048 bytes_acked:2049 " +
+        "bytes_received:4294967296 segs_out:10 segs_in:12 send 128.7Mbps lastsnd:1000 minrtt:0.5\n" +
+        "ESTAB 0      0      10.0.1.15:54399 10.0.1.11:5000 uid:1000 ino:4004 sk:3b <->\n" +
+        "\t cubic wscale:7,7 rto:204 bytes_acked:1 segs_out:1\n";
+    
+    @Test
+    void testParseCountersByInode() throws Exception {
+        Map<Long, SockDiagConnectionSource.Counters> counters =
+            SockDiagConnectionSource.parse(new java.io.ByteArrayInputStream(SS_OUTPUT.getBytes()));
+        assertEquals(2, counters.size());
+        assertEquals(4294967296L, counters.get(2002L).bytesReceived);
+        assertEquals(2049L, counters.get(2002L).bytesAcked);
+        assertEquals(0L, counters.get(4004L).bytesReceived, "Missing counters should read as zero");
+    }
+    
+    @Test
+    void testHungQueryIsKilledByTimeout() throws Exception {
+        // Зависший ss держит stdout открытым: таймаут должен прерывать и чтение вывода
+        long started = System.currentTimeMillis();
+        assertNull(SockDiagConnectionSource.run(new String[] {"sleep", "30"}, 200, SockDiagConnectionSource::parse));
+        assertTrue(System.currentTimeMillis() - started < 5000, "Timeout should cover reading the output");
+        
+        MonitorMetrics metrics = new MonitorMetrics();
+        UnixPeerResolver peers = new UnixPeerResolver(new String[] {"sleep", "30"}, 1000, 200, metrics);
+        assertEquals(0L, peers.peer(7003, 0));
+        assertEquals(0L, peers.peer(7003, 2000));
+        assertEquals(2, metrics.get(MonitorMetrics.SOCK_DIAG_QUERIES), "Timed out query should not disable ss");
+    }
+    
+    @Test
+    void testCommandFiltersMonitoredPortsInKernel() {
+        assertArrayEquals(new String[] {"ss", "-tieHn", "(", "dport", "=", ":5432", "or", "dport", "=", ":5000", ")"},
+            SockDiagConnectionSource.command(new int[] {5432, 5000}));
+    }
+    
+    @Test
+    void testCountersAreJoinedToProcfsConnections() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-diag");
+        java.nio.file.Path output = java.nio.file.Files.createTempFile("ss", ".out");
+        try {
+            ProcNetTcpTableTest.addProcess(root, 100, 1001, 2002);
+            java.nio.file.Files.createDirectories(root.resolve("self").resolve("ns"));
+            java.nio.file.Files.createSymbolicLink(root.resolve("self").resolve("ns").resolve("net"),
+                java.nio.file.Paths.get("net:[4026531992]"));
+            // Таблица своего пространства имен читается через /proc/self/net
+            java.nio.file.Files.copy(root.resolve("100").resolve("net"), root.resolve("self").resolve("net"));
+            java.nio.file.Files.copy(root.resolve("100").resolve("net").resolve("tcp"), root.resolve("self").resolve("net").resolve("tcp"));
+            java.nio.file.Files.write(output, SS_OUTPUT.getBytes());
+            MonitorMetrics metrics = new MonitorMetrics();
+            ConnectionSource source = new SockDiagConnectionSource(new ProcNetTcpTable(root, 1000, metrics),
+                new String[] {"cat", output.toString()}, 1000, metrics);
+            
+            List<NetworkConnection> connections = source.connections(100);
+            assertEquals(1, connections.size());
+            assertEquals(4294967296L, connections.get(0).getBytesReceived());
+            assertEquals(2049L, connections.get(0).getBytesSent());
+            source.connections(100);
+            assertEquals(1, metrics.get(MonitorMetrics.SOCK_DIAG_QUERIES), "One query per window");
+        } finally {
+            java.nio.file.Files.delete(output);
+            SyntheticProcfs.delete(root);
+        }
+    }
+}
+
+class ProcNetUnixTableTest {
+    
+    private static final String UNIX =
+        "Num       RefCount Protocol Flags    Type St Inode Path\n" +
+        "0000000000000000: 00000002 00000000 00010000 0001 01 7001 /var/run/postgresql/.s.PGSQL.5432\n" +
+        "0000000000000000: 00000003 00000000 00000000 0001 03 7002 /var/run/postgresql/.s.PGSQL.5432\n" +
+        "0000000000000000: 00000003 00000000 00000000 0001 03 7003\n" +
+        "0000000000000000: 00000003 00000000 00000000 0001 03 7004 /run/systemd/journal/stdout\n" +
+        "0000000000000000: 00000003 00000000 00000000 0001 03 7005 /tmp/.s.PGSQL.5433\n";
+    private static final String SS_OUTPUT =
+        "u_str ESTAB 0      0      /var/run/postgresql/.s.PGSQL.5432 7002 * 7003\n" +
+        "u_str ESTAB 0      0      * 7003 * 7002\n" +
+        "u_str ESTAB 0      0      /run/systemd/journal/stdout 7004 * 7010\n";
+    
+    @Test
+    void testUnnamedClientSocketIsResolvedThroughPeer() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-unix");
+        java.nio.file.Path output = java.nio.file.Files.createTempFile("ss", ".out");
+        try {
+            ProcNetTcpTableTest.addProcess(root, 100, 2002, 7003, 7010);
+            java.nio.file.Files.write(root.resolve("100").resolve("net").resolve("unix"),
+                UNIX.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            java.nio.file.Files.write(output, SS_OUTPUT.getBytes());
+            MonitorMetrics metrics = new MonitorMetrics();
+            ProcNetUnixTable unix = new ProcNetUnixTable(root, 1000, metrics,
+                new UnixPeerResolver(new String[] {"cat", output.toString()}, 1000, metrics));
+            ProcNetTcpTable table = new ProcNetTcpTable(root, 1000, metrics, unix);
+            
+            List<NetworkConnection> connections = table.connections(100, 5000);
+            assertEquals(2, connections.size(), "TCP and unix connections are both reported");
+            NetworkConnection local = connections.get(1);
+            assertEquals("/var/run/postgresql/.s.PGSQL.5432", local.getSocketPath());
+            assertEquals(5432, local.getRemotePort());
+            assertEquals("unix -> /var/run/postgresql/.s.PGSQL.5432 [ESTABLISHED]", local.toString());
+            
+            table.connections(100, 5500);
+            assertEquals(1, metrics.get(MonitorMetrics.SOCK_DIAG_QUERIES), "One peer query per window");
+        } finally {
+            java.nio.file.Files.delete(output);
+            SyntheticProcfs.delete(root);
+        }
+    }
+    
+    @Test
+    void testNamedSocketsNeedNoPeerQuery() throws Exception {
+        java.nio.file.Path root = java.nio.file.Files.createTempDirectory("proc-unix");
+        try {
+            ProcNetTcpTableTest.addProcess(root, 100, 7005, 7004);
+            java.nio.file.Files.write(root.resolve("100").resolve("net").resolve("unix"),
+                UNIX.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+            MonitorMetrics metrics = new MonitorMetrics();
+            ProcNetUnixTable unix = new ProcNetUnixTable(root, 1000, metrics, null);
+            
+            List<NetworkConnection> connections = new ArrayList<>();
+            unix.connections(100, new long[] {7005, 7004}, 5000, connections);
+            assertEquals(1, connections.size(), "Only sockets named .s.PGSQL.* are PostgreSQL connections");
+            assertEquals(5433, connections.get(0).getRemotePort());
+        } finally {
+            SyntheticProcfs.delete(root);
+        }
+    }
+}
+
+class ConnectionThroughputTrackerTest {
+    
+    private static NetworkConnection connection(int localPort, long bytesReceived) {
+        NetworkConnection conn = new NetworkConnection();
+        conn.setLocalAddress("10.0.1.15");
+        conn.setLocalPort(localPort);
+        conn.setRemoteAddress("10.0.1.5");
+        conn.setRemotePort(5001);
+        conn.setBytesReceived(bytesReceived);
+        return conn;
+    }
+    
+    @Test
+    void testPeakAndSustainedRates() {
+        ConnectionThroughputTracker tracker = new ConnectionThroughputTracker(16, 30000);
+        long mb = 1024 * 1024;
+        NetworkConnection conn = null;
+        // 80MB/s в течение 35 секунд, затем всплеск 200MB/s
+        for (int second = 0; second <= 35; second += 5) {
+            conn = connection(40000, second * 80 * mb);
+            tracker.record(conn, 1_000_000 + second * 1000L);
+        }
+        assertEquals(80 * mb, conn.getSustainedBytesPerSecond());
+        assertEquals(80 * mb, conn.getPeakBytesPerSecond());
+        
+        conn = connection(40000, 35 * 80 * mb + 5 * 200 * mb);
+        tracker.record(conn, 1_040_000);
+        assertEquals(200 * mb, conn.getPeakBytesPerSecond());
+        
+        NetworkConnection young = connection(40001, 100 * mb);
+        tracker.record(young, 1_040_000);
+        assertEquals(0, young.getSustainedBytesPerSecond(), "History shorter than the window is not sustained");
+    }
+    
+    @Test
+    void testTrackedConnectionsAreBounded() {
+        ConnectionThroughputTracker tracker = new ConnectionThroughputTracker(2, 30000);
+        tracker.record(connection(1, 100), 1000);
+        tracker.record(connection(2, 100), 1000);
+        tracker.record(connection(1, 200), 2000);
+        tracker.record(connection(3, 100), 2000);
+        assertEquals(2, tracker.size(), "Least recently seen connection should be evicted");
+        
+        NetworkConnection reused = connection(1, 50);
+        tracker.record(reused, 3000);
+        assertEquals(0, reused.getPeakBytesPerSecond(), "A counter drop means a new socket on the same 4-tuple");
+    }
+}
+
+class NetworkClassifierTest {
+    
+    private final NetworkClassifier networks = NetworkClassifier.parse(
+        "patroni=10.0.1.10/32;haproxy=10.0.1.5;loopback=127.0.0.0/8,::1/128;" +
+        "internal=10.0.0.0/8,172.16.0.0/12,192.168.0.0/16,fc00::/7;backup=2001:db8:b::/48");
+    
+    @Test
+    void testLongestPrefixWins() {
+        assertEquals(NetworkClassifier.NetworkClass.PATRONI, networks.classify("10.0.1.10"));
+        assertEquals(NetworkClassifier.NetworkClass.HAPROXY, networks.classify("10.0.1.5"));
+        assertEquals(NetworkClassifier.NetworkClass.INTERNAL, networks.classify("10.0.1.11"));
+        assertEquals(NetworkClassifier.NetworkClass.INTERNAL, networks.classify("172.31.255.1"), "172.16/12 is internal");
+        assertEquals(NetworkClassifier.NetworkClass.EXTERNAL, networks.classify("172.32.0.1"));
+        assertEquals(NetworkClassifier.NetworkClass.EXTERNAL, networks.classify("8.8.8.8"));
+    }
+    
+    @Test
+    void testIPv6AndMappedAddresses() {
+        assertEquals(NetworkClassifier.NetworkClass.LOOPBACK, networks.classify("::1"));
+        assertEquals(NetworkClassifier.NetworkClass.INTERNAL, networks.classify("fd12:3456::7"));
+        assertEquals(NetworkClassifier.NetworkClass.BACKUP, networks.classify("2001:db8:b:1::10"));
+        assertEquals(NetworkClassifier.NetworkClass.EXTERNAL, networks.classify("2001:db8:c::10"));
+        assertEquals(NetworkClassifier.NetworkClass.PATRONI, networks.classify("::ffff:10.0.1.10"),
+            "IPv4-mapped addresses are looked up as IPv4");
+    }
+    
+    @Test
+    void testNonAddressesAreUnknown() {
+        assertEquals(NetworkClassifier.NetworkClass.UNKNOWN, networks.classify("[local]"));
+        assertEquals(NetworkClassifier.NetworkClass.UNKNOWN, networks.classify("srv1.company.com"));
+        assertEquals(NetworkClassifier.NetworkClass.UNKNOWN, networks.classify("10.0.1"));
+        assertEquals(NetworkClassifier.NetworkClass.UNKNOWN, networks.classify("1:2:3"));
+        assertEquals(NetworkClassifier.NetworkClass.UNKNOWN, networks.classify(null));
+    }
+    
+    @Test
+    void testDefaultClassesLeavePostgreSQLHostsToHostList() {
+        NetworkClassifier defaults = NetworkClassifier.parse(MonitorConfiguration.NETWORK_CLASSES);
+        assertFalse(defaults.classify("10.0.1.10").isPostgreSQL());
+        assertEquals(NetworkClassifier.NetworkClass.INTERNAL, defaults.classify("127.0.0.53"), "Loopback is not external");
+        
+        // Монитор добавляет адреса хостов PostgreSQL по одному
+        defaults.add("127.0.0.1", NetworkClassifier.NetworkClass.LOOPBACK);
+        defaults.add("10.0.1.10", NetworkClassifier.NetworkClass.PATRONI);
+        assertTrue(defaults.classify("127.0.0.1").isPostgreSQL());
+        assertTrue(defaults.classify("::ffff:10.0.1.10").isPostgreSQL());
+        assertFalse(defaults.classify("127.0.0.53").isPostgreSQL(), "Only the listed loopback address is PostgreSQL");
+        assertFalse(defaults.classify("10.0.1.13").isPostgreSQL());
+    }
+}
+
+class HostResolverCacheTest {
+    
+    private final Map<String, String[]> zone = new ConcurrentHashMap<>();
+    private final AtomicInteger forwardLookups = new AtomicInteger();
+    private final CountDownLatch dnsReady = new CountDownLatch(1);
+    private final ExecutorService lookups = Executors.newSingleThreadExecutor();
+    
+    private final HostResolverCache.Resolver resolver = new HostResolverCache.Resolver() {
+        @Override
+        public String[] forward(String host) throws Exception {
+            dnsReady.await();
+            forwardLookups.incrementAndGet();
+            return zone.get(host);
+        }
+        
+        @Override
+        public String reverse(String address) throws Exception {
+            dnsReady.await();
+            return "10.0.1.20".equals(address) ? "backup-01.company.com" : null;
+        }
+    };
+    
+    private void awaitLookups() throws Exception {
+        lookups.submit(() -> { }).get();
+    }
+    
+    @Test
+    void testHostnamesExpandToAddressesWithoutBlocking() throws Exception {
+        zone.put("srv1.company.com", new String[] {"10.0.2.10", "10.0.2.11"});
+        HostResolverCache cache = new HostResolverCache(resolver, 0, 0, 16, lookups);
+        try {
+            cache.addHost("srv1.company.com");
+            cache.addHost("srv2.company.com");
+            assertNull(cache.hostFor("10.0.2.10"), "Callers never wait for DNS");
+            assertNull(cache.reverse("10.0.1.20"));
+            
+            dnsReady.countDown();
+            awaitLookups();
+            assertEquals("srv1.company.com", cache.hostFor("10.0.2.11"));
+            assertEquals(0, cache.addresses("srv2.company.com").length, "Failed names are cached as negative entries");
+            assertEquals("backup-01.company.com", cache.reverse("10.0.1.20"));
+            assertEquals("srv1.company.com", cache.reverse("10.0.2.10"), "Configured names are used for enrichment");
+            assertNull(cache.reverse("[local]"));
+            
+            // Сбой DNS при обновлении: прежние адреса сохраняются
+            zone.clear();
+            cache.refreshExpired();
+            awaitLookups();
+            assertEquals(4, forwardLookups.get());
+            assertEquals("srv1.company.com", cache.hostFor("10.0.2.10"));
+        } finally {
+            cache.shutdown();
+        }
+    }
+}
+
+class ReachabilityProberTest {
+    
+    @Test
+    void testAllTargetsProbedWithinOneTimeout() throws Exception {
+        // Порт только что закрытого сокета: подключение к нему отклоняется
+        java.net.ServerSocket closed = new java.net.ServerSocket(0, 50, java.net.InetAddress.getLoopbackAddress());
+        int refusedPort = closed.getLocalPort();
+        closed.close();
+        
+        try (java.net.ServerSocket server = new java.net.ServerSocket(0, 50, java.net.InetAddress.getLoopbackAddress())) {
+            List<String> events = new ArrayList<>();
+            MonitorMetrics metrics = new MonitorMetrics();
+            ReachabilityProber prober = new ReachabilityProber(500, metrics,
+                (target, up) -> events.add(target.getLabel() + (up ? " up" : " down")));
+            Map<String, java.net.InetSocketAddress> targets = new LinkedHashMap<>();
+            targets.put("local:up", new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), server.getLocalPort()));
+            targets.put("local:refused", new java.net.InetSocketAddress(java.net.InetAddress.getLoopbackAddress(), refusedPort));
+            // Адреса TEST-NET-1 не маршрутизируются: таймаут или немедленная ошибка
+            targets.put("dead-1:5432", new java.net.InetSocketAddress(java.net.InetAddress.getByName("192.0.2.1"), 5432));
+            targets.put("dead-2:5432", new java.net.InetSocketAddress(java.net.InetAddress.getByName("192.0.2.2"), 5432));
+            
+            long start = System.nanoTime();
+            prober.probe(targets);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsedMillis < 900, "Dead targets share one timeout, took " + elapsedMillis + " ms");
+            
+            assertTrue(prober.get("local:up").isUp());
+            assertEquals(1, prober.get("local:up").getCount());
+            assertEquals(1, metrics.get(ReachabilityProber.CONNECT_MICROSECONDS + "_bucket{target=\"local:up\",le=\"+Inf\"}"));
+            assertEquals(1, metrics.get(ReachabilityProber.CONNECT_MICROSECONDS + "_count{target=\"local:up\"}"));
+            assertEquals(prober.get("local:up").getLastLatencyMicros(),
+                metrics.get(ReachabilityProber.CONNECT_MICROSECONDS + "_sum{target=\"local:up\"}"));
+            assertFalse(prober.get("local:refused").isUp());
+            assertEquals(1, metrics.get(ReachabilityProber.PROBE_FAILURES + "{target=\"local:refused\"}"));
+            assertEquals(new HashSet<>(Arrays.asList("local:refused down", "dead-1:5432 down", "dead-2:5432 down")),
+                new HashSet<>(events),
+                "The first successful probe is not a state change");
+            
+            // Повторная проверка без изменений не порождает событий
+            events.clear();
+            targets.remove("dead-1:5432");
+            targets.remove("dead-2:5432");
+            prober.probe(targets);
+            assertTrue(events.isEmpty());
+            assertEquals(2, prober.size(), "Targets missing from the set are forgotten");
+            String exported = metrics.toPrometheus("db1", 0L);
+            assertFalse(exported.contains("target=\"dead-1:5432\""), "Forgotten targets stop exporting");
+            // Цель без единого подключения экспортирует полную гистограмму с нулями
+            assertTrue(exported.contains(ReachabilityProber.CONNECT_MICROSECONDS
+                + "_bucket{host=\"db1\",target=\"local:refused\",le=\"1000\"} 0 0"));
+            assertTrue(exported.contains(ReachabilityProber.CONNECT_MICROSECONDS
+                + "_sum{host=\"db1\",target=\"local:refused\"} 0 0"));
+            assertTrue(exported.contains(ReachabilityProber.CONNECT_MICROSECONDS
+                + "_count{host=\"db1\",target=\"local:refused\"} 0 0"));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.security.pgdump.monitor;
+
+import java.util.*;
+
+/**
+ * Скорость передачи по подключениям к PostgreSQL. Для каждого 4-tuple хранится кольцо
+ * замеров счетчиков tcp_info фиксированного размера в общих примитивных массивах;
+ * число отслеживаемых подключений ограничено, при переполнении освобождается слот
+ * подключения, дольше всех не встречавшегося в замерах
+ */
+class ConnectionThroughputTracker {
+    static final int RING_SIZE = 32;
+
+    private final int maxConnections;
+    private final long sustainedWindowMillis;
+    // Замеры слота s лежат в [s * RING_SIZE, (s + 1) * RING_SIZE)
+    private final long[] times;
+    private final long[] bytes;
+    private final int[] heads;
+    private final int[] counts;
+    private final int[] freeSlots;
+    private int freeCount;
+    // 4-tuple -> слот в порядке последнего обращения (первым идет самый давний)
+    private final LinkedHashMap<String, Integer> slots = new LinkedHashMap<>(16, 0.75f, true);
+
+    public ConnectionThroughputTracker() {
+        this(MonitorConfiguration.MAX_TRACKED_CONNECTIONS, MonitorConfiguration.SUSTAINED_THROUGHPUT_WINDOW);
+    }
+
+    ConnectionThroughputTracker(int maxConnections, long sustainedWindowMillis) {
+        this.maxConnections = maxConnections;
+        this.sustainedWindowMillis = sustainedWindowMillis;
+        this.times = new long[maxConnections * RING_SIZE];
+        this.bytes = new long[maxConnections * RING_SIZE];
+        this.heads = new int[maxConnections];
+        this.counts = new int[maxConnections];
+        this.freeSlots = new int[maxConnections];
+        for (int i = 0; i < maxConnections; i++) {
+            freeSlots[i] = maxConnections - 1 - i;
+        }
+        this.freeCount = maxConnections;
+    }
+
+    static String tuple(NetworkConnection conn) {
+        return conn.getLocalAddress() + ":" + conn.getLocalPort() + "-" + conn.getRemoteAddress() + ":" + conn.getRemotePort();
+    }
+
+    /**
+     * Новый замер подключения: переданные байты (получено + подтверждено) на момент nowMillis.
+     * Пиковая и устойчивая скорость записываются в conn
+     */
+    public void record(NetworkConnection conn) {
+        record(conn, System.currentTimeMillis());
+    }
+
+    synchronized void record(NetworkConnection conn, long nowMillis) {
+        long total = conn.getBytesReceived() + conn.getBytesSent();
+        String tuple = tuple(conn);
+        Integer known = slots.get(tuple);
+        int slot;
+        if (known != null) {
+            slot = known;
+            // Счетчики уменьшились - тот же 4-tuple занял новый сокет
+            if (counts[slot] > 0 && total < bytes[latest(slot)]) {
+                counts[slot] = 0;
+            }
+        } else {
+            slot = allocate();
+            slots.put(tuple, slot);
+        }
+
+        int i = slot * RING_SIZE + heads[slot];
+        times[i] = nowMillis;
+        bytes[i] = total;
+        heads[slot] = (heads[slot] + 1) % RING_SIZE;
+        if (counts[slot] < RING_SIZE) counts[slot]++;
+
+        conn.setPeakBytesPerSecond(peakRate(slot));
+        conn.setSustainedBytesPerSecond(sustainedRate(slot, nowMillis));
+    }
+
+    private int allocate() {
+        if (freeCount == 0) {
+            Iterator<Integer> eldest = slots.values().iterator();
+            freeSlots[freeCount++] = eldest.next();
+            eldest.remove();
+        }
+        int slot = freeSlots[--freeCount];
+        heads[slot] = 0;
+        counts[slot] = 0;
+        return slot;
+    }
+
+    private int latest(int slot) {
+        return slot * RING_SIZE + (heads[slot] - 1 + RING_SIZE) % RING_SIZE;
+    }
+
+    /**
+     * Наибольшая скорость между соседними замерами
+     */
+    private long peakRate(int slot) {
+        long peak = 0;
+        int base = slot * RING_SIZE;
+        int newest = (heads[slot] - 1 + RING_SIZE) % RING_SIZE;
+        for (int n = 1; n < counts[slot]; n++) {
+            int current = base + (newest - n + 1 + RING_SIZE) % RING_SIZE;
+            int previous = base + (newest - n + RING_SIZE) % RING_SIZE;
+            long elapsed = times[current] - times[previous];
+            if (elapsed > 0) {
+                peak = Math.max(peak, (bytes[current] - bytes[previous]) * 1000 / elapsed);
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Средняя скорость за окно sustainedWindowMillis; 0, пока история короче окна
+     */
+    private long sustainedRate(int slot, long nowMillis) {
+        int base = slot * RING_SIZE;
+        int newest = (heads[slot] - 1 + RING_SIZE) % RING_SIZE;
+        for (int n = 1; n < counts[slot]; n++) {
+            int i = base + (newest - n + RING_SIZE) % RING_SIZE;
+            long elapsed = nowMillis - times[i];
+            if (elapsed >= sustainedWindowMillis) {
+                return (bytes[base + newest] - bytes[i]) * 1000 / elapsed;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Подключение закрыто: слот освобождается
+     */
+    public synchronized void forget(NetworkConnection conn) {
+        Integer slot = slots.remove(tuple(conn));
+        if (slot != null) {
+            freeSlots[freeCount++] = slot;
+        }
+    }
+
+    public synchronized int size() {
+        return slots.size();
+    }
+
+    public int capacity() {
+        return maxConnections;
+    }
+}
@@ -0,0 +1,205 @@
+package com.security.pgdump.monitor;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Дерево процессов по ppid из /proc/[pid]/stat. Обновляется только для новых и
+ * завершившихся pid, поэтому запросы "есть ли среди предков sshd" выполняются
+ * за O(глубины), а обход потомков - за O(размера поддерева), без повторного сканирования
+ */
+class ProcessTree {
+    // Защита от циклов при переиспользовании pid
+    private static final int MAX_DEPTH = 1024;
+
+    /**
+     * Узел дерева: один образ процесса (pid, starttime)
+     */
+    static final class Node {
+        final int pid;
+        final long startTicks;
+        private int ppid;
+        private String comm;
+        private Node parent;
+        private final List<Node> children = new ArrayList<>(2);
+
+        Node(int pid, int ppid, long startTicks, String comm) {
+            this.pid = pid;
+            this.ppid = ppid;
+            this.startTicks = startTicks;
+            this.comm = comm;
+        }
+
+        public int getPid() { return pid; }
+        public int getPpid() { return ppid; }
+        public String getComm() { return comm; }
+
+        @Override
+        public String toString() {
+            return comm + "(" + pid + ")";
+        }
+    }
+
+    private final Map<Integer, Node> nodes = new HashMap<>();
+    // Процессы, чей родитель еще не встретился при обходе (обход идет по возрастанию pid)
+    private final Map<Integer, List<Node>> orphansByPpid = new HashMap<>();
+
+    /**
+     * Добавление нового процесса. Для уже известной пары (pid, starttime) - обновление comm после exec
+     */
+    public synchronized void add(int pid, int ppid, long startTicks, String comm) {
+        Node existing = nodes.get(pid);
+        if (existing != null) {
+            if (existing.startTicks == startTicks) {
+                existing.comm = comm;
+                return;
+            }
+            remove(pid); // pid переиспользован
+        }
+
+        Node node = new Node(pid, ppid, startTicks, comm);
+        nodes.put(pid, node);
+        link(node);
+
+        // Дети, добавленные раньше родителя
+        List<Node> orphans = orphansByPpid.remove(pid);
+        if (orphans != null) {
+            for (Node orphan : orphans) {
+                if (orphan.startTicks >= startTicks) {
+                    orphan.parent = node;
+                    node.children.add(orphan);
+                }
+            }
+        }
+    }
+
+    public void add(ProcessInfo process) {
+        String command = process.getCommand() != null ? process.getCommand() : "";
+        // starttime берется из ключа таблицы процессов, чтобы удаление по ключу нашло узел
+        add(process.getPidNumber(), process.getPpid(), ProcessTable.startTicks(process.getPackedKey()),
+            command.substring(command.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Удаление завершившегося процесса. Ядро переназначает его детей init (или subreaper),
+     * до следующего чтения stat считаем родителем pid 1
+     */
+    public synchronized void remove(int pid) {
+        Node node = nodes.remove(pid);
+        if (node == null) {
+            return;
+        }
+        unlink(node);
+
+        for (Node child : node.children) {
+            child.parent = null;
+            child.ppid = 1;
+            link(child);
+        }
+        node.children.clear();
+    }
+
+    /**
+     * Удаление с проверкой starttime: pid мог уже достаться новому процессу
+     */
+    public synchronized void remove(int pid, long startTicks) {
+        Node node = nodes.get(pid);
+        if (node != null && node.startTicks == startTicks) {
+            remove(pid);
+        }
+    }
+
+    private void link(Node node) {
+        Node parent = node.ppid != node.pid ? nodes.get(node.ppid) : null;
+        // Родитель не может быть запущен позже ребенка
+        if (parent != null && parent.startTicks <= node.startTicks) {
+            node.parent = parent;
+            parent.children.add(node);
+        } else if (node.ppid > 0) {
+            orphansByPpid.computeIfAbsent(node.ppid, key -> new ArrayList<>(2)).add(node);
+        }
+    }
+
+    private void unlink(Node node) {
+        if (node.parent != null) {
+            node.parent.children.remove(node);
+            node.parent = null;
+        } else {
+            List<Node> orphans = orphansByPpid.get(node.ppid);
+            if (orphans != null) {
+                orphans.remove(node);
+                if (orphans.isEmpty()) {
+                    orphansByPpid.remove(node.ppid);
+                }
+            }
+        }
+    }
+
+    public synchronized Node get(int pid) {
+        return nodes.get(pid);
+    }
+
+    /**
+     * Ближайший предок, удовлетворяющий условию, или null
+     */
+    public synchronized Node findAncestor(int pid, Predicate<Node> condition) {
+        Node node = nodes.get(pid);
+        Node current = node != null ? node.parent : null;
+        for (int depth = 0; current != null && depth < MAX_DEPTH; depth++) {
+            if (condition.test(current)) {
+                return current;
+            }
+            current = current.parent;
+        }
+        return null;
+    }
+
+    /**
+     * Цепочка от корня до процесса, например "cron(812) -> bash(900) -> pg_dump(1000)"
+     */
+    public synchronized List<Node> lineage(int pid) {
+        LinkedList<Node> chain = new LinkedList<>();
+        Node current = nodes.get(pid);
+        for (int depth = 0; current != null && depth < MAX_DEPTH; depth++) {
+            chain.addFirst(current);
+            current = current.parent;
+        }
+        return chain;
+    }
+
+    /**
+     * Все потомки процесса в порядке обхода в глубину (родитель раньше детей)
+     */
+    public synchronized List<Node> descendants(int pid) {
+        List<Node> result = new ArrayList<>();
+        Node root = nodes.get(pid);
+        if (root == null) {
+            return result;
+        }
+
+        Deque<Node> stack = new ArrayDeque<>(root.children);
+        while (!stack.isEmpty() && result.size() < nodes.size()) {
+            Node node = stack.pop();
+            result.add(node);
+            for (Node child : node.children) {
+                stack.push(child);
+            }
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    static String format(List<Node> chain) {
+        StringBuilder sb = new StringBuilder();
+        for (Node node : chain) {
+            if (sb.length() > 0) {
+                sb.append(" -> ");
+            }
+            sb.append(node);
+        }
+        return sb.toString();
+    }
+}
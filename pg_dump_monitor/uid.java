@@ -0,0 +1,188 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Кэш uid -> имя пользователя. Поиск через NSS (SSSD/LDAP) выполняется один раз
+ * на uid, а не на процесс, и только в фоновом потоке: до ответа каталога отдается имя
+ * из локального /etc/passwd или числовой uid. Устаревшие записи продолжают отдаваться
+ * из кэша и обновляются в том же потоке, так что цикл сканирования не ждет каталог
+ */
+class UserNameCache {
+    private static final Path PASSWD = Paths.get("/etc/passwd");
+    // Один поток на все кэши: зависший каталог задерживает только следующие запросы к нему
+    private static final ExecutorService LOOKUPS = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "pgdump-uid-lookup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Запись кэша: имя и время последнего успешного разрешения
+     */
+    private static final class Entry {
+        final String name;
+        final long resolvedAt;
+
+        Entry(String name, long resolvedAt) {
+            this.name = name;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+    /**
+     * Источник имен; по умолчанию getent passwd, с /etc/passwd как запасным вариантом
+     */
+    interface Resolver {
+        String lookup(int uid);
+    }
+
+    private final SecurityLogger logger = new SecurityLogger();
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+    private final Resolver resolver;
+    private final Resolver localResolver;
+    private final Executor lookups;
+    private final long ttlMillis;
+
+    public UserNameCache() {
+        this(UserNameCache::lookupSystem, uid -> lookupPasswd(PASSWD, uid), LOOKUPS,
+             MonitorConfiguration.USER_CACHE_TTL);
+    }
+
+    UserNameCache(Resolver resolver, Resolver localResolver, Executor lookups, long ttlMillis) {
+        this.resolver = resolver;
+        this.localResolver = localResolver;
+        this.lookups = lookups;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Имя пользователя по uid без ожидания каталога. Для нового uid запрос к каталогу ставится
+     * в очередь, а до ответа отдается имя из /etc/passwd или числовой uid
+     */
+    public String resolve(int uid) {
+        if (uid < 0) {
+            return "unknown";
+        }
+        Entry entry = entries.get(uid);
+        if (entry != null) {
+            return entry.name;
+        }
+        String local = null;
+        try {
+            local = localResolver.lookup(uid);
+        } catch (Exception e) {
+            logger.debug("Local user lookup failed for uid " + uid + ": " + e.getMessage());
+        }
+        // Предварительная запись устарела сразу: фоновое обновление повторит запрос, если каталог не ответил
+        Entry provisional = new Entry(local != null ? local : String.valueOf(uid), 0);
+        entry = entries.putIfAbsent(uid, provisional);
+        if (entry != null) {
+            return entry.name;
+        }
+        request(uid);
+        return provisional.name;
+    }
+
+    /**
+     * Запуск фонового обновления устаревших записей
+     */
+    public void start(ScheduledExecutorService scheduler) {
+        long period = Math.max(1000, ttlMillis / 2);
+        scheduler.scheduleWithFixedDelay(this::refreshExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Повторное разрешение записей старше TTL (переименование, удаление пользователя в каталоге).
+     * Запросы выполняются в потоке поиска, а не в потоке планировщика
+     */
+    void refreshExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+            if (now - e.getValue().resolvedAt >= ttlMillis) {
+                request(e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Запрос к каталогу в потоке поиска; uid, уже стоящий в очереди, повторно не ставится
+     */
+    private void request(int uid) {
+        if (!pending.add(uid)) {
+            return;
+        }
+        try {
+            lookups.execute(() -> {
+                try {
+                    refresh(uid);
+                } finally {
+                    pending.remove(uid);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(uid);
+        }
+    }
+
+    private Entry refresh(int uid) {
+        String name = null;
+        try {
+            name = resolver.lookup(uid);
+        } catch (Exception e) {
+            logger.debug("User lookup failed for uid " + uid + ": " + e.getMessage());
+        }
+
+        Entry previous = entries.get(uid);
+        if (name == null) {
+            // Каталог недоступен: оставляем прежнее имя, иначе показываем числовой uid
+            name = previous != null ? previous.name : String.valueOf(uid);
+        }
+        Entry entry = new Entry(name, System.currentTimeMillis());
+        entries.put(uid, entry);
+        return entry;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * getent passwd с таймаутом на все время работы: зависший NSS уничтожается таймером
+     */
+    static String lookupSystem(int uid) {
+        try {
+            String line = SockDiagConnectionSource.run(
+                new String[] {"getent", "passwd", String.valueOf(uid)}, MonitorConfiguration.NETWORK_TIMEOUT,
+                in -> new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).readLine());
+            if (line != null && line.indexOf(':') > 0) {
+                return line.substring(0, line.indexOf(':'));
+            }
+        } catch (IOException e) {
+            // getent отсутствует (минимальный контейнер)
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return lookupPasswd(PASSWD, uid);
+    }
+
+    static String lookupPasswd(Path passwd, int uid) {
+        try {
+            for (String line : Files.readAllLines(passwd, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(":", 4);
+                if (fields.length >= 3 && fields[2].equals(String.valueOf(uid))) {
+                    return fields[0];
+                }
+            }
+        } catch (IOException e) {
+            // Файл недоступен
+        }
+        return null;
+    }
+}
@@ -0,0 +1,324 @@
+package com.security.pgdump.monitor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Unix-сокеты из /proc/net/unix: локальный pg_dump на узле Patroni подключается через
+ * /var/run/postgresql/.s.PGSQL.5432, а не по TCP. Таблица разбирается один раз на окно
+ * SOCKET_TABLE_MAX_AGE для каждого network namespace и сопоставляется с дескрипторами
+ * кандидата по inode. У клиентского сокета нет пути - путь есть у серверной стороны,
+ * поэтому безымянный подключенный сокет разрешается через его пару (UnixPeerResolver)
+ */
+class ProcNetUnixTable {
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024; // 64KB
+    private static final int INITIAL_SOCKETS = 256;
+    private static final int MAX_NAMESPACES = 1024;
+    private static final String PG_SOCKET_PREFIX = ".s.PGSQL.";
+    private static final int SOCK_STREAM = 1;
+    private static final int SS_CONNECTED = 3;
+
+    /**
+     * Unix-сокеты одного network namespace; путь хранится только у именованных сокетов
+     */
+    static final class Snapshot {
+        long[] inodes = new long[INITIAL_SOCKETS];
+        byte[] types = new byte[INITIAL_SOCKETS];
+        byte[] states = new byte[INITIAL_SOCKETS];
+        String[] paths = new String[INITIAL_SOCKETS];
+        int count;
+        final InodeIndex index = new InodeIndex();
+        long readMillis;
+
+        void add(long inode, int type, int state, String path) {
+            if (count == inodes.length) {
+                int capacity = count * 2;
+                inodes = Arrays.copyOf(inodes, capacity);
+                types = Arrays.copyOf(types, capacity);
+                states = Arrays.copyOf(states, capacity);
+                paths = Arrays.copyOf(paths, capacity);
+            }
+            inodes[count] = inode;
+            types[count] = (byte) type;
+            states[count] = (byte) state;
+            paths[count] = path;
+            count++;
+        }
+
+        void clear() {
+            Arrays.fill(paths, 0, count, null);
+            count = 0;
+        }
+
+        int find(long inode) {
+            return index.find(inodes, inode);
+        }
+
+        String path(long inode) {
+            int i = find(inode);
+            return i >= 0 ? paths[i] : null;
+        }
+    }
+
+    private final String procPrefix;
+    private final long maxAgeMillis;
+    private final MonitorMetrics metrics;
+    private final UnixPeerResolver peers;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private long selfNamespace;
+    private final Map<Long, Snapshot> byNamespace =
+        new LinkedHashMap<Long, Snapshot>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Snapshot> eldest) {
+                return size() > MAX_NAMESPACES;
+            }
+        };
+
+    public ProcNetUnixTable(MonitorMetrics metrics) {
+        this(ProcfsProcessScanner.DEFAULT_PROC_ROOT, MonitorConfiguration.SOCKET_TABLE_MAX_AGE, metrics,
+             "procfs".equals(MonitorConfiguration.CONNECTION_SOURCE) ? null
+                 : new UnixPeerResolver(UnixPeerResolver.SS_COMMAND, MonitorConfiguration.SOCKET_TABLE_MAX_AGE, metrics));
+    }
+
+    /**
+     * peers - разрешение пар безымянных сокетов или null (только сокеты с путем, без запуска ss)
+     */
+    ProcNetUnixTable(Path procRoot, long maxAgeMillis, MonitorMetrics metrics, UnixPeerResolver peers) {
+        this.procPrefix = procRoot.toString() + File.separator;
+        this.maxAgeMillis = maxAgeMillis;
+        this.metrics = metrics;
+        this.peers = peers;
+    }
+
+    /**
+     * Подключения процесса к сокетам PostgreSQL среди inodes; добавляются в connections
+     */
+    synchronized void connections(int pid, long[] inodes, long nowMillis, List<NetworkConnection> connections) {
+        Snapshot snapshot = null;
+        for (long inode : inodes) {
+            if (snapshot == null) {
+                snapshot = snapshot(pid, nowMillis);
+            }
+            int i = snapshot.find(inode);
+            if (i < 0 || snapshot.types[i] != SOCK_STREAM || snapshot.states[i] != SS_CONNECTED) {
+                continue;
+            }
+            String path = snapshot.paths[i];
+            if (path == null && peers != null) {
+                // Путь сокета PostgreSQL виден только у серверной стороны пары
+                long peer = peers.peer(inode, nowMillis);
+                path = peer > 0 ? snapshot.path(peer) : null;
+            }
+            if (isPostgreSQLSocket(path)) {
+                connections.add(toConnection(inode, path));
+            }
+        }
+    }
+
+    /**
+     * Таблица unix-сокетов пространства имен процесса; свое пространство имен читается через
+     * /proc/self/net. Если чтение не удалось, остается прежний снимок со старым временем чтения
+     */
+    private Snapshot snapshot(int pid, long nowMillis) {
+        long namespace = namespace(String.valueOf(pid));
+        Snapshot snapshot = byNamespace.get(namespace);
+        if (snapshot != null && nowMillis - snapshot.readMillis < maxAgeMillis) {
+            return snapshot;
+        }
+
+        if (selfNamespace == 0) {
+            selfNamespace = namespace("self");
+        }
+        String source = namespace != 0 && namespace == selfNamespace ? "self" : String.valueOf(pid);
+        String path = procPrefix + source + File.separator + "net" + File.separator + "unix";
+        int length;
+        while ((length = ProcfsProcessScanner.readFile(path, buffer, buffer.length)) == buffer.length) {
+            buffer = new byte[buffer.length * 2];
+        }
+        if (length <= 0) {
+            if (snapshot == null) {
+                snapshot = new Snapshot();
+                snapshot.index.build(snapshot.inodes, 0);
+            }
+            return snapshot;
+        }
+        if (snapshot == null) {
+            snapshot = new Snapshot();
+            byNamespace.put(namespace, snapshot);
+        }
+
+        snapshot.clear();
+        parse(buffer, length, snapshot);
+        snapshot.index.build(snapshot.inodes, snapshot.count);
+        snapshot.readMillis = nowMillis;
+        metrics.increment(MonitorMetrics.SOCKET_TABLE_READS);
+        return snapshot;
+    }
+
+    private long namespace(String pid) {
+        return ContainerResolver.parseNamespaceInode(ProcNetTcpTable.readLink(procPrefix + pid + "/ns/net"));
+    }
+
+    /**
+     * Разбор строк "Num RefCount Protocol Flags Type St Inode [Path]"; первая строка - заголовок.
+     * Строка создается только для пути сокета
+     */
+    static void parse(byte[] buf, int length, Snapshot snapshot) {
+        int pos = 0;
+        while (pos < length && buf[pos] != '\n') pos++;
+        pos++;
+
+        while (pos < length) {
+            int lineEnd = pos;
+            while (lineEnd < length && buf[lineEnd] != '\n') lineEnd++;
+
+            int field = 0;
+            int type = 0;
+            int state = 0;
+            long inode = 0;
+            String path = null;
+            int i = pos;
+            while (i < lineEnd) {
+                while (i < lineEnd && buf[i] == ' ') i++;
+                int start = i;
+                // Путь - остаток строки (может содержать пробелы)
+                if (field == 7) {
+                    if (start < lineEnd) {
+                        path = new String(buf, start, lineEnd - start, StandardCharsets.UTF_8);
+                    }
+                    break;
+                }
+                while (i < lineEnd && buf[i] != ' ') i++;
+                if (start == i) break;
+
+                if (field == 4) {
+                    type = (int) ProcNetTcpTable.hex(buf, start, i);
+                } else if (field == 5) {
+                    state = (int) ProcNetTcpTable.hex(buf, start, i);
+                } else if (field == 6) {
+                    inode = ProcfsProcessScanner.parseLong(buf, start, i);
+                }
+                field++;
+            }
+            if (field >= 7) {
+                snapshot.add(inode, type, state, path);
+            }
+            pos = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Сокет PostgreSQL: /var/run/postgresql/.s.PGSQL.5432 и тот же файл в другом каталоге
+     * (unix_socket_directories) или в абстрактном пространстве имен ("@...")
+     */
+    static boolean isPostgreSQLSocket(String path) {
+        return path != null && path.substring(path.lastIndexOf('/') + 1).startsWith(PG_SOCKET_PREFIX);
+    }
+
+    static NetworkConnection toConnection(long inode, String path) {
+        NetworkConnection conn = new NetworkConnection();
+        conn.setSocketPath(path);
+        conn.setRemoteAddress("[local]");
+        conn.setRemotePort(ProcfsProcessScanner.parsePid(path.substring(path.lastIndexOf('.') + 1)));
+        conn.setState("ESTABLISHED");
+        conn.setInode(inode);
+        return conn;
+    }
+}
+
+/**
+ * Пары подключенных unix-сокетов. /proc/net/unix пару не показывает, ее отдает sock_diag
+ * (UNIX_DIAG_PEER); в JDK нет AF_NETLINK, поэтому запрос выполняет ss -x. Один запрос
+ * на окно и только когда у кандидата есть безымянный подключенный сокет;
+ * без ss безымянные сокеты не разрешаются
+ */
+class UnixPeerResolver {
+    static final String[] SS_COMMAND = {"ss", "-xHn"};
+
+    private final SecurityLogger logger = new SecurityLogger();
+    private final String[] command;
+    private final long maxAgeMillis;
+    private final long queryTimeoutMillis;
+    private final MonitorMetrics metrics;
+    private Map<Long, Long> peers = Collections.emptyMap();
+    private long queryMillis = -1;
+    private volatile boolean available = true;
+
+    UnixPeerResolver(String[] command, long maxAgeMillis, MonitorMetrics metrics) {
+        this(command, maxAgeMillis, SockDiagConnectionSource.QUERY_TIMEOUT, metrics);
+    }
+
+    UnixPeerResolver(String[] command, long maxAgeMillis, long queryTimeoutMillis, MonitorMetrics metrics) {
+        this.command = command;
+        this.maxAgeMillis = maxAgeMillis;
+        this.queryTimeoutMillis = queryTimeoutMillis;
+        this.metrics = metrics;
+    }
+
+    /**
+     * inode парного сокета или 0
+     */
+    synchronized long peer(long inode, long nowMillis) {
+        if (!available) {
+            return 0;
+        }
+        if (queryMillis < 0 || nowMillis - queryMillis >= maxAgeMillis) {
+            peers = query();
+            queryMillis = nowMillis;
+        }
+        Long peer = peers.get(inode);
+        return peer != null ? peer : 0;
+    }
+
+    private Map<Long, Long> query() {
+        metrics.increment(MonitorMetrics.SOCK_DIAG_QUERIES);
+        try {
+            Map<Long, Long> result = SockDiagConnectionSource.run(command, queryTimeoutMillis, UnixPeerResolver::parse);
+            if (result == null) {
+                logger.debug("ss -x did not finish in " + queryTimeoutMillis + " ms, unix peers skipped");
+                return Collections.emptyMap();
+            }
+            return result;
+        } catch (IOException e) {
+            available = false;
+            logger.info("sock_diag is not available, unnamed unix sockets are not resolved: " + e.getMessage());
+            return Collections.emptyMap();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Строки "u_str ESTAB 0 0 <local> <inode> <peer> <peer inode>": два последних числовых поля
+     * с конца строки (путь может содержать пробелы). Пара запоминается в обе стороны
+     */
+    static Map<Long, Long> parse(InputStream in) throws IOException {
+        Map<Long, Long> result = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length < 8 || !parts[0].equals("u_str")) {
+                continue;
+            }
+            long peer = parseInode(parts[parts.length - 1]);
+            long local = parseInode(parts[parts.length - 3]);
+            if (local > 0 && peer > 0) {
+                result.put(local, peer);
+                result.put(peer, local);
+            }
+        }
+        return result;
+    }
+
+    private static long parseInode(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
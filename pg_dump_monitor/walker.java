@@ -0,0 +1,126 @@
+package com.security.pgdump.monitor;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Параллельный обход /proc для больших хостов. Список pid делится на диапазоны,
+ * диапазоны разбирают воркеры ограниченного пула; у каждого воркера свой сканер
+ * с собственными буферами. Обработчик создается на каждый диапазон и копит результаты
+ * локально, объединение выполняет вызывающий поток после завершения всех диапазонов
+ */
+class ParallelProcfsWalker {
+    // Диапазонов больше, чем воркеров: выравнивание нагрузки при неравномерных pid
+    private static final int PARTITIONS_PER_WORKER = 4;
+
+    /**
+     * Обработчик одного диапазона pid; вызывается только из одного потока
+     */
+    interface PartitionVisitor {
+        void visit(ProcfsProcessScanner scanner, ProcEntry entry);
+    }
+
+    private final Path procRoot;
+    private final int workers;
+    private final ProcfsProcessScanner[] scanners;
+    private final ExecutorService pool;
+
+    public ParallelProcfsWalker(Path procRoot, UserNameCache userNames, int workers) {
+        this.procRoot = procRoot;
+        this.workers = Math.max(1, workers);
+        this.scanners = new ProcfsProcessScanner[this.workers];
+        for (int i = 0; i < this.workers; i++) {
+            scanners[i] = new ProcfsProcessScanner(procRoot, userNames);
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = this.workers == 1 ? null : Executors.newFixedThreadPool(this.workers, r -> {
+            Thread thread = new Thread(r, "procfs-walker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Обход всех процессов. Возвращает обработчики диапазонов в порядке возрастания pid
+     */
+    public <V extends PartitionVisitor> List<V> walk(Supplier<V> visitorFactory) throws InterruptedException {
+        int[] pids = listPids();
+        int partitionCount = pool == null ? 1 : Math.min(Math.max(1, pids.length), workers * PARTITIONS_PER_WORKER);
+        List<V> visitors = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            visitors.add(visitorFactory.get());
+        }
+
+        if (pool == null) {
+            walkRange(scanners[0], pids, 0, pids.length, visitors.get(0));
+            return visitors;
+        }
+
+        AtomicInteger nextPartition = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (int w = 0; w < workers; w++) {
+            ProcfsProcessScanner scanner = scanners[w];
+            futures.add(pool.submit(() -> {
+                int partition;
+                while ((partition = nextPartition.getAndIncrement()) < partitionCount) {
+                    int from = (int) ((long) pids.length * partition / partitionCount);
+                    int to = (int) ((long) pids.length * (partition + 1) / partitionCount);
+                    walkRange(scanner, pids, from, to, visitors.get(partition));
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("procfs walk failed", e.getCause());
+            }
+        }
+        return visitors;
+    }
+
+    private static void walkRange(ProcfsProcessScanner scanner, int[] pids, int from, int to, PartitionVisitor visitor) {
+        for (int i = from; i < to; i++) {
+            if (scanner.readProcess(pids[i])) {
+                visitor.visit(scanner, scanner.currentEntry());
+            }
+        }
+    }
+
+    /**
+     * Отсортированный список pid из /proc
+     */
+    int[] listPids() {
+        String[] names = procRoot.toFile().list();
+        if (names == null) {
+            return new int[0];
+        }
+
+        int[] pids = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            int pid = ProcfsProcessScanner.parsePid(name);
+            if (pid > 0) {
+                pids[count++] = pid;
+            }
+        }
+        int[] result = Arrays.copyOf(pids, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+}